@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.RangeSerialization;
+
+/**
+ * Creates the same data for every run of a benchmark
+ */
+class BenchmarkData {
+
+  /**
+   * @return Entries with rows of the given number of bytes, a few columns per row, and random values
+   */
+  static SortedMap<Key,Value> createEntries(int numEntries, int rowLength, int valueLength) {
+    Random random = new Random(42);
+    SortedMap<Key,Value> entries = new TreeMap<>();
+    for (int i = 0; i < numEntries; i++) {
+      byte[] value = new byte[valueLength];
+      random.nextBytes(value);
+
+      byte[] cq = Integer.toString(i % 4).getBytes(StandardCharsets.UTF_8);
+      entries.put(new Key(createRow(i / 4, rowLength), "cf".getBytes(StandardCharsets.UTF_8), cq, new byte[0], random.nextLong()), new Value(value));
+    }
+    return entries;
+  }
+
+  /**
+   * @return Contiguous leaves with random hashes, with ranges as they are read from a table of hashes
+   */
+  static List<MerkleTreeNode> createLeaves(int numLeaves, int hashLength) {
+    Random random = new Random(42);
+    List<MerkleTreeNode> leaves = new ArrayList<>(numLeaves);
+    byte[] empty = new byte[0], startRow = empty;
+    for (int i = 0; i < numLeaves; i++) {
+      byte[] endRow = i == numLeaves - 1 ? empty : createRow(i, 10);
+      byte[] hash = new byte[hashLength];
+      random.nextBytes(hash);
+
+      Range range = RangeSerialization.toRange(new Key(startRow, empty, endRow, empty, 0l));
+      leaves.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), hash));
+      startRow = endRow;
+    }
+    return leaves;
+  }
+
+  /**
+   * @return The zero-padded decimal number as a row of the given length
+   */
+  static byte[] createRow(int i, int length) {
+    byte[] row = new byte[length];
+    Arrays.fill(row, (byte) '0');
+
+    byte[] digits = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+    System.arraycopy(digits, Math.max(0, digits.length - length), row, Math.max(0, length - digits.length), Math.min(length, digits.length));
+    return row;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.benchmark;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.cli.GenerateHashes;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.skvi.KeyValueDigester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashes entries which were already read back to the client, as {@link GenerateHashes} does for each range when the
+ * iterator is not pushed down. Each operation is one Key-Value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ClientDigestBenchmark {
+
+  @Param({"16", "256"})
+  public int rowLength;
+
+  @Param({"0", "64", "4096"})
+  public int valueLength;
+
+  @Param({"MD5", HashFunction.MURMUR3_128})
+  public String hashName;
+
+  @Param({"false", "true"})
+  public boolean combinable;
+
+  private List<Entry<Key,Value>> entries;
+  private KeyValueDigester digester;
+
+  @Setup
+  public void createEntries() throws NoSuchAlgorithmException {
+    entries = new ArrayList<>(BenchmarkData.createEntries(DigestIteratorBenchmark.NUM_ENTRIES, rowLength, valueLength).entrySet());
+    digester = KeyValueDigester.create(HashFunction.forName(hashName), combinable);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DigestIteratorBenchmark.NUM_ENTRIES)
+  public byte[] digest() {
+    return GenerateHashes.digest(digester, entries);
+  }
+}
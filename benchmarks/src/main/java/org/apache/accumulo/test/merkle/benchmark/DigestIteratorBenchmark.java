@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.skvi.DigestIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Hashes every entry of an in-memory source with the {@link DigestIterator}, as a tablet server would with the iterator
+ * pushed down. Each operation is one Key-Value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DigestIteratorBenchmark {
+  static final int NUM_ENTRIES = 10000;
+
+  @Param({"16", "256"})
+  public int rowLength;
+
+  @Param({"0", "64", "4096"})
+  public int valueLength;
+
+  @Param({"MD5", HashFunction.MURMUR3_128})
+  public String hashName;
+
+  @Param({"false", "true"})
+  public boolean combinable;
+
+  private SortedMap<Key,Value> entries;
+  private Map<String,String> options;
+
+  @Setup
+  public void createEntries() {
+    entries = BenchmarkData.createEntries(NUM_ENTRIES, rowLength, valueLength);
+
+    options = new HashMap<>();
+    options.put(DigestIterator.HASH_NAME_KEY, hashName);
+    options.put(DigestIterator.COMBINABLE_KEY, Boolean.toString(combinable));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_ENTRIES)
+  public void digest(Blackhole bh) throws IOException {
+    DigestIterator iter = new DigestIterator();
+    iter.init(new SortedMapIterator(entries), options, null);
+    iter.seek(new Range(), Collections.<ByteSequence> emptyList(), false);
+
+    while (iter.hasTop()) {
+      bh.consume(iter.getTopValue());
+      iter.next();
+    }
+  }
+}
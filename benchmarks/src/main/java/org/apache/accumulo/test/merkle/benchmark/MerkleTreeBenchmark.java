@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.benchmark;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.test.merkle.FlatMerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeBuilder;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes the root of a tree over leaves which are already in memory, in each of the ways we can build one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MerkleTreeBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000", "10000000"})
+  public int numLeaves;
+
+  @Param({"MD5", HashFunction.MURMUR3_128})
+  public String hashName;
+
+  private List<MerkleTreeNode> leaves;
+
+  @Setup
+  public void createLeaves() throws NoSuchAlgorithmException {
+    leaves = BenchmarkData.createLeaves(numLeaves, HashFunction.forName(hashName).getHashLength());
+  }
+
+  @Benchmark
+  public MerkleTreeNode compatibleTree() throws NoSuchAlgorithmException {
+    return new MerkleTree(leaves, hashName).getRootNode();
+  }
+
+  @Benchmark
+  public MerkleTreeNode balancedTree() throws NoSuchAlgorithmException {
+    return new MerkleTree(leaves, hashName, Shape.BALANCED).getRootNode();
+  }
+
+  @Benchmark
+  public MerkleTreeNode treeBuilder() throws NoSuchAlgorithmException {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(hashName);
+    for (MerkleTreeNode leaf : leaves) {
+      builder.add(leaf);
+    }
+    return builder.getRootNode();
+  }
+
+  @Benchmark
+  public MerkleTreeNode flatTree() throws NoSuchAlgorithmException {
+    return FlatMerkleTree.build(leaves, hashName, Shape.COMPATIBLE).getRootNode();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.RangeSerialization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts leaves between their ranges and the Keys and Mutations which store them in a table, cycling through a fixed
+ * set of leaves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RangeSerializationBenchmark {
+  private static final int NUM_LEAVES = 1024;
+
+  @Param({"16", "256"})
+  public int rowLength;
+
+  private final Key[] keys = new Key[NUM_LEAVES];
+  private final Range[] ranges = new Range[NUM_LEAVES];
+  private final Value value = new Value(new byte[16]);
+  private int next = 0;
+
+  @Setup
+  public void createLeaves() {
+    byte[] empty = new byte[0];
+    for (int i = 0; i < NUM_LEAVES; i++) {
+      keys[i] = new Key(BenchmarkData.createRow(i, rowLength), empty, BenchmarkData.createRow(i + 1, rowLength), empty, 0l);
+      ranges[i] = RangeSerialization.toRange(keys[i]);
+    }
+  }
+
+  @Benchmark
+  public Range toRange() {
+    return RangeSerialization.toRange(keys[next++ & (NUM_LEAVES - 1)]);
+  }
+
+  @Benchmark
+  public Key toKey() {
+    return RangeSerialization.toKey(ranges[next++ & (NUM_LEAVES - 1)]);
+  }
+
+  @Benchmark
+  public Mutation toMutation() {
+    return RangeSerialization.toMutation(ranges[next++ & (NUM_LEAVES - 1)], value);
+  }
+}
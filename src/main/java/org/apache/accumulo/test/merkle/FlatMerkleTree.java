@@ -0,0 +1,483 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.hash.Hasher;
+import org.apache.hadoop.io.Text;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link MerkleTree} stored in a single buffer instead of as {@link MerkleTreeNode} objects, so that a tree with
+ * millions of leaves needs a few dozen bytes per leaf instead of several objects. Each boundary row is stored once, and
+ * nodes are created as lightweight views when they are requested.
+ * <p>
+ * The buffer holds the tree as the rounds in which {@link MerkleTree} builds it. Round 0 is the leaves, and each later
+ * round holds only the parents created in that round, as the nodes which were not paired are promoted unchanged. The
+ * number of nodes in every round follows from the number of leaves and the {@link Shape}, so only the hashes are stored:
+ *
+ * <pre>
+ * int[]   n + 2 offsets of each boundary row within the rows, the last being their total length
+ * byte[]  n + 1 boundary rows: the start row of each leaf followed by the end row of the last leaf, empty if infinite
+ * for each round:
+ *   byte[] the hash of each node, all of the same length
+ *   byte[] the level of each node
+ * </pre>
+ *
+ * Each node is addressed by its round and its position in the list of nodes after that round, so the children of the
+ * node at position i are at positions 2i and 2i + 1 of the round before. A node which was promoted unchanged to a later
+ * round is found in the round which created it.
+ */
+public class FlatMerkleTree extends MerkleTree {
+  private static final Text EMPTY = new Text(new byte[0]);
+
+  private final ByteBuffer buffer;
+  private final int hashLength, numLeaves;
+  private final int boundaryRowsStart;
+
+  // The number of nodes created in each round, and where their hashes start
+  private final int[] roundSizes, roundStarts;
+
+  /**
+   * @param buffer
+   *          The tree, starting at position 0 of the buffer and ending at its limit
+   */
+  protected FlatMerkleTree(ByteBuffer buffer, String digestAlgorithm, Shape shape, int hashLength, int numLeaves) {
+    super(Collections.<MerkleTreeNode> emptyList(), digestAlgorithm, shape);
+    this.buffer = buffer;
+    this.hashLength = hashLength;
+    this.numLeaves = numLeaves;
+
+    boundaryRowsStart = 4 * (numLeaves + 2);
+
+    List<Integer> sizes = getRoundSizes(numLeaves, shape);
+    roundSizes = new int[sizes.size()];
+    roundStarts = new int[sizes.size()];
+
+    int position = boundaryRowsStart + buffer.getInt(4 * (numLeaves + 1));
+    for (int round = 0; round < roundSizes.length; round++) {
+      roundSizes[round] = sizes.get(round);
+      roundStarts[round] = position;
+      position += roundSizes[round] * (hashLength + 1);
+    }
+
+    if (position != buffer.limit()) {
+      throw new IllegalArgumentException("Expected a tree of " + position + " bytes but found " + buffer.limit());
+    }
+  }
+
+  /**
+   * Builds a tree over the leaves, which must be sorted and contiguous
+   */
+  public static FlatMerkleTree build(List<MerkleTreeNode> leaves, String digestAlgorithm, Shape shape) throws NoSuchAlgorithmException {
+    Builder builder = new Builder(digestAlgorithm);
+    for (MerkleTreeNode leaf : leaves) {
+      builder.add(leaf);
+    }
+    return builder.build(shape);
+  }
+
+  public int getNumLeaves() {
+    return numLeaves;
+  }
+
+  public int getHashLength() {
+    return hashLength;
+  }
+
+  @Override
+  public MerkleTreeNode getRootNode() {
+    return getNode(roundSizes.length - 1, 0);
+  }
+
+  @Override
+  public MerkleTreeNode getNode(Range range) {
+    final int firstLeaf = findLeaf(RangeSerialization.getRow(range));
+    if (firstLeaf < 0) {
+      return null;
+    }
+
+    // Walk down from the root towards the first leaf in the range until we find a node with the same range
+    int round = roundSizes.length - 1, index = 0;
+    while (true) {
+      while (round > 0 && index >= roundSizes[round]) {
+        index += roundSizes[round];
+        round--;
+      }
+
+      if (firstLeaf(round, index) == firstLeaf && range.equals(getRange(round, index))) {
+        return getNode(round, index);
+      }
+
+      if (0 == round) {
+        return null;
+      }
+
+      // Descend into the child which holds the first leaf
+      round--;
+      index = firstLeaf <= lastLeaf(round, 2 * index) ? 2 * index : 2 * index + 1;
+    }
+  }
+
+  /**
+   * @return Every node in the tree grouped by level, created anew on each call
+   */
+  @Override
+  public List<List<MerkleTreeNode>> getLevels() {
+    List<List<MerkleTreeNode>> levels = new ArrayList<>();
+    for (int round = 0; round < roundSizes.length; round++) {
+      for (int index = 0; index < roundSizes[round]; index++) {
+        MerkleTreeNode node = getNode(round, index);
+        while (levels.size() <= node.getLevel()) {
+          levels.add(new ArrayList<MerkleTreeNode>());
+        }
+        levels.get(node.getLevel()).add(node);
+      }
+    }
+    return Collections.unmodifiableList(levels);
+  }
+
+  /**
+   * @return The leaves, created as they are requested
+   */
+  @Override
+  public List<MerkleTreeNode> getLeaves() {
+    return new AbstractList<MerkleTreeNode>() {
+      @Override
+      public MerkleTreeNode get(int index) {
+        if (index < 0 || index >= numLeaves) {
+          throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return getNode(0, index);
+      }
+
+      @Override
+      public int size() {
+        return numLeaves;
+      }
+    };
+  }
+
+  /**
+   * @return A read-only view of the entire tree, from position 0 to the limit
+   */
+  ByteBuffer getBuffer() {
+    ByteBuffer view = buffer.asReadOnlyBuffer();
+    view.position(0);
+    return view;
+  }
+
+  /**
+   * @return The node at the position in the list of nodes after the given number of rounds
+   */
+  protected MerkleTreeNode getNode(int round, int index) {
+    while (round > 0 && index >= roundSizes[round]) {
+      index += roundSizes[round];
+      round--;
+    }
+
+    List<Range> children;
+    if (0 == round) {
+      children = Collections.emptyList();
+    } else {
+      children = ImmutableList.of(getRange(round - 1, 2 * index), getRange(round - 1, 2 * index + 1));
+    }
+
+    byte[] hash = new byte[hashLength];
+    getHash(round, index, hash, 0);
+
+    return new MerkleTreeNode(getRange(round, index), getLevel(round, index), children, hash);
+  }
+
+  /**
+   * Computes the hash and level of every node after the leaves, which must already be in the buffer
+   */
+  private void computeParents(Hasher hasher) {
+    final byte[] pair = new byte[2 * hashLength];
+    for (int round = 1; round < roundSizes.length; round++) {
+      for (int index = 0; index < roundSizes[round]; index++) {
+        getHash(round - 1, 2 * index, pair, 0);
+        getHash(round - 1, 2 * index + 1, pair, hashLength);
+
+        hasher.update(pair, 0, pair.length);
+        hasher.digest(pair, 0);
+
+        ByteBuffer hashes = buffer.duplicate();
+        hashes.position(roundStarts[round] + index * hashLength);
+        hashes.put(pair, 0, hashLength);
+
+        int level = 1 + Math.max(getLevel(round - 1, 2 * index), getLevel(round - 1, 2 * index + 1));
+        buffer.put(roundStarts[round] + roundSizes[round] * hashLength + index, (byte) level);
+      }
+    }
+  }
+
+  private void getHash(int round, int index, byte[] dest, int offset) {
+    while (round > 0 && index >= roundSizes[round]) {
+      index += roundSizes[round];
+      round--;
+    }
+
+    ByteBuffer hashes = buffer.duplicate();
+    hashes.position(roundStarts[round] + index * hashLength);
+    hashes.get(dest, offset, hashLength);
+  }
+
+  private int getLevel(int round, int index) {
+    while (round > 0 && index >= roundSizes[round]) {
+      index += roundSizes[round];
+      round--;
+    }
+
+    return buffer.get(roundStarts[round] + roundSizes[round] * hashLength + index);
+  }
+
+  private Range getRange(int round, int index) {
+    return RangeSerialization.toRange(new Key(getBoundary(firstLeaf(round, index)), EMPTY, getBoundary(lastLeaf(round, index) + 1)));
+  }
+
+  private int firstLeaf(int round, int index) {
+    while (round > 0) {
+      if (index >= roundSizes[round]) {
+        index += roundSizes[round];
+      } else {
+        index = 2 * index;
+      }
+      round--;
+    }
+    return index;
+  }
+
+  private int lastLeaf(int round, int index) {
+    while (round > 0) {
+      if (index >= roundSizes[round]) {
+        index += roundSizes[round];
+      } else {
+        index = 2 * index + 1;
+      }
+      round--;
+    }
+    return index;
+  }
+
+  /**
+   * @return The leaf which starts at the row, or -1
+   */
+  private int findLeaf(Text row) {
+    int low = 0, high = numLeaves - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = getBoundary(mid).compareTo(row);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The start row of the leaf, or the end row of the last leaf
+   */
+  private Text getBoundary(int i) {
+    int start = buffer.getInt(4 * i), end = buffer.getInt(4 * (i + 1));
+
+    byte[] row = new byte[end - start];
+    ByteBuffer rows = buffer.duplicate();
+    rows.position(boundaryRowsStart + start);
+    rows.get(row);
+
+    return new Text(row);
+  }
+
+  /**
+   * @return The number of nodes created in each round of building a tree over the leaves, starting with the leaves
+   */
+  static List<Integer> getRoundSizes(int numLeaves, Shape shape) {
+    List<Integer> sizes = new ArrayList<>();
+    sizes.add(numLeaves);
+
+    int current = numLeaves;
+    while (current > 1) {
+      int numPairs = shape.getNumPairs(current);
+      sizes.add(numPairs);
+      current -= numPairs;
+    }
+
+    return sizes;
+  }
+
+  /**
+   * @return The number of bytes in a tree over the leaves whose boundary rows have the given total length
+   */
+  static long getSize(int numLeaves, int rowsLength, int hashLength, Shape shape) {
+    long size = 4l * (numLeaves + 2) + rowsLength;
+    for (int roundSize : getRoundSizes(numLeaves, shape)) {
+      size += (long) roundSize * (hashLength + 1);
+    }
+    return size;
+  }
+
+  /**
+   * Collects sorted, contiguous leaves into growable arrays and builds a {@link FlatMerkleTree} over them. Not
+   * thread-safe.
+   */
+  public static class Builder {
+    private final String digestAlgorithm;
+    private final HashFunction hashFunction;
+    private final int hashLength;
+
+    // Every boundary row back to back, and where each one starts
+    private byte[] rows = new byte[1024];
+    private int rowsLength = 0;
+    private int[] boundaryOffsets = new int[64];
+    private int numBoundaries = 0;
+
+    private byte[] hashes;
+    private int numLeaves = 0;
+
+    public Builder(String digestAlgorithm) throws NoSuchAlgorithmException {
+      this.digestAlgorithm = digestAlgorithm;
+      this.hashFunction = HashFunction.forName(digestAlgorithm);
+      this.hashLength = hashFunction.getHashLength();
+      this.hashes = new byte[64 * hashLength];
+    }
+
+    public void add(MerkleTreeNode leaf) {
+      Range range = leaf.getRange();
+      add(RangeSerialization.getRow(range), RangeSerialization.getColumnQualifier(range), leaf.getHash());
+    }
+
+    /**
+     * @param startRow
+     *          The start row of the leaf, empty if infinite, which must be the end row of the previous leaf
+     * @param endRow
+     *          The end row of the leaf, empty if infinite
+     */
+    public void add(Text startRow, Text endRow, byte[] hash) {
+      if (hashLength != hash.length) {
+        throw new IllegalArgumentException("Expected a hash of " + hashLength + " bytes but found " + hash.length);
+      }
+
+      if (0 == numLeaves) {
+        addBoundary(startRow);
+      } else if (!isLastBoundary(startRow)) {
+        throw new IllegalArgumentException("Leaves must be contiguous: " + startRow + " does not follow " + getLastBoundary());
+      }
+      addBoundary(endRow);
+
+      if (hashes.length < (numLeaves + 1) * hashLength) {
+        hashes = Arrays.copyOf(hashes, grow(hashes.length, (numLeaves + 1) * hashLength));
+      }
+      System.arraycopy(hash, 0, hashes, numLeaves * hashLength, hashLength);
+      numLeaves++;
+    }
+
+    public int getNumLeaves() {
+      return numLeaves;
+    }
+
+    /**
+     * Builds a tree on the heap
+     */
+    public FlatMerkleTree build(Shape shape) {
+      return build(shape, false);
+    }
+
+    /**
+     * @param direct
+     *          Build the tree in a direct buffer, off of the heap
+     */
+    public FlatMerkleTree build(Shape shape, boolean direct) {
+      if (0 == numLeaves) {
+        throw new IllegalArgumentException("Cannot build a tree without any leaves");
+      }
+
+      long size = getSize(numLeaves, rowsLength, hashLength, shape);
+      if (size > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("A tree of " + size + " bytes is too large for a single buffer");
+      }
+
+      ByteBuffer buffer = direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+      for (int i = 0; i < numBoundaries; i++) {
+        buffer.putInt(boundaryOffsets[i]);
+      }
+      buffer.putInt(rowsLength);
+      buffer.put(rows, 0, rowsLength);
+
+      // The leaves, which are all at level 0, followed by space for the parents
+      buffer.put(hashes, 0, numLeaves * hashLength);
+      buffer.clear();
+
+      FlatMerkleTree tree = new FlatMerkleTree(buffer, digestAlgorithm, shape, hashLength, numLeaves);
+      tree.computeParents(hashFunction.newHasher());
+      return tree;
+    }
+
+    private void addBoundary(Text row) {
+      if (boundaryOffsets.length <= numBoundaries) {
+        boundaryOffsets = Arrays.copyOf(boundaryOffsets, grow(boundaryOffsets.length, numBoundaries + 1));
+      }
+      if (rows.length < rowsLength + row.getLength()) {
+        rows = Arrays.copyOf(rows, grow(rows.length, rowsLength + row.getLength()));
+      }
+
+      boundaryOffsets[numBoundaries++] = rowsLength;
+      System.arraycopy(row.getBytes(), 0, rows, rowsLength, row.getLength());
+      rowsLength += row.getLength();
+    }
+
+    private boolean isLastBoundary(Text row) {
+      final int start = boundaryOffsets[numBoundaries - 1];
+      if (rowsLength - start != row.getLength()) {
+        return false;
+      }
+
+      final byte[] bytes = row.getBytes();
+      for (int i = 0; i < row.getLength(); i++) {
+        if (rows[start + i] != bytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private Text getLastBoundary() {
+      Text row = new Text();
+      row.set(rows, boundaryOffsets[numBoundaries - 1], rowsLength - boundaryOffsets[numBoundaries - 1]);
+      return row;
+    }
+
+    private static int grow(int length, int required) {
+      return Math.max(required, length + (length >> 1));
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Combines leaves whose hashes were generated with combinable hashes, as by
+ * {@link org.apache.accumulo.test.merkle.skvi.CombiningKeyValueDigester}, into leaves over a coarser set of ranges
+ * without reading the original table again. Two tables hashed over their own split points can be compared by
+ * aggregating both sets of leaves to the boundaries they have in common.
+ */
+public class LeafAggregation {
+  private static final Text EMPTY = new Text(new byte[0]);
+
+  /**
+   * @param leaves
+   *          Contiguous leaves, in order
+   * @param ranges
+   *          Contiguous ranges, in order, which cover the same range as the leaves
+   * @return One leaf for each range, whose hash is the sum of the hashes of the leaves within it
+   * @throws IllegalArgumentException
+   *           If a leaf spans more than one of the ranges
+   */
+  public static List<MerkleTreeNode> aggregate(List<MerkleTreeNode> leaves, Collection<Range> ranges) {
+    if (leaves.isEmpty()) {
+      throw new IllegalArgumentException("No leaves to aggregate");
+    }
+
+    final int hashLength = leaves.get(0).getHash().length;
+    final List<MerkleTreeNode> aggregated = new ArrayList<>(ranges.size());
+    final Iterator<MerkleTreeNode> leafIter = leaves.iterator();
+    MerkleTreeNode leaf = leafIter.next();
+
+    for (Range range : ranges) {
+      Text endRow = RangeSerialization.getColumnQualifier(range);
+      HashAccumulator sum = new HashAccumulator(hashLength);
+
+      // Sum every leaf which ends within this range
+      while (null != leaf && compareEndRows(RangeSerialization.getColumnQualifier(leaf.getRange()), endRow) <= 0) {
+        sum.add(leaf.getHash());
+        leaf = leafIter.hasNext() ? leafIter.next() : null;
+      }
+
+      // The next leaf must not start before the end of this range
+      if (null != leaf && 0 != endRow.getLength() && endRow.compareTo(RangeSerialization.getRow(leaf.getRange())) > 0) {
+        throw new IllegalArgumentException("Leaf " + leaf.getRange() + " spans the end of " + range);
+      }
+
+      aggregated.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), sum.get()));
+    }
+
+    if (null != leaf) {
+      throw new IllegalArgumentException("Leaf " + leaf.getRange() + " is not covered by the ranges");
+    }
+
+    return aggregated;
+  }
+
+  /**
+   * @return The largest ranges whose boundaries are leaf boundaries in both sets of leaves
+   */
+  public static List<Range> commonRanges(List<MerkleTreeNode> left, List<MerkleTreeNode> right) {
+    TreeSet<Text> boundaries = getBoundaries(left);
+    boundaries.retainAll(getBoundaries(right));
+
+    List<Range> ranges = new ArrayList<>(boundaries.size() + 1);
+    Text startRow = EMPTY;
+    for (Text boundary : boundaries) {
+      ranges.add(RangeSerialization.toRange(new Key(startRow, EMPTY, boundary)));
+      startRow = boundary;
+    }
+    ranges.add(RangeSerialization.toRange(new Key(startRow, EMPTY, EMPTY)));
+
+    return ranges;
+  }
+
+  private static TreeSet<Text> getBoundaries(List<MerkleTreeNode> leaves) {
+    TreeSet<Text> boundaries = new TreeSet<>();
+    for (MerkleTreeNode leaf : leaves) {
+      Text endRow = RangeSerialization.getColumnQualifier(leaf.getRange());
+      if (0 != endRow.getLength()) {
+        boundaries.add(endRow);
+      }
+    }
+    return boundaries;
+  }
+
+  /**
+   * An empty end row is the end of the table, after every other row
+   */
+  private static int compareEndRows(Text left, Text right) {
+    if (0 == left.getLength()) {
+      return 0 == right.getLength() ? 0 : 1;
+    } else if (0 == right.getLength()) {
+      return -1;
+    }
+    return left.compareTo(right);
+  }
+}
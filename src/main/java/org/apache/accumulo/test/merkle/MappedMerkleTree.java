@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link MerkleTree} read from a file written by {@link MerkleTreeFile}. The file is memory-mapped and nodes are read
+ * from it as they are requested, so walking part of a very large tree, such as to find differences, does not read the
+ * whole tree onto the heap.
+ */
+public class MappedMerkleTree extends FlatMerkleTree {
+
+  public MappedMerkleTree(File file) throws IOException {
+    this(Header.read(file));
+  }
+
+  private MappedMerkleTree(Header header) {
+    super(header.tree, header.digestAlgorithm, header.shape, header.hashLength, header.numLeaves);
+  }
+
+  /**
+   * The fields before the tree in a file, and the mapped tree which follows them
+   */
+  private static class Header {
+    String digestAlgorithm;
+    Shape shape;
+    int hashLength, numLeaves;
+    ByteBuffer tree;
+
+    static Header read(File file) throws IOException {
+      ByteBuffer buffer;
+      try (FileInputStream in = new FileInputStream(file)) {
+        FileChannel channel = in.getChannel();
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new IOException("Cannot map " + file + " of " + channel.size() + " bytes");
+        }
+        buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      }
+
+      if (MerkleTreeFile.MAGIC != buffer.getInt() || MerkleTreeFile.VERSION != buffer.getInt()) {
+        throw new IOException(file + " is not a Merkle tree file of version " + MerkleTreeFile.VERSION);
+      }
+
+      Header header = new Header();
+      byte[] name = new byte[buffer.getInt()];
+      buffer.get(name);
+      header.digestAlgorithm = new String(name, StandardCharsets.UTF_8);
+      header.shape = Shape.values()[buffer.getInt()];
+      header.hashLength = buffer.getInt();
+      header.numLeaves = buffer.getInt();
+      header.tree = buffer.slice();
+
+      final int rowsLength = header.tree.getInt(4 * (header.numLeaves + 1));
+      final long size = getSize(header.numLeaves, rowsLength, header.hashLength, header.shape);
+      if (size != header.tree.limit()) {
+        throw new IOException("Expected " + size + " bytes of tree in " + file + " but found " + header.tree.limit());
+      }
+
+      return header;
+    }
+  }
+}
@@ -18,75 +18,169 @@ package org.apache.accumulo.test.merkle;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.apache.accumulo.core.util.Pair;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.hash.Hasher;
 
 import com.google.common.collect.Iterables;
 
 /**
- * 
+ * A Merkle tree over a sorted list of contiguous leaves. The tree is built level by level in a single pass over each
+ * level, pairing adjacent nodes from left to right; nodes which are not paired on a level are promoted unchanged to the
+ * next one. Which nodes get paired is decided by the {@link Shape}.
  */
-public class MerkleTree {
+public class MerkleTree implements MerkleTreeLookup {
+
+  /**
+   * How nodes are paired on each level of the tree
+   */
+  public enum Shape {
+    /**
+     * Pair every two nodes on each level, promoting a trailing odd node. This is the shape which earlier versions
+     * produced, so root hashes are comparable with them.
+     */
+    COMPATIBLE {
+      @Override
+      int getNumPairs(int numNodes) {
+        return numNodes / 2;
+      }
+    },
+
+    /**
+     * Pair only enough nodes on the leaf level to leave a power of two, then pair everything. Every leaf ends up within
+     * one level of every other leaf.
+     */
+    BALANCED {
+      @Override
+      int getNumPairs(int numNodes) {
+        int excess = numNodes - Integer.highestOneBit(numNodes);
+        return 0 == excess ? numNodes / 2 : excess;
+      }
+    };
+
+    /**
+     * @return The number of pairs to make from the first nodes on a level with <code>numNodes</code> nodes
+     */
+    abstract int getNumPairs(int numNodes);
+  }
+
   protected List<MerkleTreeNode> leaves;
   protected String digestAlgorithm;
+  protected Shape shape;
+
+  private MerkleTreeNode root;
+  private List<List<MerkleTreeNode>> levels;
+  private Map<Range,MerkleTreeNode> nodesByRange;
 
   public MerkleTree(List<MerkleTreeNode> leaves, String digestAlgorithm) {
+    this(leaves, digestAlgorithm, Shape.COMPATIBLE);
+  }
+
+  public MerkleTree(List<MerkleTreeNode> leaves, String digestAlgorithm, Shape shape) {
     this.leaves = leaves;
     this.digestAlgorithm = digestAlgorithm;
+    this.shape = shape;
   }
 
+  @Override
   public MerkleTreeNode getRootNode() throws NoSuchAlgorithmException {
-    ArrayList<MerkleTreeNode> buffer = new ArrayList<>(leaves.size());
-    buffer.addAll(leaves);
-
-    while (buffer.size() > 1) {
-      // Find two nodes that we want to roll up
-      Pair<Integer,Integer> pairToJoin = findNextPair(buffer);
+    if (null == root) {
+      build();
+    }
 
-      // Make a parent node from them
-      MerkleTreeNode parent = new MerkleTreeNode(Arrays.asList(buffer.get(pairToJoin.getFirst()), buffer.get(pairToJoin.getSecond())), digestAlgorithm);
+    return root;
+  }
 
-      // Insert it back into the "tree" at the position of the first child
-      buffer.set(pairToJoin.getFirst(), parent);
+  /**
+   * @return The node which covers exactly the given range, or null if there is no such node in the tree
+   */
+  @Override
+  public MerkleTreeNode getNode(Range range) throws NoSuchAlgorithmException {
+    getRootNode();
 
-      // Remove the second child completely
-      buffer.remove(pairToJoin.getSecond().intValue());
+    return nodesByRange.get(range);
+  }
 
-      // "recurse"
+  /**
+   * @return The nodes which were combined to create the given node, empty for a leaf
+   */
+  public List<MerkleTreeNode> getChildren(MerkleTreeNode node) throws NoSuchAlgorithmException {
+    List<MerkleTreeNode> children = new ArrayList<>(node.getChildren().size());
+    for (Range childRange : node.getChildren()) {
+      MerkleTreeNode child = getNode(childRange);
+      if (null == child) {
+        throw new IllegalArgumentException("Could not find child " + childRange + " of " + node);
+      }
+      children.add(child);
     }
 
-    return Iterables.getOnlyElement(buffer);
+    return children;
   }
 
-  protected Pair<Integer,Integer> findNextPair(List<MerkleTreeNode> nodes) {
-    int i = 0, j = 1;
-    while (i < nodes.size() && j < nodes.size()) {
-      MerkleTreeNode left = nodes.get(i), right = nodes.get(j);
+  /**
+   * @return Every node in the tree grouped by level, from the leaves (level 0) up to the root.
+   */
+  public List<List<MerkleTreeNode>> getLevels() throws NoSuchAlgorithmException {
+    getRootNode();
 
-      // At the same level
-      if (left.getLevel() == right.getLevel()) {
-        return new Pair<Integer,Integer>(i, j);
-      }
+    return Collections.unmodifiableList(levels);
+  }
 
-      // Peek to see if we have another element
-      if (j + 1 < nodes.size()) {
-        // If we do, try to match those
-        i++;
-        j++;
-      } else {
-        // Otherwise, the last two elements must be paired
-        return new Pair<Integer,Integer>(i, j);
+  public List<MerkleTreeNode> getLeaves() {
+    return leaves;
+  }
+
+  @Override
+  public String getDigestAlgorithm() {
+    return digestAlgorithm;
+  }
+
+  public Shape getShape() {
+    return shape;
+  }
+
+  protected void build() throws NoSuchAlgorithmException {
+    levels = new ArrayList<>();
+    nodesByRange = new HashMap<>();
+
+    for (MerkleTreeNode leaf : leaves) {
+      index(leaf);
+    }
+
+    // One hasher for every parent, instead of looking up the algorithm for each one
+    final Hasher hasher = HashFunction.forName(digestAlgorithm).newHasher();
+
+    List<MerkleTreeNode> current = leaves;
+    while (current.size() > 1) {
+      final int numPairs = shape.getNumPairs(current.size());
+      final List<MerkleTreeNode> next = new ArrayList<>(current.size() - numPairs);
+
+      for (int i = 0; i < numPairs; i++) {
+        MerkleTreeNode parent = new MerkleTreeNode(current.get(2 * i), current.get(2 * i + 1), hasher);
+        index(parent);
+        next.add(parent);
       }
+
+      // Anything we didn't pair gets paired on a later level
+      next.addAll(current.subList(2 * numPairs, current.size()));
+
+      current = next;
     }
 
-    if (2 < nodes.size()) {
-      throw new IllegalStateException("Should not have exited loop without pairing two elements when we have at least 3 nodes");
-    } else if (2 == nodes.size()) {
-      return new Pair<Integer,Integer>(0, 1);
-    } else {
-      throw new IllegalStateException("Must have at least two nodes to pair");
+    root = Iterables.getOnlyElement(current);
+  }
+
+  private void index(MerkleTreeNode node) {
+    while (levels.size() <= node.getLevel()) {
+      levels.add(new ArrayList<MerkleTreeNode>());
     }
+
+    levels.get(node.getLevel()).add(node);
+    nodesByRange.put(node.getRange(), node);
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.hash.Hasher;
+
+/**
+ * Computes the root of a Merkle tree from leaves which are provided one at a time, in sorted order. Two subtrees of the
+ * same size are joined as soon as the second one is complete, so only one pending subtree per level is retained and
+ * memory use is logarithmic in the number of leaves.
+ * <p>
+ * The root is identical to the root of a {@link MerkleTree} over the same leaves with the {@link Shape#COMPATIBLE} shape.
+ */
+public class MerkleTreeBuilder {
+  private final String digestAlgorithm;
+  private final ArrayList<MerkleTreeNode> pending;
+  private long numLeaves;
+
+  // Reused for every parent, created with the first one
+  private Hasher hasher;
+
+  public MerkleTreeBuilder(String digestAlgorithm) {
+    this.digestAlgorithm = digestAlgorithm;
+    this.pending = new ArrayList<>();
+    this.numLeaves = 0l;
+  }
+
+  /**
+   * Add the next leaf, which must immediately follow the previous leaf.
+   */
+  public void add(MerkleTreeNode leaf) throws NoSuchAlgorithmException {
+    pending.add(leaf);
+    numLeaves++;
+
+    // Like incrementing a binary counter, each trailing zero bit is a pair of equal subtrees we can now join
+    for (long n = numLeaves; 0 == (n & 1); n >>>= 1) {
+      int last = pending.size() - 1;
+      MerkleTreeNode parent = new MerkleTreeNode(pending.get(last - 1), pending.get(last), getHasher());
+      pending.remove(last);
+      pending.set(last - 1, parent);
+    }
+  }
+
+  /**
+   * @return The number of leaves added so far
+   */
+  public long getNumLeaves() {
+    return numLeaves;
+  }
+
+  /**
+   * @return The number of completed subtrees waiting to be joined
+   */
+  public int getNumPendingSubtrees() {
+    return pending.size();
+  }
+
+  /**
+   * Computes the root over the leaves added so far. More leaves may still be added afterwards.
+   */
+  public MerkleTreeNode getRootNode() throws NoSuchAlgorithmException {
+    if (pending.isEmpty()) {
+      throw new IllegalStateException("Cannot compute the root without any leaves");
+    }
+
+    // The pending subtrees decrease in size from left to right, join them from the right
+    MerkleTreeNode root = pending.get(pending.size() - 1);
+    for (int i = pending.size() - 2; i >= 0; i--) {
+      root = new MerkleTreeNode(pending.get(i), root, getHasher());
+    }
+
+    return root;
+  }
+
+  private Hasher getHasher() throws NoSuchAlgorithmException {
+    if (null == hasher) {
+      hasher = HashFunction.forName(digestAlgorithm).newHasher();
+    }
+    return hasher;
+  }
+}
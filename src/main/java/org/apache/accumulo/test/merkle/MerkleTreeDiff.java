@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Range;
+
+/**
+ * Finds the ranges in which two Merkle trees differ by walking down from the roots, only descending into subtrees whose
+ * hashes differ. With <code>d</code> differing leaves out of <code>n</code>, roughly <code>d log n</code> nodes are
+ * visited.
+ * <p>
+ * When the two trees were built over different leaf boundaries, the smallest pair of nodes which cover different ranges
+ * is reported as differing in its entirety.
+ */
+public class MerkleTreeDiff {
+  private long nodesVisited = 0l;
+
+  /**
+   * @return The ranges which differ between the two trees, with contiguous ranges merged together
+   */
+  public List<Range> diff(MerkleTreeLookup left, MerkleTreeLookup right) throws NoSuchAlgorithmException {
+    if (!left.getDigestAlgorithm().equals(right.getDigestAlgorithm())) {
+      throw new IllegalArgumentException("Cannot compare trees built with " + left.getDigestAlgorithm() + " and " + right.getDigestAlgorithm());
+    }
+
+    List<Range> differences = new ArrayList<>();
+    diff(left, left.getRootNode(), right, right.getRootNode(), differences);
+
+    if (differences.isEmpty()) {
+      return differences;
+    }
+
+    return Range.mergeOverlapping(differences);
+  }
+
+  protected void diff(MerkleTreeLookup leftTree, MerkleTreeNode left, MerkleTreeLookup rightTree, MerkleTreeNode right, List<Range> differences)
+      throws NoSuchAlgorithmException {
+    nodesVisited += 2;
+
+    final boolean sameRange = left.getRange().equals(right.getRange());
+    if (sameRange && Arrays.equals(left.getHash(), right.getHash())) {
+      return;
+    }
+
+    // Only descend when both sides split this range up the same way
+    if (sameRange && !left.getChildren().isEmpty() && left.getChildren().equals(right.getChildren())) {
+      for (Range childRange : left.getChildren()) {
+        diff(leftTree, getChild(leftTree, left, childRange), rightTree, getChild(rightTree, right, childRange), differences);
+      }
+      return;
+    }
+
+    differences.add(left.getRange());
+    if (!sameRange) {
+      differences.add(right.getRange());
+    }
+  }
+
+  private MerkleTreeNode getChild(MerkleTreeLookup tree, MerkleTreeNode node, Range childRange) throws NoSuchAlgorithmException {
+    MerkleTreeNode child = tree.getNode(childRange);
+    if (null == child) {
+      throw new IllegalArgumentException("Could not find child " + childRange + " of " + node);
+    }
+    return child;
+  }
+
+  /**
+   * @return The number of nodes, from both trees, examined by all calls to
+   *         {@link #diff(MerkleTreeLookup, MerkleTreeLookup)}
+   */
+  public long getNodesVisited() {
+    return nodesVisited;
+  }
+}
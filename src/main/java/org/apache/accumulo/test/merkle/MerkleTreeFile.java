@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+
+/**
+ * Writes a Merkle tree to a compact binary file which {@link MappedMerkleTree} reads through a memory map, so that a
+ * tree can be copied elsewhere and compared without a connection to Accumulo or reading the whole file onto the heap.
+ * <p>
+ * A short header is followed by the tree exactly as {@link FlatMerkleTree} lays it out in memory:
+ *
+ * <pre>
+ * int     magic
+ * int     version
+ * int     length of the hash function name, followed by its UTF-8 bytes
+ * int     shape ordinal
+ * int     hash length
+ * int     number of leaves, n
+ * byte[]  the tree
+ * </pre>
+ */
+public class MerkleTreeFile {
+  public static final int MAGIC = 0x4d4b4c54;
+  public static final int VERSION = 1;
+
+  /**
+   * Writes the tree over the leaves, which must be sorted and contiguous
+   */
+  public static void write(MerkleTree tree, File file) throws IOException, NoSuchAlgorithmException {
+    if (tree instanceof FlatMerkleTree) {
+      write((FlatMerkleTree) tree, file);
+    } else {
+      write(tree.getLeaves(), tree.getDigestAlgorithm(), tree.getShape(), file);
+    }
+  }
+
+  /**
+   * Writes the tree over the leaves, which must be sorted and contiguous
+   */
+  public static void write(List<MerkleTreeNode> leaves, String digestAlgorithm, Shape shape, File file) throws IOException, NoSuchAlgorithmException {
+    write(FlatMerkleTree.build(leaves, digestAlgorithm, shape), file);
+  }
+
+  private static void write(FlatMerkleTree tree, File file) throws IOException {
+    ByteBuffer buffer = tree.getBuffer();
+    byte[] chunk = new byte[64 * 1024];
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      byte[] name = tree.getDigestAlgorithm().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(name.length);
+      out.write(name);
+
+      out.writeInt(tree.getShape().ordinal());
+      out.writeInt(tree.getHashLength());
+      out.writeInt(tree.getNumLeaves());
+
+      while (buffer.hasRemaining()) {
+        int length = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, length);
+        out.write(chunk, 0, length);
+      }
+    }
+  }
+}
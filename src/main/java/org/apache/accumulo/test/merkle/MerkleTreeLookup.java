@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.accumulo.core.data.Range;
+
+/**
+ * Finds the nodes of a Merkle tree by their range, which is all that is needed to walk down from the root, such as to
+ * find differences with {@link MerkleTreeDiff}. Nodes may be read as they are requested instead of being held in memory.
+ */
+public interface MerkleTreeLookup {
+
+  String getDigestAlgorithm();
+
+  MerkleTreeNode getRootNode() throws NoSuchAlgorithmException;
+
+  /**
+   * @return The node which covers exactly the given range, or null if there is no such node in the tree
+   */
+  MerkleTreeNode getNode(Range range) throws NoSuchAlgorithmException;
+}
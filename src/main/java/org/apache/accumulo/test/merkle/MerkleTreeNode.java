@@ -16,7 +16,6 @@
  */
 package org.apache.accumulo.test.merkle;
 
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,6 +25,8 @@ import java.util.List;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.hash.Hasher;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.slf4j.Logger;
@@ -57,27 +58,21 @@ public class MerkleTreeNode {
   }
 
   public MerkleTreeNode(List<MerkleTreeNode> children, String digestAlgorithm) throws NoSuchAlgorithmException {
+    this(children, HashFunction.forName(digestAlgorithm));
+  }
+
+  public MerkleTreeNode(List<MerkleTreeNode> children, HashFunction hashFunction) {
     level = 0;
     this.children = new ArrayList<Range>(children.size());
-    MessageDigest digest = MessageDigest.getInstance(digestAlgorithm);
+    Hasher digest = hashFunction.newHasher();
 
     Range childrenRange = null;
     for (MerkleTreeNode child : children) {
       this.children.add(child.getRange());
       level = Math.max(child.getLevel(), level);
-      digest.update(child.getHash());
-
-      if (null == childrenRange) {
-        childrenRange = child.getRange();
-      } else {
-        List<Range> overlappingRanges = Range.mergeOverlapping(Arrays.asList(childrenRange, child.getRange()));
-        if (1 != overlappingRanges.size()) {
-          log.error("Tried to merge non-contiguous ranges: {} {}", childrenRange, child.getRange());
-          throw new IllegalArgumentException("Ranges must be contiguous: " + childrenRange + ", " + child.getRange());
-        }
-
-        childrenRange = overlappingRanges.get(0);
-      }
+      digest.update(child.getHash(), 0, child.getHash().length);
+
+      childrenRange = null == childrenRange ? child.getRange() : merge(childrenRange, child.getRange());
     }
 
     // Our actual level is one more than the highest level of our children
@@ -90,6 +85,43 @@ public class MerkleTreeNode {
     range = childrenRange;
   }
 
+  /**
+   * Combines two adjacent nodes, the left immediately preceding the right, into their parent.
+   *
+   * @param hasher
+   *          Computes the hash of the parent, and may be reused for other parents afterwards
+   */
+  public MerkleTreeNode(MerkleTreeNode left, MerkleTreeNode right, Hasher hasher) {
+    range = merge(left.getRange(), right.getRange());
+    level = Math.max(left.getLevel(), right.getLevel()) + 1;
+    children = Arrays.asList(left.getRange(), right.getRange());
+
+    hasher.update(left.getHash(), 0, left.getHash().length);
+    hasher.update(right.getHash(), 0, right.getHash().length);
+    hash = hasher.digest();
+  }
+
+  /**
+   * @return The range covering both of the contiguous ranges
+   * @throws IllegalArgumentException
+   *           if there is a gap between the ranges
+   */
+  static Range merge(Range left, Range right) {
+    // Leaves always end exactly where the next one starts, so check that before doing the more general merge
+    if (!left.isInfiniteStopKey() && !right.isInfiniteStartKey() && (left.isEndKeyInclusive() || right.isStartKeyInclusive())
+        && left.getEndKey().equals(right.getStartKey())) {
+      return new Range(left.getStartKey(), left.isStartKeyInclusive(), right.getEndKey(), right.isEndKeyInclusive());
+    }
+
+    List<Range> overlappingRanges = Range.mergeOverlapping(Arrays.asList(left, right));
+    if (1 != overlappingRanges.size()) {
+      log.error("Tried to merge non-contiguous ranges: {} {}", left, right);
+      throw new IllegalArgumentException("Ranges must be contiguous: " + left + ", " + right);
+    }
+
+    return overlappingRanges.get(0);
+  }
+
   public Range getRange() {
     return range;
   }
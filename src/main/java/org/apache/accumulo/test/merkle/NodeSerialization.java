@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Stores {@link MerkleTreeNode}s alongside the leaves in a table of hashes. Every node is keyed by the range it covers,
+ * the row being the start row and the column qualifier being the end row, as in {@link RangeSerialization}.
+ * <p>
+ * Leaves keep an empty column family and just the hash as the value. Interior nodes use the {@link #NODE_COLFAM} column
+ * family and a value of the level, the hash and the end rows of all but the last child. The root always covers the
+ * entire table, so it can be read directly from the empty row and column qualifier.
+ */
+public class NodeSerialization {
+  public static final Text NODE_COLFAM = new Text("node");
+  private static final Text EMPTY = new Text(new byte[0]);
+
+  public static Key toKey(MerkleTreeNode node) {
+    Range range = node.getRange();
+    return new Key(RangeSerialization.getRow(range), getColumnFamily(node), RangeSerialization.getColumnQualifier(range));
+  }
+
+  public static Mutation toMutation(MerkleTreeNode node) {
+    Range range = node.getRange();
+    Mutation m = new Mutation(RangeSerialization.getRow(range));
+    m.put(getColumnFamily(node), RangeSerialization.getColumnQualifier(range), toValue(node));
+    return m;
+  }
+
+  public static Value toValue(MerkleTreeNode node) {
+    if (isLeaf(node)) {
+      return new Value(node.getHash());
+    }
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    try {
+      WritableUtils.writeVInt(out, node.getLevel());
+      WritableUtils.writeVInt(out, node.getHash().length);
+      out.write(node.getHash());
+
+      // Children are contiguous, so the end rows are enough to reconstruct them
+      List<Range> children = node.getChildren();
+      WritableUtils.writeVInt(out, children.size());
+      for (Range child : children.subList(0, children.size() - 1)) {
+        RangeSerialization.getColumnQualifier(child).write(out);
+      }
+    } catch (IOException e) {
+      // Not expected from a ByteArrayOutputStream
+      throw new RuntimeException(e);
+    }
+
+    return new Value(baos.toByteArray());
+  }
+
+  public static MerkleTreeNode toNode(Key key, Value value) {
+    if (0 == key.getColumnFamilyData().length()) {
+      return new MerkleTreeNode(key, value);
+    }
+
+    Range range = RangeSerialization.toRange(key);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(value.get()));
+    try {
+      int level = WritableUtils.readVInt(in);
+      byte[] hash = new byte[WritableUtils.readVInt(in)];
+      in.readFully(hash);
+
+      int numChildren = WritableUtils.readVInt(in);
+      List<Range> children = new ArrayList<>(numChildren);
+      Text startRow = RangeSerialization.getRow(range);
+      for (int i = 0; i < numChildren - 1; i++) {
+        Text endRow = new Text();
+        endRow.readFields(in);
+        children.add(RangeSerialization.toRange(new Key(startRow, EMPTY, endRow)));
+        startRow = endRow;
+      }
+      children.add(RangeSerialization.toRange(new Key(startRow, EMPTY, RangeSerialization.getColumnQualifier(range))));
+
+      return new MerkleTreeNode(range, level, children, hash);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read node from " + key, e);
+    }
+  }
+
+  private static boolean isLeaf(MerkleTreeNode node) {
+    return node.getChildren().isEmpty();
+  }
+
+  private static Text getColumnFamily(MerkleTreeNode node) {
+    return isLeaf(node) ? EMPTY : NODE_COLFAM;
+  }
+}
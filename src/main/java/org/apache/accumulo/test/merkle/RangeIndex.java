@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+
+/**
+ * Finds which of a collection of disjoint ranges contains a Key, such as to match the results of a
+ * {@link org.apache.accumulo.core.client.BatchScanner} back to the range they were read from.
+ */
+public class RangeIndex {
+  private final List<Range> ranges;
+
+  /**
+   * @param ranges
+   *          Ranges which do not overlap one another
+   */
+  public RangeIndex(Collection<Range> ranges) {
+    this.ranges = new ArrayList<>(ranges);
+    Collections.sort(this.ranges);
+  }
+
+  /**
+   * @return The range which contains the key, or null if none do
+   */
+  public Range get(Key key) {
+    // Find the last range which starts at or before the key
+    int low = 0, high = ranges.size() - 1, found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (ranges.get(mid).beforeStartKey(key)) {
+        high = mid - 1;
+      } else {
+        found = mid;
+        low = mid + 1;
+      }
+    }
+
+    if (-1 == found || !ranges.get(found).contains(key)) {
+      return null;
+    }
+
+    return ranges.get(found);
+  }
+
+  /**
+   * @return True if every Key in the range is contained by the same range in this index
+   */
+  public boolean containsRange(Range range) {
+    Range container = get(getFirstKey(range));
+    if (null == container) {
+      return false;
+    }
+
+    if (container.isInfiniteStopKey()) {
+      return true;
+    } else if (range.isInfiniteStopKey()) {
+      return false;
+    }
+
+    int cmp = range.getEndKey().compareTo(container.getEndKey());
+    return cmp < 0 || (0 == cmp && (!range.isEndKeyInclusive() || container.isEndKeyInclusive()));
+  }
+
+  /**
+   * @return The ranges, in order
+   */
+  public List<Range> getRanges() {
+    return Collections.unmodifiableList(ranges);
+  }
+
+  public int size() {
+    return ranges.size();
+  }
+
+  /**
+   * @return The smallest Key within the range
+   */
+  public static Key getFirstKey(Range range) {
+    if (range.isInfiniteStartKey()) {
+      return new Key();
+    }
+
+    return range.isStartKeyInclusive() ? range.getStartKey() : range.getStartKey().followingKey(PartialKey.ROW_COLFAM_COLQUAL_COLVIS_TIME);
+  }
+}
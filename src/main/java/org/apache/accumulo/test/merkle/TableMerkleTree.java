@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+
+/**
+ * The nodes of a Merkle tree which were persisted to a table with {@link NodeSerialization}. Nodes are read with a point
+ * lookup as they are requested instead of reading every leaf and rebuilding the tree.
+ */
+public class TableMerkleTree implements MerkleTreeLookup {
+  private static final Text EMPTY = new Text(new byte[0]);
+
+  private final Scanner scanner;
+  private final String digestAlgorithm;
+
+  public TableMerkleTree(Connector conn, String tableName, String digestAlgorithm) throws TableNotFoundException {
+    this.scanner = conn.createScanner(tableName, Authorizations.EMPTY);
+    this.digestAlgorithm = digestAlgorithm;
+  }
+
+  @Override
+  public String getDigestAlgorithm() {
+    return digestAlgorithm;
+  }
+
+  @Override
+  public MerkleTreeNode getRootNode() {
+    MerkleTreeNode root = getNode(new Range());
+    if (null == root) {
+      throw new IllegalStateException("Could not find the root node, were the interior nodes written?");
+    }
+
+    return root;
+  }
+
+  @Override
+  public MerkleTreeNode getNode(Range range) {
+    Text cq = RangeSerialization.getColumnQualifier(range);
+
+    scanner.setRange(Range.exact(RangeSerialization.getRow(range)));
+    scanner.clearColumns();
+    scanner.fetchColumn(EMPTY, cq);
+    scanner.fetchColumn(NodeSerialization.NODE_COLFAM, cq);
+
+    for (Entry<Key,Value> entry : scanner) {
+      return NodeSerialization.toNode(entry.getKey(), entry.getValue());
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Limits the rate at which entries and bytes of Keys and Values are read, so that hashing a live table does not saturate
+ * the tablet servers. Either limit may be changed at any time, even while other threads are waiting on it. A limit of
+ * zero is unlimited.
+ * <p>
+ * Each acquisition synchronizes with every other thread using the throttle, so readers should acquire permits for
+ * {@link #BATCH_ENTRIES} entries at a time instead of for every entry.
+ */
+public class Throttle {
+  /**
+   * How many entries to read between acquiring permits
+   */
+  public static final int BATCH_ENTRIES = 100;
+
+  private volatile RateLimiter entries = null, bytes = null;
+
+  public Throttle(double entriesPerSecond, double bytesPerSecond) {
+    setEntriesPerSecond(entriesPerSecond);
+    setBytesPerSecond(bytesPerSecond);
+  }
+
+  /**
+   * @return The most entries which may be read each second, or zero if unlimited
+   */
+  public double getEntriesPerSecond() {
+    return getRate(entries);
+  }
+
+  public synchronized void setEntriesPerSecond(double entriesPerSecond) {
+    this.entries = update(entries, entriesPerSecond);
+  }
+
+  /**
+   * @return The most bytes which may be read each second, or zero if unlimited
+   */
+  public double getBytesPerSecond() {
+    return getRate(bytes);
+  }
+
+  public synchronized void setBytesPerSecond(double bytesPerSecond) {
+    this.bytes = update(bytes, bytesPerSecond);
+  }
+
+  public boolean isLimited() {
+    return null != entries || null != bytes;
+  }
+
+  /**
+   * Waits until the entries and bytes which were read are within the limits
+   */
+  public void acquire(int numEntries, long numBytes) {
+    final RateLimiter entries = this.entries, bytes = this.bytes;
+    if (null != entries && numEntries > 0) {
+      entries.acquire(numEntries);
+    }
+    if (null != bytes && numBytes > 0) {
+      bytes.acquire((int) Math.min(Integer.MAX_VALUE, numBytes));
+    }
+  }
+
+  /**
+   * @return The entries, read no faster than every one of the throttles allows
+   */
+  public static Iterable<Entry<Key,Value>> throttle(final Iterable<Entry<Key,Value>> entries, final Throttle... throttles) {
+    return new Iterable<Entry<Key,Value>>() {
+      @Override
+      public Iterator<Entry<Key,Value>> iterator() {
+        return new ThrottledIterator(entries.iterator(), throttles);
+      }
+    };
+  }
+
+  private static RateLimiter update(RateLimiter limiter, double rate) {
+    if (rate <= 0) {
+      return null;
+    } else if (null == limiter) {
+      return RateLimiter.create(rate);
+    }
+
+    // Setting the same rate again would throw away any burst the limiter saved up
+    if (rate != limiter.getRate()) {
+      limiter.setRate(rate);
+    }
+    return limiter;
+  }
+
+  private static double getRate(RateLimiter limiter) {
+    return null == limiter ? 0d : limiter.getRate();
+  }
+
+  private static class ThrottledIterator implements Iterator<Entry<Key,Value>> {
+    private final Iterator<Entry<Key,Value>> source;
+    private final Throttle[] throttles;
+    private int numEntries = 0;
+    private long numBytes = 0l;
+
+    ThrottledIterator(Iterator<Entry<Key,Value>> source, Throttle[] throttles) {
+      this.source = source;
+      this.throttles = throttles;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (source.hasNext()) {
+        return true;
+      }
+
+      // Pay for the last partial batch, so the next scan on this thread starts within the limits
+      acquire();
+      return false;
+    }
+
+    @Override
+    public Entry<Key,Value> next() {
+      Entry<Key,Value> entry = source.next();
+      numEntries++;
+      numBytes += entry.getKey().getSize() + entry.getValue().getSize();
+
+      if (numEntries >= BATCH_ENTRIES) {
+        acquire();
+      }
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void acquire() {
+      for (Throttle throttle : throttles) {
+        if (null != throttle) {
+          throttle.acquire(numEntries, numBytes);
+        }
+      }
+      numEntries = 0;
+      numBytes = 0l;
+    }
+  }
+}
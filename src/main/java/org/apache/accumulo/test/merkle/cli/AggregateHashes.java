@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.accumulo.core.cli.ClientOnRequiredTable;
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.LeafAggregation;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.NodeSerialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Rewrites a table of combinable hashes, as written by {@link GenerateHashes} with <code>--combinable</code>, over a
+ * coarser set of ranges: either those from a file of split points, or the boundaries the table has in common with
+ * another table of hashes.
+ */
+public class AggregateHashes {
+  private static final Logger log = LoggerFactory.getLogger(AggregateHashes.class);
+
+  public static class AggregateHashesOpts extends ClientOnRequiredTable {
+    @Parameter(names = {"-o", "--output"}, required = true, description = "output table name, expected to exist and be writable")
+    private String outputTableName;
+
+    @Parameter(names = {"-s", "--splits"}, required = false, description = "File of splits to aggregate the hashes to")
+    private String splitsFile = null;
+
+    @Parameter(names = {"--common"}, required = false, description = "Table of hashes whose leaf boundaries in common with this table to aggregate to")
+    private String commonTableName = null;
+
+    public String getOutputTableName() {
+      return outputTableName;
+    }
+
+    public void setOutputTableName(String outputTableName) {
+      this.outputTableName = outputTableName;
+    }
+
+    public String getSplitsFile() {
+      return splitsFile;
+    }
+
+    public void setSplitsFile(String splitsFile) {
+      this.splitsFile = splitsFile;
+    }
+
+    public String getCommonTableName() {
+      return commonTableName;
+    }
+
+    public void setCommonTableName(String commonTableName) {
+      this.commonTableName = commonTableName;
+    }
+  }
+
+  public List<MerkleTreeNode> run(AggregateHashesOpts opts) throws AccumuloException, AccumuloSecurityException, TableNotFoundException,
+      FileNotFoundException {
+    if ((null == opts.getSplitsFile()) == (null == opts.getCommonTableName())) {
+      throw new IllegalArgumentException("Expected exactly one of a splits file or a table of hashes to aggregate to");
+    }
+
+    Connector conn = opts.getConnector();
+    ComputeRootHash computeRootHash = new ComputeRootHash();
+    List<MerkleTreeNode> leaves = computeRootHash.getLeaves(conn, opts.getTableName());
+
+    Collection<Range> ranges;
+    if (null != opts.getSplitsFile()) {
+      ranges = new GenerateHashes().getRanges(conn, opts.getTableName(), opts.getSplitsFile());
+    } else {
+      ranges = LeafAggregation.commonRanges(leaves, computeRootHash.getLeaves(conn, opts.getCommonTableName()));
+    }
+
+    return aggregate(conn, leaves, ranges, opts.getOutputTableName());
+  }
+
+  public List<MerkleTreeNode> aggregate(Connector conn, List<MerkleTreeNode> leaves, Collection<Range> ranges, String outputTableName)
+      throws TableNotFoundException, AccumuloException {
+    if (!conn.tableOperations().exists(outputTableName)) {
+      throw new IllegalArgumentException(outputTableName + " does not exist, please create it");
+    }
+
+    List<MerkleTreeNode> aggregated = LeafAggregation.aggregate(leaves, ranges);
+    log.info("Aggregated {} leaves into {}", leaves.size(), aggregated.size());
+
+    BatchWriter bw = conn.createBatchWriter(outputTableName, new BatchWriterConfig());
+    try {
+      for (MerkleTreeNode leaf : aggregated) {
+        bw.addMutation(NodeSerialization.toMutation(leaf));
+      }
+    } finally {
+      bw.close();
+    }
+
+    return aggregated;
+  }
+
+  public static void main(String[] args) throws Exception {
+    AggregateHashesOpts opts = new AggregateHashesOpts();
+    opts.parseArgs(AggregateHashes.class.getName(), args);
+
+    new AggregateHashes().run(opts);
+  }
+}
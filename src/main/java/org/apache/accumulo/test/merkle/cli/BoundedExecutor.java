@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs tasks on an {@link Executor} while limiting how many are queued or running at once. Submitting a task blocks until
+ * there is room for it, so the tasks for millions of ranges are never held in memory together. {@link #await()} returns
+ * as soon as the last task completes and rethrows the first failure of any task. Once a task has failed, the tasks which
+ * have not started yet are skipped.
+ * <p>
+ * The Executor may be shared with other BoundedExecutors, as each only waits on the tasks submitted through it.
+ */
+public class BoundedExecutor {
+  private final Executor executor;
+  private final int maxOutstanding;
+  private final Semaphore permits;
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  /**
+   * @param maxOutstanding
+   *          The most tasks which may be queued or running at once
+   */
+  public BoundedExecutor(Executor executor, int maxOutstanding) {
+    if (maxOutstanding < 1) {
+      throw new IllegalArgumentException("Must allow at least one outstanding task: " + maxOutstanding);
+    }
+
+    this.executor = executor;
+    this.maxOutstanding = maxOutstanding;
+    this.permits = new Semaphore(maxOutstanding);
+  }
+
+  /**
+   * Waits for room to queue the task, then queues it. If an earlier task failed, waits for the outstanding tasks and
+   * rethrows that failure instead.
+   */
+  public void submit(final Runnable task) {
+    if (null != failure.get()) {
+      await();
+    }
+
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting to submit a task", e);
+    }
+
+    execute(task);
+  }
+
+  /**
+   * Queues the task only if there is room for it now and no task has failed. Unlike {@link #submit(Runnable)}, this is
+   * safe to call from within a running task.
+   *
+   * @return True if the task was queued
+   */
+  public boolean trySubmit(Runnable task) {
+    if (null != failure.get() || !permits.tryAcquire()) {
+      return false;
+    }
+
+    execute(task);
+    return true;
+  }
+
+  /**
+   * @return True if any task has failed
+   */
+  public boolean hasFailed() {
+    return null != failure.get();
+  }
+
+  /**
+   * @return The number of tasks which are queued or running
+   */
+  public int getNumOutstanding() {
+    return maxOutstanding - permits.availablePermits();
+  }
+
+  private void execute(final Runnable task) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (null == failure.get()) {
+              task.run();
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            permits.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for every submitted task to complete
+   *
+   * @throws RuntimeException
+   *           if any task failed, caused by the first failure
+   */
+  public void await() {
+    try {
+      permits.acquire(maxOutstanding);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for tasks to complete", e);
+    }
+    permits.release(maxOutstanding);
+
+    Throwable t = failure.get();
+    if (null != t) {
+      throw new RuntimeException("Failed to run a task", t);
+    }
+  }
+}
@@ -18,20 +18,41 @@ package org.apache.accumulo.test.merkle.cli;
 
 import java.io.FileNotFoundException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.accumulo.core.cli.BatchWriterOpts;
 import org.apache.accumulo.core.cli.ClientOpts;
+import org.apache.accumulo.core.cli.ClientOpts.Password;
+import org.apache.accumulo.core.cli.ClientOpts.PasswordConverter;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.client.security.tokens.AuthenticationToken;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
 import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.MerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.sink.MemoryLeafSink;
 import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,10 +60,12 @@ import org.slf4j.LoggerFactory;
 import com.beust.jcommander.Parameter;
 
 /**
- * Accepts a set of tables, computes the hashes for each, and prints the top-level hash for each table.
+ * Accepts a set of tables, computes the hashes for each, and prints the top-level hash for each table. Tables may also be
+ * in a second, remote, instance, in which case they are hashed by that instance and only their hashes are read.
  * <p>
  * Will automatically create output tables for intermediate hashes instead of requiring their existence.
- * This will raise an exception when the table we want to use already exists.
+ * This will raise an exception when the table we want to use already exists. With {@link CompareTablesOpts#isInMemory()},
+ * the trees are built in memory and no tables are created.
  */
 public class CompareTables {
   private static final Logger log = LoggerFactory.getLogger(CompareTables.class);
@@ -63,6 +86,45 @@ public class CompareTables {
     @Parameter(names = {"-s", "--splits"}, required = false, description = "File of splits to use for merkle tree")
     private String splitsFile = null;
 
+    @Parameter(names = {"--balanced"}, required = false, description = "Build balanced trees instead of the original shape")
+    private boolean balanced = false;
+
+    @Parameter(names = {"--diff"}, required = false, description = "Print the ranges in which each table differs from the first table")
+    private boolean diff = false;
+
+    @Parameter(names = {"--remoteTables"}, required = false, description = "Tables in the remote instance to compare with the first table", variableArity = true)
+    private List<String> remoteTables;
+
+    @Parameter(names = {"--remoteInstance"}, required = false, description = "Name of the remote instance")
+    private String remoteInstance;
+
+    @Parameter(names = {"--remoteZookeepers"}, required = false, description = "ZooKeepers of the remote instance")
+    private String remoteZookeepers;
+
+    @Parameter(names = {"--remoteUser"}, required = false, description = "User for the remote instance, defaults to the local user")
+    private String remoteUser;
+
+    @Parameter(names = {"--remotePassword"}, required = false, converter = PasswordConverter.class, password = true, description = "Prompt for the password of the remote instance, defaults to the local password")
+    private Password remotePassword;
+
+    @Parameter(names = {"--inMemory"}, required = false, description = "Build the trees in memory instead of writing the leaves to <table>_merkle tables")
+    private boolean inMemory = false;
+
+    @Parameter(names = {"--entriesPerSecond"}, required = false, description = "Read at most this many entries per second from all tablet servers together")
+    private long entriesPerSecond = 0l;
+
+    @Parameter(names = {"--bytesPerSecond"}, required = false, description = "Read at most this many bytes per second from all tablet servers together")
+    private long bytesPerSecond = 0l;
+
+    @Parameter(names = {"--serverEntriesPerSecond"}, required = false, description = "Read at most this many entries per second from each tablet server")
+    private long serverEntriesPerSecond = 0l;
+
+    @Parameter(names = {"--serverBytesPerSecond"}, required = false, description = "Read at most this many bytes per second from each tablet server")
+    private long serverBytesPerSecond = 0l;
+
+    @Parameter(names = {"--metrics"}, required = false, description = "Publish the progress of each table over JMX and log a summary periodically")
+    private boolean metrics = false;
+
     public List<String> getTables() {
       return this.tables;
     }
@@ -102,9 +164,188 @@ public class CompareTables {
     public void setSplitsFile(String splitsFile) {
       this.splitsFile = splitsFile;
     }
+
+    public boolean isBalanced() {
+      return balanced;
+    }
+
+    public void setBalanced(boolean balanced) {
+      this.balanced = balanced;
+    }
+
+    public Shape getShape() {
+      return balanced ? Shape.BALANCED : Shape.COMPATIBLE;
+    }
+
+    public boolean isDiff() {
+      return diff;
+    }
+
+    public void setDiff(boolean diff) {
+      this.diff = diff;
+    }
+
+    public List<String> getRemoteTables() {
+      return null == remoteTables ? Collections.<String> emptyList() : remoteTables;
+    }
+
+    public void setRemoteTables(List<String> remoteTables) {
+      this.remoteTables = remoteTables;
+    }
+
+    public String getRemoteInstance() {
+      return remoteInstance;
+    }
+
+    public void setRemoteInstance(String remoteInstance) {
+      this.remoteInstance = remoteInstance;
+    }
+
+    public String getRemoteZookeepers() {
+      return remoteZookeepers;
+    }
+
+    public void setRemoteZookeepers(String remoteZookeepers) {
+      this.remoteZookeepers = remoteZookeepers;
+    }
+
+    public String getRemoteUser() {
+      return remoteUser;
+    }
+
+    public void setRemoteUser(String remoteUser) {
+      this.remoteUser = remoteUser;
+    }
+
+    public Password getRemotePassword() {
+      return remotePassword;
+    }
+
+    public void setRemotePassword(Password remotePassword) {
+      this.remotePassword = remotePassword;
+    }
+
+    public Connector getRemoteConnector() throws AccumuloException, AccumuloSecurityException {
+      if (null == remoteInstance || null == remoteZookeepers) {
+        throw new IllegalArgumentException("The remote instance and its ZooKeepers are required to compare remote tables");
+      }
+
+      String user = null == remoteUser ? getPrincipal() : remoteUser;
+      AuthenticationToken token = null == remotePassword ? getToken() : new PasswordToken(remotePassword.value);
+      return new ZooKeeperInstance(remoteInstance, remoteZookeepers).getConnector(user, token);
+    }
+
+    public boolean isInMemory() {
+      return inMemory;
+    }
+
+    public void setInMemory(boolean inMemory) {
+      this.inMemory = inMemory;
+    }
+
+    public long getEntriesPerSecond() {
+      return entriesPerSecond;
+    }
+
+    public void setEntriesPerSecond(long entriesPerSecond) {
+      this.entriesPerSecond = entriesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getServerEntriesPerSecond() {
+      return serverEntriesPerSecond;
+    }
+
+    public void setServerEntriesPerSecond(long serverEntriesPerSecond) {
+      this.serverEntriesPerSecond = serverEntriesPerSecond;
+    }
+
+    public long getServerBytesPerSecond() {
+      return serverBytesPerSecond;
+    }
+
+    public void setServerBytesPerSecond(long serverBytesPerSecond) {
+      this.serverBytesPerSecond = serverBytesPerSecond;
+    }
+
+    /**
+     * @return The limits given, or null if the scans are not limited
+     */
+    public ScanThrottle getThrottle() {
+      if (entriesPerSecond > 0 || bytesPerSecond > 0 || serverEntriesPerSecond > 0 || serverBytesPerSecond > 0) {
+        return new ScanThrottle(entriesPerSecond, bytesPerSecond, serverEntriesPerSecond, serverBytesPerSecond);
+      }
+      return null;
+    }
+
+    public boolean isMetrics() {
+      return metrics;
+    }
+
+    public void setMetrics(boolean metrics) {
+      this.metrics = metrics;
+    }
+  }
+
+  /**
+   * A table to compare, and a connection to the instance which holds it. Each table is hashed by its own instance, so
+   * only the hashes are read back when the instances are far apart.
+   */
+  public static class TableLocation {
+    private final String name;
+    private final Connector connector;
+    private final String tableName;
+
+    /**
+     * @param name
+     *          Identifies the table in the output
+     */
+    public TableLocation(String name, Connector connector, String tableName) {
+      this.name = name;
+      this.connector = connector;
+      this.tableName = tableName;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Connector getConnector() {
+      return connector;
+    }
+
+    public String getTableName() {
+      return tableName;
+    }
+
+    public String getOutputTableName() {
+      return tableName + "_merkle";
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
   }
 
   private CompareTablesOpts opts;
+  private List<TableLocation> locations;
+
+  // Limits the scans of every table together, or null if unlimited
+  private ScanThrottle throttle;
+
+  // The progress of hashing each table with --metrics
+  private final Map<String,HashMetrics> metricsByTable = new ConcurrentHashMap<>();
+
+  // The trees built with --inMemory, for finding differences
+  private final Map<String,MerkleTree> treesByTable = new ConcurrentHashMap<>();
 
   protected CompareTables() {}
 
@@ -112,53 +353,235 @@ public class CompareTables {
     this.opts = opts;
   }
 
+  /**
+   * The tables in the local instance, named by their table name, followed by the tables in the remote instance, named by
+   * the remote instance and their table name.
+   */
+  protected List<TableLocation> getTableLocations() throws AccumuloException, AccumuloSecurityException {
+    if (null == locations) {
+      List<TableLocation> tables = new ArrayList<>();
+
+      Connector conn = opts.getConnector();
+      for (String table : opts.getTables()) {
+        tables.add(new TableLocation(table, conn, table));
+      }
+
+      if (!opts.getRemoteTables().isEmpty()) {
+        Connector remoteConn = opts.getRemoteConnector();
+        for (String table : opts.getRemoteTables()) {
+          tables.add(new TableLocation(opts.getRemoteInstance() + ":" + table, remoteConn, table));
+        }
+      }
+
+      locations = tables;
+    }
+
+    return locations;
+  }
+
+  /**
+   * Hashes every table at once. The scans for all of the tables share one pool of <code>numThreads</code> threads, and each
+   * table only queues a few ranges at a time, so the ranges of each table are interleaved with the others and comparing
+   * more tables does not multiply the load on the tablet servers. As soon as any table fails, the scans of every table are
+   * stopped and the failure is thrown.
+   *
+   * @return The root hash of each table, by the name of its {@link TableLocation}
+   */
   public Map<String,String> computeAllHashes() throws AccumuloException, AccumuloSecurityException, TableExistsException, NoSuchAlgorithmException,
       TableNotFoundException, FileNotFoundException {
-    final Connector conn = opts.getConnector();
-    final Map<String,String> hashesByTable = new HashMap<>();
+    final List<TableLocation> tables = getTableLocations();
+    final Map<String,String> hashesByTable = new LinkedHashMap<>();
+
+    // Check every output table before creating any of them
+    if (!opts.isInMemory()) {
+      for (TableLocation table : tables) {
+        if (table.getConnector().tableOperations().exists(table.getOutputTableName())) {
+          throw new IllegalArgumentException("Expected output table name to not yet exist: " + table.getOutputTableName() + " for " + table);
+        }
+      }
 
-    for (String table : opts.getTables()) {
-      final String outputTableName = table + "_merkle";
+      for (TableLocation table : tables) {
+        table.getConnector().tableOperations().create(table.getOutputTableName());
+      }
+    }
 
-      if (conn.tableOperations().exists(outputTableName)) {
-        throw new IllegalArgumentException("Expected output table name to not yet exist: " + outputTableName);
+    throttle = opts.getThrottle();
+    ObjectName throttleName = null;
+    if (null != throttle) {
+      try {
+        throttleName = throttle.register("CompareTables");
+        log.info("Limiting scans to {}, which can be changed over JMX as {}", throttle, throttleName);
+      } catch (JMException e) {
+        log.warn("Could not register the scan limits with JMX, they cannot be changed while running", e);
       }
+    }
 
-      conn.tableOperations().create(outputTableName);
+    final List<ObjectName> metricsNames = new ArrayList<>();
+    if (opts.isMetrics()) {
+      for (TableLocation table : tables) {
+        HashMetrics metrics = new HashMetrics();
+        metricsByTable.put(table.getName(), metrics);
+        try {
+          metricsNames.add(metrics.register(table.getName()));
+        } catch (JMException e) {
+          log.warn("Could not register the metrics for " + table + " with JMX, only the summary will be logged", e);
+        }
+      }
+    }
 
-      GenerateHashes genHashes = new GenerateHashes();
-      Collection<Range> ranges = genHashes.getRanges(opts.getConnector(), table, opts.getSplitsFile());
+    final ExecutorService workers = Executors.newFixedThreadPool(opts.getNumThreads());
+    final ExecutorService tableThreads = Executors.newFixedThreadPool(tables.size());
+    try {
+      final ExecutorCompletionService<byte[]> completion = new ExecutorCompletionService<>(tableThreads);
+      final Map<Future<byte[]>,String> tablesByFuture = new HashMap<>();
+      for (final TableLocation table : tables) {
+        tablesByFuture.put(completion.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws Exception {
+            return opts.isInMemory() ? computeHashInMemory(table, workers) : computeHash(table, workers);
+          }
+        }), table.getName());
+      }
 
-      try {
-        genHashes.run(opts.getConnector(), table, table + "_merkle", opts.getHashName(), opts.getNumThreads(), opts.isIteratorPushdown(), ranges);
-      } catch (Exception e) {
-        log.error("Error generating hashes for {}", table, e);
-        throw new RuntimeException(e);
+      // Take the tables as they finish, so a failure is noticed without waiting for the tables listed before it
+      final Map<String,byte[]> hashes = new HashMap<>();
+      for (int i = 0; i < tables.size(); i++) {
+        String name = null;
+        try {
+          Future<byte[]> future = completion.take();
+          name = tablesByFuture.get(future);
+          hashes.put(name, future.get());
+
+          HashMetrics metrics = metricsByTable.get(name);
+          if (null != metrics) {
+            log.info("Finished {}: {}", name, metrics);
+          }
+        } catch (ExecutionException e) {
+          log.error("Error generating hashes for {}", name, e.getCause());
+          throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
       }
 
-      ComputeRootHash computeRootHash = new ComputeRootHash();
-      String hash = Hex.encodeHexString(computeRootHash.getHash(conn, outputTableName, opts.getHashName()));
+      for (TableLocation table : tables) {
+        hashesByTable.put(table.getName(), Hex.encodeHexString(hashes.get(table.getName())));
+      }
+    } finally {
+      // Stops the other tables if one failed, and drops the scans every table still has queued in the shared pool
+      tableThreads.shutdownNow();
+      workers.shutdownNow();
 
-      hashesByTable.put(table, hash);
+      if (null != throttleName) {
+        ScanThrottle.unregister(throttleName);
+      }
+      for (ObjectName metricsName : metricsNames) {
+        HashMetrics.unregister(metricsName);
+      }
     }
 
     return hashesByTable;
   }
 
+  /**
+   * Computes the root hash of a table, writing the leaves to <code>&lt;table&gt;_merkle</code> in the same instance
+   */
+  protected byte[] computeHash(TableLocation table, ExecutorService workers) throws AccumuloException, AccumuloSecurityException,
+      TableNotFoundException, NoSuchAlgorithmException, FileNotFoundException {
+    final Connector conn = table.getConnector();
+
+    GenerateHashes genHashes = new GenerateHashes();
+    genHashes.setExecutor(workers);
+    genHashes.setThrottle(throttle);
+    genHashes.setMetrics(metricsByTable.get(table.getName()));
+    Collection<Range> ranges = genHashes.getRanges(conn, table.getTableName(), opts.getSplitsFile());
+
+    genHashes.run(conn, table.getTableName(), table.getOutputTableName(), opts.getHashName(), opts.getNumThreads(), opts.isIteratorPushdown(), ranges);
+
+    ComputeRootHash computeRootHash = new ComputeRootHash();
+    return computeRootHash.getHash(conn, table.getOutputTableName(), opts.getHashName(), opts.getShape());
+  }
+
+  /**
+   * Computes the root hash of a table with the leaves fed straight into the tree as they are computed, without writing
+   * them to a table and reading them back.
+   */
+  protected byte[] computeHashInMemory(TableLocation table, ExecutorService workers) throws AccumuloException, AccumuloSecurityException,
+      TableNotFoundException, NoSuchAlgorithmException, FileNotFoundException {
+    final Connector conn = table.getConnector();
+
+    // The leaves are only needed to balance the tree or to find differences
+    final boolean retainLeaves = opts.isBalanced() || opts.isDiff();
+    MemoryLeafSink sink = new MemoryLeafSink(opts.getHashName(), retainLeaves);
+
+    GenerateHashes genHashes = new GenerateHashes();
+    genHashes.setExecutor(workers);
+    genHashes.setThrottle(throttle);
+    genHashes.setMetrics(metricsByTable.get(table.getName()));
+    Collection<Range> ranges = genHashes.getRanges(conn, table.getTableName(), opts.getSplitsFile());
+
+    try {
+      genHashes.run(conn, table.getTableName(), sink, opts.getHashName(), opts.getNumThreads(), opts.isIteratorPushdown(), false, ranges);
+    } finally {
+      sink.close();
+    }
+
+    if (!retainLeaves) {
+      return sink.getRootNode().getHash();
+    }
+
+    MerkleTree tree = sink.getTree(opts.getShape());
+    treesByTable.put(table.getName(), tree);
+    return tree.getRootNode().getHash();
+  }
+
+  /**
+   * Walks the Merkle trees computed by {@link #computeAllHashes()} to find where each table differs from the first table.
+   * Tables with the same root hash as the first table are omitted.
+   */
+  public Map<String,List<Range>> findDifferences(Map<String,String> hashesByTable) throws AccumuloException, AccumuloSecurityException,
+      TableNotFoundException, NoSuchAlgorithmException {
+    final List<TableLocation> tables = getTableLocations();
+    final Map<String,List<Range>> differencesByTable = new LinkedHashMap<>();
+    final TableLocation first = tables.get(0);
+    final DiffMerkleTrees diffTrees = new DiffMerkleTrees();
+
+    for (TableLocation table : tables.subList(1, tables.size())) {
+      if (hashesByTable.get(first.getName()).equals(hashesByTable.get(table.getName()))) {
+        continue;
+      }
+
+      if (opts.isInMemory()) {
+        differencesByTable.put(table.getName(),
+            diffTrees.diff(treesByTable.get(first.getName()), treesByTable.get(table.getName()), first.getName(), table.getName()));
+      } else {
+        differencesByTable.put(table.getName(), diffTrees.diff(first.getConnector(), first.getOutputTableName(), table.getConnector(),
+            table.getOutputTableName(), opts.getHashName(), opts.getShape()));
+      }
+    }
+
+    return differencesByTable;
+  }
+
   public static void main(String[] args) throws Exception {
     CompareTablesOpts opts = new CompareTablesOpts();
     BatchWriterOpts bwOpts = new BatchWriterOpts();
     opts.parseArgs("CompareTables", args, bwOpts);
 
-    if (opts.isIteratorPushdown() && null != opts.getSplitsFile()) {
-      throw new IllegalArgumentException("Cannot use iterator pushdown with anything other than table split points");
-    }
-
     CompareTables compareTables = new CompareTables(opts);
     Map<String,String> tableToHashes = compareTables.computeAllHashes();
 
     for (Entry<String,String> entry : tableToHashes.entrySet()) {
       System.out.println(entry.getKey() + " " + entry.getValue());
     }
+
+    if (opts.isDiff()) {
+      for (Entry<String,List<Range>> entry : compareTables.findDifferences(tableToHashes).entrySet()) {
+        for (Range difference : entry.getValue()) {
+          System.out.println(entry.getKey() + " " + difference);
+        }
+      }
+    }
   }
 }
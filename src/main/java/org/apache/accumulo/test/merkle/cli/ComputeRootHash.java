@@ -16,6 +16,8 @@
  */
 package org.apache.accumulo.test.merkle.cli;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -25,17 +27,29 @@ import java.util.Map.Entry;
 import org.apache.accumulo.core.cli.ClientOnRequiredTable;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchDeleter;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.test.merkle.FlatMerkleTree;
+import org.apache.accumulo.test.merkle.MappedMerkleTree;
 import org.apache.accumulo.test.merkle.MerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeBuilder;
+import org.apache.accumulo.test.merkle.MerkleTreeFile;
 import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.NodeSerialization;
 import org.apache.accumulo.test.merkle.RangeSerialization;
+import org.apache.accumulo.test.merkle.TableMerkleTree;
 import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
 
 import com.beust.jcommander.Parameter;
 
@@ -48,6 +62,18 @@ public class ComputeRootHash {
     @Parameter(names = {"-hash", "--hash"}, required = true, description = "type of hash to use")
     private String hashName;
 
+    @Parameter(names = {"--balanced"}, required = false, description = "Build a balanced tree instead of the original shape")
+    private boolean balanced = false;
+
+    @Parameter(names = {"--persist"}, required = false, description = "Write the interior nodes of the tree back to the table")
+    private boolean persist = false;
+
+    @Parameter(names = {"--export"}, required = false, description = "Write the tree to this file, which can be compared with DiffMerkleTrees --files")
+    private String exportFile;
+
+    @Parameter(names = {"--import"}, required = false, description = "Write the leaves of the tree in this file to the table before computing the root")
+    private String importFile;
+
     public String getHashName() {
       return hashName;
     }
@@ -55,26 +81,162 @@ public class ComputeRootHash {
     public void setHashName(String hashName) {
       this.hashName = hashName;
     }
+
+    public boolean isBalanced() {
+      return balanced;
+    }
+
+    public void setBalanced(boolean balanced) {
+      this.balanced = balanced;
+    }
+
+    public Shape getShape() {
+      return balanced ? Shape.BALANCED : Shape.COMPATIBLE;
+    }
+
+    public boolean isPersist() {
+      return persist;
+    }
+
+    public void setPersist(boolean persist) {
+      this.persist = persist;
+    }
+
+    public String getExportFile() {
+      return exportFile;
+    }
+
+    public void setExportFile(String exportFile) {
+      this.exportFile = exportFile;
+    }
+
+    public String getImportFile() {
+      return importFile;
+    }
+
+    public void setImportFile(String importFile) {
+      this.importFile = importFile;
+    }
   }
 
-  public byte[] getHash(ComputeRootHashOpts opts) throws AccumuloException, AccumuloSecurityException, TableNotFoundException, NoSuchAlgorithmException {
+  public byte[] getHash(ComputeRootHashOpts opts) throws AccumuloException, AccumuloSecurityException, TableNotFoundException, NoSuchAlgorithmException,
+      IOException {
     Connector conn = opts.getConnector();
     String table = opts.getTableName();
 
-    return getHash(conn, table, opts.getHashName());
+    if (null != opts.getImportFile()) {
+      importLeaves(conn, table, new MappedMerkleTree(new File(opts.getImportFile())), opts.getHashName());
+    }
+
+    if (opts.isPersist() || null != opts.getExportFile()) {
+      FlatMerkleTree tree = getFlatTree(conn, table, opts.getHashName(), opts.getShape());
+      if (opts.isPersist()) {
+        persistNodes(conn, table, tree);
+      }
+      if (null != opts.getExportFile()) {
+        MerkleTreeFile.write(tree, new File(opts.getExportFile()));
+      }
+      return tree.getRootNode().getHash();
+    }
+
+    return getHash(conn, table, opts.getHashName(), opts.getShape());
   }
 
   public byte[] getHash(Connector conn, String table, String hashName) throws TableNotFoundException, NoSuchAlgorithmException {
-    List<MerkleTreeNode> leaves = getLeaves(conn, table);
+    return getHash(conn, table, hashName, Shape.COMPATIBLE);
+  }
+
+  public byte[] getHash(Connector conn, String table, String hashName, Shape shape) throws TableNotFoundException, NoSuchAlgorithmException {
+    if (Shape.COMPATIBLE == shape) {
+      return getRootNode(conn, table, hashName).getHash();
+    }
+
+    // A balanced tree depends on the total number of leaves, so we have to read them all first
+    return getFlatTree(conn, table, hashName, shape).getRootNode().getHash();
+  }
+
+  /**
+   * Reads the leaves from the table straight into a {@link FlatMerkleTree}, without creating a node for each leaf.
+   */
+  public FlatMerkleTree getFlatTree(Connector conn, String tableName, String hashName, Shape shape) throws TableNotFoundException,
+      NoSuchAlgorithmException {
+    final Scanner s = createLeafScanner(conn, tableName);
+    final FlatMerkleTree.Builder builder = new FlatMerkleTree.Builder(hashName);
+    final Text row = new Text(), endRow = new Text();
+
+    for (Entry<Key,Value> entry : s) {
+      entry.getKey().getRow(row);
+      entry.getKey().getColumnQualifier(endRow);
+      builder.add(row, endRow, entry.getValue().get());
+    }
+
+    return builder.build(shape);
+  }
+
+  /**
+   * Computes the root node as leaves are read from the table, without holding all of the leaves in memory.
+   */
+  public MerkleTreeNode getRootNode(Connector conn, String tableName, String hashName) throws TableNotFoundException, NoSuchAlgorithmException {
+    final Scanner s = createLeafScanner(conn, tableName);
+    final MerkleTreeBuilder builder = new MerkleTreeBuilder(hashName);
+
+    for (Entry<Key,Value> entry : s) {
+      builder.add(new MerkleTreeNode(entry.getKey(), entry.getValue()));
+    }
+
+    return builder.getRootNode();
+  }
+
+  /**
+   * Writes every interior node of the tree to the table which holds its leaves, so that the tree can later be read with
+   * a {@link TableMerkleTree}. Any interior nodes persisted earlier are deleted first, as they may no longer be part of
+   * the tree once the leaves have been regenerated.
+   */
+  public void persistNodes(Connector conn, String tableName, MerkleTree tree) throws TableNotFoundException, NoSuchAlgorithmException,
+      MutationsRejectedException {
+    final BatchDeleter deleter = conn.createBatchDeleter(tableName, Authorizations.EMPTY, 1, new BatchWriterConfig());
+    try {
+      deleter.setRanges(Collections.singleton(new Range()));
+      deleter.fetchColumnFamily(NodeSerialization.NODE_COLFAM);
+      deleter.delete();
+    } finally {
+      deleter.close();
+    }
 
-    MerkleTree tree = new MerkleTree(leaves, hashName);
+    final BatchWriter bw = conn.createBatchWriter(tableName, new BatchWriterConfig());
+    try {
+      List<List<MerkleTreeNode>> levels = tree.getLevels();
+      for (List<MerkleTreeNode> level : levels.subList(1, levels.size())) {
+        for (MerkleTreeNode node : level) {
+          bw.addMutation(NodeSerialization.toMutation(node));
+        }
+      }
+    } finally {
+      bw.close();
+    }
+  }
+
+  /**
+   * Writes the leaves of a tree read from a file to a table of hashes
+   */
+  public void importLeaves(Connector conn, String tableName, MerkleTree tree, String hashName) throws TableNotFoundException,
+      MutationsRejectedException {
+    if (!hashName.equals(tree.getDigestAlgorithm())) {
+      throw new IllegalArgumentException("Cannot import a tree of " + tree.getDigestAlgorithm() + " hashes as " + hashName);
+    }
 
-    return tree.getRootNode().getHash();
+    final BatchWriter bw = conn.createBatchWriter(tableName, new BatchWriterConfig());
+    try {
+      for (MerkleTreeNode leaf : tree.getLeaves()) {
+        bw.addMutation(NodeSerialization.toMutation(leaf));
+      }
+    } finally {
+      bw.close();
+    }
   }
 
   protected ArrayList<MerkleTreeNode> getLeaves(Connector conn, String tableName) throws TableNotFoundException {
-    //TODO make this a bit more resilient to very large merkle trees by lazily reading more data from the table when necessary
-    final Scanner s = conn.createScanner(tableName, Authorizations.EMPTY);
+    final Scanner s = createLeafScanner(conn, tableName);
     final ArrayList<MerkleTreeNode> leaves = new ArrayList<MerkleTreeNode>();
 
     for (Entry<Key,Value> entry : s) {
@@ -87,6 +249,15 @@ public class ComputeRootHash {
     return leaves;
   }
 
+  protected Scanner createLeafScanner(Connector conn, String tableName) throws TableNotFoundException {
+    final Scanner s = conn.createScanner(tableName, Authorizations.EMPTY);
+
+    // Skip any interior nodes which were persisted alongside the leaves
+    s.fetchColumnFamily(new Text());
+
+    return s;
+  }
+
   public static void main(String[] args) throws Exception {
     ComputeRootHashOpts opts = new ComputeRootHashOpts();
     opts.parseArgs("ComputeRootHash", args);
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.apache.accumulo.core.cli.ClientOpts;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.MappedMerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeDiff;
+import org.apache.accumulo.test.merkle.MerkleTreeFile;
+import org.apache.accumulo.test.merkle.MerkleTreeLookup;
+import org.apache.accumulo.test.merkle.TableMerkleTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Reads two tables of hashes, as written by {@link GenerateHashes}, or two exported tree files, and prints the ranges in
+ * which the Merkle trees differ, one per line.
+ */
+public class DiffMerkleTrees {
+  private static final Logger log = LoggerFactory.getLogger(DiffMerkleTrees.class);
+
+  public static class DiffMerkleTreesOpts extends ClientOpts {
+    @Parameter(names = {"--tables"}, required = false, description = "The two tables of hashes to compare", variableArity = true)
+    private List<String> tables;
+
+    @Parameter(names = {"--files"}, required = false, description = "The two tree files, as exported by ComputeRootHash or GenerateHashes, to compare", variableArity = true)
+    private List<String> files;
+
+    @Parameter(names = {"-hash", "--hash"}, required = true, description = "type of hash to use")
+    private String hashName;
+
+    @Parameter(names = {"--balanced"}, required = false, description = "Build balanced trees instead of the original shape")
+    private boolean balanced = false;
+
+    @Parameter(names = {"--persisted"}, required = false, description = "Read the interior nodes written by ComputeRootHash --persist instead of every leaf")
+    private boolean persisted = false;
+
+    public List<String> getTables() {
+      return tables;
+    }
+
+    public void setTables(List<String> tables) {
+      this.tables = tables;
+    }
+
+    public List<String> getFiles() {
+      return files;
+    }
+
+    public void setFiles(List<String> files) {
+      this.files = files;
+    }
+
+    public String getHashName() {
+      return hashName;
+    }
+
+    public void setHashName(String hashName) {
+      this.hashName = hashName;
+    }
+
+    public boolean isBalanced() {
+      return balanced;
+    }
+
+    public void setBalanced(boolean balanced) {
+      this.balanced = balanced;
+    }
+
+    public Shape getShape() {
+      return balanced ? Shape.BALANCED : Shape.COMPATIBLE;
+    }
+
+    public boolean isPersisted() {
+      return persisted;
+    }
+
+    public void setPersisted(boolean persisted) {
+      this.persisted = persisted;
+    }
+  }
+
+  public List<Range> diff(Connector conn, String leftTable, String rightTable, String hashName, Shape shape) throws TableNotFoundException,
+      NoSuchAlgorithmException {
+    return diff(conn, leftTable, conn, rightTable, hashName, shape);
+  }
+
+  /**
+   * Compares tables of hashes which may be in different instances
+   */
+  public List<Range> diff(Connector leftConn, String leftTable, Connector rightConn, String rightTable, String hashName, Shape shape)
+      throws TableNotFoundException, NoSuchAlgorithmException {
+    ComputeRootHash computeRootHash = new ComputeRootHash();
+
+    MerkleTree left = computeRootHash.getFlatTree(leftConn, leftTable, hashName, shape);
+    MerkleTree right = computeRootHash.getFlatTree(rightConn, rightTable, hashName, shape);
+
+    return diff(left, right, leftTable, rightTable);
+  }
+
+  /**
+   * Compares trees whose nodes were persisted to the tables, only reading the nodes which are visited.
+   */
+  public List<Range> diffPersisted(Connector conn, String leftTable, String rightTable, String hashName) throws TableNotFoundException,
+      NoSuchAlgorithmException {
+    return diff(new TableMerkleTree(conn, leftTable, hashName), new TableMerkleTree(conn, rightTable, hashName), leftTable, rightTable);
+  }
+
+  /**
+   * Compares trees exported to files by {@link MerkleTreeFile}, without a connection to Accumulo. Only the nodes which
+   * are visited are read from the files.
+   */
+  public List<Range> diffFiles(File leftFile, File rightFile) throws IOException, NoSuchAlgorithmException {
+    return diff(new MappedMerkleTree(leftFile), new MappedMerkleTree(rightFile), leftFile.getName(), rightFile.getName());
+  }
+
+  protected List<Range> diff(MerkleTreeLookup left, MerkleTreeLookup right, String leftTable, String rightTable) throws NoSuchAlgorithmException {
+    MerkleTreeDiff treeDiff = new MerkleTreeDiff();
+    List<Range> differences = treeDiff.diff(left, right);
+
+    log.debug("Visited {} nodes to find {} differences between {} and {}", treeDiff.getNodesVisited(), differences.size(), leftTable, rightTable);
+
+    return differences;
+  }
+
+  public static void main(String[] args) throws Exception {
+    DiffMerkleTreesOpts opts = new DiffMerkleTreesOpts();
+    opts.parseArgs(DiffMerkleTrees.class.getName(), args);
+
+    DiffMerkleTrees diffTrees = new DiffMerkleTrees();
+    List<Range> differences;
+    if (null != opts.getFiles()) {
+      if (2 != opts.getFiles().size() || null != opts.getTables()) {
+        throw new IllegalArgumentException("Expected exactly two files, and no tables, to compare");
+      }
+
+      differences = diffTrees.diffFiles(new File(opts.getFiles().get(0)), new File(opts.getFiles().get(1)));
+    } else if (null == opts.getTables() || 2 != opts.getTables().size()) {
+      throw new IllegalArgumentException("Expected exactly two tables to compare");
+    } else if (opts.isPersisted()) {
+      differences = diffTrees.diffPersisted(opts.getConnector(), opts.getTables().get(0), opts.getTables().get(1), opts.getHashName());
+    } else {
+      differences = diffTrees.diff(opts.getConnector(), opts.getTables().get(0), opts.getTables().get(1), opts.getHashName(), opts.getShape());
+    }
+
+    for (Range difference : differences) {
+      System.out.println(difference);
+    }
+  }
+}
@@ -16,47 +16,72 @@
  */
 package org.apache.accumulo.test.merkle.cli;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.apache.accumulo.core.cli.BatchWriterOpts;
 import org.apache.accumulo.core.cli.ClientOnRequiredTable;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
-import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
-import org.apache.accumulo.test.merkle.RangeSerialization;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeFile;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.RangeIndex;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.metadata.DigestCache;
+import org.apache.accumulo.test.merkle.metadata.RangeLocations;
+import org.apache.accumulo.test.merkle.metadata.RangePlanner;
+import org.apache.accumulo.test.merkle.metadata.TabletMetadata;
+import org.apache.accumulo.test.merkle.metadata.TabletMetadataReader;
+import org.apache.accumulo.test.merkle.sink.CombiningLeafSink;
+import org.apache.accumulo.test.merkle.sink.FileLeafSink;
+import org.apache.accumulo.test.merkle.sink.LeafSink;
+import org.apache.accumulo.test.merkle.sink.MemoryLeafSink;
+import org.apache.accumulo.test.merkle.sink.TableLeafSink;
+import org.apache.accumulo.test.merkle.skvi.CombiningKeyValueDigester;
 import org.apache.accumulo.test.merkle.skvi.DigestIterator;
+import org.apache.accumulo.test.merkle.skvi.KeyValueDigester;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.hadoop.io.Text;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.beust.jcommander.Parameter;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 /**
@@ -65,13 +90,35 @@ import com.google.common.collect.Lists;
 public class GenerateHashes {
   private static final Logger log = LoggerFactory.getLogger(GenerateHashes.class);
 
+  // With a throttle, how many ranges for each thread to send to the iterators at once
+  private static final int THROTTLED_RANGES_PER_THREAD = 16;
+
+  private long chunkEntries = 0l, chunkBytes = 0l;
+  private int numBatchScanners = 0;
+  private ExecutorService executor = null;
+  private boolean balanceRanges = false;
+  private long targetRangeSize = 0l;
+  private boolean workStealing = false;
+  private int maxScansPerServer = 0;
+  private ScanThrottle throttle = null;
+  private HashMetrics metrics = null;
+
   public static class GenerateHashesOpts extends ClientOnRequiredTable {
     @Parameter(names = {"-hash", "--hash"}, required = true, description = "type of hash to use")
     private String hashName;
 
-    @Parameter(names = {"-o", "--output"}, required = true, description = "output table name, expected to exist and be writable")
+    @Parameter(names = {"-o", "--output"}, required = false, description = "output table name, expected to exist and be writable")
     private String outputTableName;
 
+    @Parameter(names = {"--outputFile"}, required = false, description = "local file to write the leaves to instead of an output table")
+    private String outputFile;
+
+    @Parameter(names = {"--treeFile"}, required = false, description = "local file to write the whole tree to instead of an output table")
+    private String treeFile;
+
+    @Parameter(names = {"--balanced"}, required = false, description = "With --treeFile, build a balanced tree instead of the original shape")
+    private boolean balanced = false;
+
     @Parameter(names = {"-nt", "--numThreads"}, required = false, description = "number of concurrent threads calculating digests")
     private int numThreads = 4;
 
@@ -81,6 +128,48 @@ public class GenerateHashes {
     @Parameter(names = {"-s", "--splits"}, required = false, description = "File of splits to use for merkle tree")
     private String splitsFile = null;
 
+    @Parameter(names = {"--combinable"}, required = false, description = "Sum the hash of each entry so hashes do not depend on split points")
+    private boolean combinable = false;
+
+    @Parameter(names = {"--incremental"}, required = false, description = "Only hash tablets whose files changed since the hashes were last generated")
+    private boolean incremental = false;
+
+    @Parameter(names = {"--chunkEntries"}, required = false, description = "With iterator pushdown, create a leaf after at least this many entries")
+    private long chunkEntries = 0l;
+
+    @Parameter(names = {"--chunkBytes"}, required = false, description = "With iterator pushdown, create a leaf after at least this many bytes")
+    private long chunkBytes = 0l;
+
+    @Parameter(names = {"--batchScanners"}, required = false, description = "Without iterator pushdown, read the ranges with this many BatchScanners, each using numThreads threads")
+    private int numBatchScanners = 0;
+
+    @Parameter(names = {"--balanceRanges"}, required = false, description = "Hash the largest ranges first, and divide large ranges into pieces when combinable")
+    private boolean balanceRanges = false;
+
+    @Parameter(names = {"--targetRangeSize"}, required = false, description = "With --balanceRanges, the size in bytes of each piece, defaults to four pieces per thread")
+    private long targetRangeSize = 0l;
+
+    @Parameter(names = {"--stealWork"}, required = false, description = "With combinable hashes and no iterator, split the rest of a slow range off for idle threads")
+    private boolean workStealing = false;
+
+    @Parameter(names = {"--maxScansPerServer"}, required = false, description = "Without iterator pushdown or batch scanners, spread scans across tablet servers, running at most this many against each")
+    private int maxScansPerServer = 0;
+
+    @Parameter(names = {"--entriesPerSecond"}, required = false, description = "Read at most this many entries per second from all tablet servers together")
+    private long entriesPerSecond = 0l;
+
+    @Parameter(names = {"--bytesPerSecond"}, required = false, description = "Read at most this many bytes per second from all tablet servers together")
+    private long bytesPerSecond = 0l;
+
+    @Parameter(names = {"--serverEntriesPerSecond"}, required = false, description = "Read at most this many entries per second from each tablet server")
+    private long serverEntriesPerSecond = 0l;
+
+    @Parameter(names = {"--serverBytesPerSecond"}, required = false, description = "Read at most this many bytes per second from each tablet server")
+    private long serverBytesPerSecond = 0l;
+
+    @Parameter(names = {"--metrics"}, required = false, description = "Publish the progress over JMX and log a summary periodically")
+    private boolean metrics = false;
+
     public String getHashName() {
       return hashName;
     }
@@ -97,6 +186,34 @@ public class GenerateHashes {
       this.outputTableName = outputTableName;
     }
 
+    public String getOutputFile() {
+      return outputFile;
+    }
+
+    public void setOutputFile(String outputFile) {
+      this.outputFile = outputFile;
+    }
+
+    public String getTreeFile() {
+      return treeFile;
+    }
+
+    public void setTreeFile(String treeFile) {
+      this.treeFile = treeFile;
+    }
+
+    public boolean isBalanced() {
+      return balanced;
+    }
+
+    public void setBalanced(boolean balanced) {
+      this.balanced = balanced;
+    }
+
+    public Shape getShape() {
+      return balanced ? Shape.BALANCED : Shape.COMPATIBLE;
+    }
+
     public int getNumThreads() {
       return numThreads;
     }
@@ -120,6 +237,128 @@ public class GenerateHashes {
     public void setSplitsFile(String splitsFile) {
       this.splitsFile = splitsFile;
     }
+
+    public boolean isCombinable() {
+      return combinable;
+    }
+
+    public void setCombinable(boolean combinable) {
+      this.combinable = combinable;
+    }
+
+    public boolean isIncremental() {
+      return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+      this.incremental = incremental;
+    }
+
+    public long getChunkEntries() {
+      return chunkEntries;
+    }
+
+    public void setChunkEntries(long chunkEntries) {
+      this.chunkEntries = chunkEntries;
+    }
+
+    public long getChunkBytes() {
+      return chunkBytes;
+    }
+
+    public void setChunkBytes(long chunkBytes) {
+      this.chunkBytes = chunkBytes;
+    }
+
+    public int getNumBatchScanners() {
+      return numBatchScanners;
+    }
+
+    public void setNumBatchScanners(int numBatchScanners) {
+      this.numBatchScanners = numBatchScanners;
+    }
+
+    public boolean isBalanceRanges() {
+      return balanceRanges;
+    }
+
+    public void setBalanceRanges(boolean balanceRanges) {
+      this.balanceRanges = balanceRanges;
+    }
+
+    public long getTargetRangeSize() {
+      return targetRangeSize;
+    }
+
+    public void setTargetRangeSize(long targetRangeSize) {
+      this.targetRangeSize = targetRangeSize;
+    }
+
+    public boolean isWorkStealing() {
+      return workStealing;
+    }
+
+    public void setWorkStealing(boolean workStealing) {
+      this.workStealing = workStealing;
+    }
+
+    public int getMaxScansPerServer() {
+      return maxScansPerServer;
+    }
+
+    public void setMaxScansPerServer(int maxScansPerServer) {
+      this.maxScansPerServer = maxScansPerServer;
+    }
+
+    public long getEntriesPerSecond() {
+      return entriesPerSecond;
+    }
+
+    public void setEntriesPerSecond(long entriesPerSecond) {
+      this.entriesPerSecond = entriesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getServerEntriesPerSecond() {
+      return serverEntriesPerSecond;
+    }
+
+    public void setServerEntriesPerSecond(long serverEntriesPerSecond) {
+      this.serverEntriesPerSecond = serverEntriesPerSecond;
+    }
+
+    public long getServerBytesPerSecond() {
+      return serverBytesPerSecond;
+    }
+
+    public void setServerBytesPerSecond(long serverBytesPerSecond) {
+      this.serverBytesPerSecond = serverBytesPerSecond;
+    }
+
+    /**
+     * @return The limits given, or null if the scans are not limited
+     */
+    public ScanThrottle getThrottle() {
+      if (entriesPerSecond > 0 || bytesPerSecond > 0 || serverEntriesPerSecond > 0 || serverBytesPerSecond > 0) {
+        return new ScanThrottle(entriesPerSecond, bytesPerSecond, serverEntriesPerSecond, serverBytesPerSecond);
+      }
+      return null;
+    }
+
+    public boolean isMetrics() {
+      return metrics;
+    }
+
+    public void setMetrics(boolean metrics) {
+      this.metrics = metrics;
+    }
   }
 
   public Collection<Range> getRanges(Connector conn, String tableName, String splitsFile) throws TableNotFoundException, AccumuloSecurityException, AccumuloException, FileNotFoundException {
@@ -131,12 +370,11 @@ public class GenerateHashes {
 
       String line;
       java.util.Scanner file = new java.util.Scanner(new File(splitsFile), StandardCharsets.UTF_8.name());
-      List<Text> result = Lists.newArrayList();
       try {
         while (file.hasNextLine()) {
           line = file.nextLine();
           if (!line.isEmpty()) {
-            result.add(new Text(line));
+            splits.add(new Text(line));
           }
         }
       } finally {
@@ -148,104 +386,701 @@ public class GenerateHashes {
     }
   }
 
+  /**
+   * With iterator pushdown, split the digest of each range into several leaves after at least this many entries. Zero,
+   * the default, creates one leaf per range.
+   */
+  public void setChunkEntries(long chunkEntries) {
+    this.chunkEntries = chunkEntries;
+  }
+
+  /**
+   * With iterator pushdown, split the digest of each range into several leaves after at least this many bytes. Zero, the
+   * default, creates one leaf per range.
+   */
+  public void setChunkBytes(long chunkBytes) {
+    this.chunkBytes = chunkBytes;
+  }
+
+  /**
+   * Without iterator pushdown, read the ranges with this many BatchScanners instead of a Scanner for each range. Zero, the
+   * default, uses a Scanner for each range.
+   */
+  public void setNumBatchScanners(int numBatchScanners) {
+    this.numBatchScanners = numBatchScanners;
+  }
+
+  /**
+   * Use the sizes of the tablets in the metadata table to hash the largest ranges first. With combinable hashes, large
+   * ranges are also divided into pieces which are hashed in parallel and summed back into one leaf, so the leaves are the
+   * same as without balancing.
+   */
+  public void setBalanceRanges(boolean balanceRanges) {
+    this.balanceRanges = balanceRanges;
+  }
+
+  /**
+   * With balanced ranges, the estimated size in bytes of each piece. Zero, the default, divides the table into four
+   * pieces for each thread.
+   */
+  public void setTargetRangeSize(long targetRangeSize) {
+    this.targetRangeSize = targetRangeSize;
+  }
+
+  /**
+   * With combinable hashes read back to the client, split the rest of a range which is taking much longer than the others
+   * off for any idle threads, summing the pieces back into the same leaf. Has no effect on other hashes, whose leaves
+   * depend on where the data is divided.
+   */
+  public void setWorkStealing(boolean workStealing) {
+    this.workStealing = workStealing;
+  }
+
+  /**
+   * When reading each range with its own Scanner, take the ranges from each tablet server in turn, as recorded in the
+   * metadata table, and run at most this many scans against any one server at once. Zero, the default, scans the ranges
+   * in order.
+   */
+  public void setMaxScansPerServer(int maxScansPerServer) {
+    this.maxScansPerServer = maxScansPerServer;
+  }
+
+  /**
+   * Limit how fast the scans read from the tablet servers. The same throttle may be shared by several runs, to limit them
+   * together. Null, the default, is unlimited.
+   */
+  public void setThrottle(ScanThrottle throttle) {
+    this.throttle = throttle;
+  }
+
+  /**
+   * Measure the progress of the scans. The same metrics may be shared by several runs, to measure them together. Null, the
+   * default, measures nothing.
+   */
+  public void setMetrics(HashMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Run the scans on a pool which is shared with other work, such as hashing other tables, instead of a new pool for each
+   * run. The pool is not shut down. Each run still only queues a few ranges on it at a time.
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  protected boolean isChunked() {
+    return chunkEntries > 0 || chunkBytes > 0;
+  }
+
   public void run(GenerateHashesOpts opts) throws TableNotFoundException, AccumuloSecurityException, AccumuloException, NoSuchAlgorithmException,
-      FileNotFoundException {
+      IOException {
+    setChunkEntries(opts.getChunkEntries());
+    setChunkBytes(opts.getChunkBytes());
+    setNumBatchScanners(opts.getNumBatchScanners());
+    setBalanceRanges(opts.isBalanceRanges());
+    setTargetRangeSize(opts.getTargetRangeSize());
+    setWorkStealing(opts.isWorkStealing());
+    setMaxScansPerServer(opts.getMaxScansPerServer());
+    setThrottle(opts.getThrottle());
+
+    ObjectName throttleName = null;
+    if (null != throttle) {
+      try {
+        throttleName = throttle.register("GenerateHashes " + opts.getTableName());
+        log.info("Limiting scans to {}, which can be changed over JMX as {}", throttle, throttleName);
+      } catch (JMException e) {
+        log.warn("Could not register the scan limits with JMX, they cannot be changed while running", e);
+      }
+    }
+
+    ObjectName metricsName = null;
+    if (opts.isMetrics()) {
+      setMetrics(new HashMetrics());
+      try {
+        metricsName = metrics.register("GenerateHashes " + opts.getTableName());
+      } catch (JMException e) {
+        log.warn("Could not register the metrics with JMX, only the summary will be logged", e);
+      }
+    }
+
+    try {
+      generate(opts);
+      if (null != metrics) {
+        log.info("Finished: {}", metrics);
+      }
+    } finally {
+      if (null != throttleName) {
+        ScanThrottle.unregister(throttleName);
+      }
+      if (null != metricsName) {
+        HashMetrics.unregister(metricsName);
+      }
+    }
+  }
+
+  private void generate(GenerateHashesOpts opts) throws TableNotFoundException, AccumuloSecurityException, AccumuloException,
+      NoSuchAlgorithmException, IOException {
+    if (opts.isIncremental()) {
+      runIncremental(opts.getConnector(), opts.getTableName(), opts.getOutputTableName(), opts.getHashName(), opts.getNumThreads(),
+          opts.isIteratorPushdown(), opts.isCombinable());
+      return;
+    }
+
     Collection<Range> ranges = getRanges(opts.getConnector(), opts.getTableName(), opts.getSplitsFile());
 
-    run(opts.getConnector(), opts.getTableName(), opts.getOutputTableName(), opts.getHashName(), opts.getNumThreads(), opts.isIteratorPushdown(), ranges);
+    if (null != opts.getTreeFile()) {
+      MemoryLeafSink sink = new MemoryLeafSink(opts.getHashName(), true);
+      run(opts.getConnector(), opts.getTableName(), sink, opts.getHashName(), opts.getNumThreads(), opts.isIteratorPushdown(), opts.isCombinable(),
+          ranges);
+      MerkleTreeFile.write(sink.getTree(opts.getShape()), new File(opts.getTreeFile()));
+      return;
+    }
+
+    if (null != opts.getOutputFile()) {
+      LeafSink sink = new FileLeafSink(new File(opts.getOutputFile()));
+      try {
+        run(opts.getConnector(), opts.getTableName(), sink, opts.getHashName(), opts.getNumThreads(), opts.isIteratorPushdown(), opts.isCombinable(),
+            ranges);
+      } finally {
+        sink.close();
+      }
+      return;
+    }
+
+    run(opts.getConnector(), opts.getTableName(), opts.getOutputTableName(), opts.getHashName(), opts.getNumThreads(), opts.isIteratorPushdown(),
+        opts.isCombinable(), ranges);
   }
 
   public void run(final Connector conn, final String inputTableName, final String outputTableName, final String digestName, int numThreads,
       final boolean iteratorPushdown, final Collection<Range> ranges) throws TableNotFoundException, AccumuloSecurityException, AccumuloException,
       NoSuchAlgorithmException {
+    run(conn, inputTableName, outputTableName, digestName, numThreads, iteratorPushdown, false, ranges);
+  }
+
+  /**
+   * @param combinable
+   *          Sum the hashes of each entry, see {@link CombiningKeyValueDigester}. The ranges no longer need to line up with
+   *          tablets to push the computation down, as the hashes from each tablet in a range are summed together.
+   */
+  public void run(final Connector conn, final String inputTableName, final String outputTableName, final String digestName, int numThreads,
+      final boolean iteratorPushdown, final boolean combinable, final Collection<Range> ranges) throws TableNotFoundException,
+      AccumuloSecurityException, AccumuloException, NoSuchAlgorithmException {
+    run(conn, inputTableName, outputTableName, digestName, numThreads, iteratorPushdown, combinable, ranges, null);
+  }
+
+  /**
+   * Only hashes the tablets whose files have changed since the leaves in the output table were computed, as recorded by
+   * {@link DigestCache}. The table is flushed first so that no tablet has data in memory which is not in its files.
+   * Leaves for ranges which are no longer tablets are removed.
+   *
+   * @return The number of tablets which were hashed
+   */
+  public int runIncremental(final Connector conn, final String inputTableName, final String outputTableName, final String digestName,
+      int numThreads, final boolean iteratorPushdown, final boolean combinable) throws TableNotFoundException, AccumuloSecurityException,
+      AccumuloException, NoSuchAlgorithmException {
     if (!conn.tableOperations().exists(outputTableName)) {
       throw new IllegalArgumentException(outputTableName + " does not exist, please create it");
     }
 
-    ExecutorService svc = Executors.newFixedThreadPool(numThreads);
-    final BatchWriter bw = conn.createBatchWriter(outputTableName, new BatchWriterConfig());
+    if (isChunked()) {
+      throw new IllegalStateException("Chunked leaves cannot be generated incrementally");
+    }
+
+    conn.tableOperations().flush(inputTableName, null, null, true);
+
+    List<TabletMetadata> tablets = new TabletMetadataReader().getTablets(conn, inputTableName);
+    DigestCache cache = DigestCache.read(conn, outputTableName);
+
+    Map<Range,Value> changedTablets = new LinkedHashMap<>();
+    List<Range> ranges = new ArrayList<>(tablets.size());
+    for (TabletMetadata tablet : tablets) {
+      Range range = tablet.getRange();
+      Value fileSet = DigestCache.toValue(digestName, combinable, tablet);
+
+      ranges.add(range);
+      if (!cache.isCached(range, fileSet)) {
+        changedTablets.put(range, fileSet);
+      }
+    }
+
+    log.info("{} of {} tablets in {} changed since their hashes were computed", changedTablets.size(), tablets.size(), inputTableName);
+
+    List<Mutation> staleMutations = cache.getStaleMutations(ranges);
+    if (!staleMutations.isEmpty()) {
+      log.info("Removing {} leaves which no longer correspond to tablets", staleMutations.size());
+      BatchWriter bw = conn.createBatchWriter(outputTableName, new BatchWriterConfig());
+      try {
+        bw.addMutations(staleMutations);
+      } finally {
+        bw.close();
+      }
+    }
+
+    run(conn, inputTableName, outputTableName, digestName, numThreads, iteratorPushdown, combinable, changedTablets.keySet(), changedTablets);
+
+    return changedTablets.size();
+  }
+
+  /**
+   * @param fileSets
+   *          If not null, the {@link DigestCache} record to write with the leaf for each range
+   */
+  protected void run(final Connector conn, final String inputTableName, final String outputTableName, final String digestName, int numThreads,
+      final boolean iteratorPushdown, final boolean combinable, final Collection<Range> ranges, final Map<Range,Value> fileSets)
+      throws TableNotFoundException, AccumuloSecurityException, AccumuloException, NoSuchAlgorithmException {
+    if (!conn.tableOperations().exists(outputTableName)) {
+      throw new IllegalArgumentException(outputTableName + " does not exist, please create it");
+    }
 
+    final LeafSink sink = new TableLeafSink(conn, outputTableName, fileSets);
     try {
-      for (final Range range : ranges) {
-        final MessageDigest digest = getDigestAlgorithm(digestName);
+      run(conn, inputTableName, sink, digestName, numThreads, iteratorPushdown, combinable, ranges);
+    } finally {
+      // We can only safely close this when we're exiting or we've completely all tasks
+      sink.close();
+    }
+  }
+
+  /**
+   * Computes a leaf for each range and gives it to the sink, which is left open
+   */
+  public void run(final Connector conn, final String inputTableName, LeafSink sink, final String digestName, int numThreads,
+      final boolean iteratorPushdown, final boolean combinable, Collection<Range> ranges) throws TableNotFoundException,
+      AccumuloSecurityException, AccumuloException, NoSuchAlgorithmException {
+    final HashFunction hashFunction = getDigestAlgorithm(digestName);
+
+    RangePlanner planner = null;
+    if (balanceRanges) {
+      planner = RangePlanner.create(conn, inputTableName, numThreads, targetRangeSize);
+      if (combinable && !isChunked()) {
+        // Hash the pieces of each range, summing them back into the leaf for the range
+        Map<Range,List<Range>> pieces = planner.subdivide(ranges);
+        sink = new CombiningLeafSink(sink, hashFunction.getHashLength(), pieces);
+
+        List<Range> allPieces = new ArrayList<>();
+        for (List<Range> rangePieces : pieces.values()) {
+          allPieces.addAll(rangePieces);
+        }
+        ranges = planner.largestFirst(allPieces);
+      } else {
+        // Chunked digests already end at places which depend on the data, dividing ranges would move them
+        ranges = planner.largestFirst(ranges);
+      }
+    }
+
+    if (null != metrics) {
+      // The sizes of the tablets give the time remaining
+      if (null == planner) {
+        planner = RangePlanner.create(conn, inputTableName, numThreads, targetRangeSize);
+      }
+      metrics.addEstimatedSizes(planner.estimateSizes(ranges));
+    }
+
+    if (!iteratorPushdown && 0 == numBatchScanners) {
+      digestOnClient(conn, inputTableName, sink, hashFunction, combinable, numThreads, ranges);
+      return;
+    }
+
+    // A BatchScanner returns the data from each tablet in any order, so the digests from more than one tablet can only be
+    // put back together when they are combinable, or kept apart as chunks
+    List<Range> batchRanges = new ArrayList<>(ranges.size()), scannerRanges = new ArrayList<>();
+    if (combinable || (iteratorPushdown && isChunked())) {
+      batchRanges.addAll(ranges);
+    } else {
+      RangeIndex tablets = new RangeIndex(endRowsToRanges(conn.tableOperations().listSplits(inputTableName)));
+      for (Range range : ranges) {
+        (tablets.containsRange(range) ? batchRanges : scannerRanges).add(range);
+      }
+    }
+
+    if (!scannerRanges.isEmpty()) {
+      log.info("Computing the digests for {} ranges which span more than one tablet with a Scanner each", scannerRanges.size());
+    }
+
+    if (iteratorPushdown) {
+      pushdown(conn, inputTableName, sink, digestName, hashFunction, combinable, numThreads, batchRanges);
+    } else {
+      digestWithBatchScanners(conn, inputTableName, sink, hashFunction, combinable, numThreads, batchRanges);
+    }
+
+    digestOnClient(conn, inputTableName, sink, hashFunction, combinable, numThreads, scannerRanges);
+  }
+
+  /**
+   * Computes the digests for the ranges with {@link DigestIterator}, reading all of them through {@link BatchScanner}s so
+   * that each tablet server is sent many ranges at once. Each range must be within a single tablet, unless the digests
+   * are combinable or chunked.
+   */
+  protected void pushdown(Connector conn, String inputTableName, LeafSink sink, String digestName, HashFunction hashFunction, boolean combinable,
+      int numThreads, Collection<Range> ranges) throws TableNotFoundException {
+    if (ranges.isEmpty()) {
+      return;
+    }
+
+    // Tablet servers merge adjacent ranges into a single seek, which would return one digest for all of them. Alternating
+    // the ranges between two scans means that no two ranges in the same scan are adjacent.
+    final RangeIndex index = new RangeIndex(ranges);
+    List<Range> evenRanges = new ArrayList<>(), oddRanges = new ArrayList<>();
+    for (int i = 0; i < index.size(); i++) {
+      (0 == i % 2 ? evenRanges : oddRanges).add(index.getRanges().get(i));
+    }
+
+    // With a throttle, send the ranges a group at a time so that the iterators pick up any change to the limits
+    List<List<Range>> batches = new ArrayList<>();
+    for (List<Range> alternate : Arrays.asList(evenRanges, oddRanges)) {
+      if (null == throttle || alternate.isEmpty()) {
+        batches.add(alternate);
+      } else {
+        batches.addAll(Lists.partition(alternate, THROTTLED_RANGES_PER_THREAD * numThreads));
+      }
+    }
+
+    final int numServers = null == throttle ? 0 : conn.instanceOperations().getTabletServers().size();
+    for (List<Range> batch : batches) {
+      if (batch.isEmpty()) {
+        continue;
+      }
+
+      IteratorSetting cfg = createDigestIteratorSetting(digestName, combinable);
+      if (null != throttle) {
+        addThrottleOptions(cfg, numServers);
+      }
+
+      Map<Range,List<Entry<Key,Value>>> digests = new HashMap<>();
+      BatchScanner bs = conn.createBatchScanner(inputTableName, Authorizations.EMPTY, numThreads);
+      try {
+        bs.setRanges(batch);
+        bs.addScanIterator(cfg);
+
+        for (Entry<Key,Value> entry : bs) {
+          Range range = index.get(entry.getKey());
+          if (null == range) {
+            throw new IllegalStateException("Digest at " + entry.getKey() + " is not within any range");
+          }
+
+          List<Entry<Key,Value>> rangeDigests = digests.get(range);
+          if (null == rangeDigests) {
+            rangeDigests = new ArrayList<>(1);
+            digests.put(range, rangeDigests);
+          }
+          rangeDigests.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+      } finally {
+        bs.close();
+      }
+
+      for (Range range : batch) {
+        List<Entry<Key,Value>> rangeDigests = digests.get(range);
+        if (null == rangeDigests) {
+          throw new IllegalStateException("No digest returned for " + range);
+        }
+
+        writeLeaves(sink, hashFunction, combinable, range, rangeDigests);
+        if (null != metrics) {
+          metrics.rangeCompleted(range);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the leaves for a range from the digests {@link DigestIterator} returned for it, in any order
+   */
+  protected void writeLeaves(LeafSink sink, HashFunction hashFunction, boolean combinable, Range range, List<Entry<Key,Value>> digests) {
+    if (isChunked()) {
+      Collections.sort(digests, new Comparator<Entry<Key,Value>>() {
+        @Override
+        public int compare(Entry<Key,Value> o1, Entry<Key,Value> o2) {
+          return o1.getKey().compareTo(o2.getKey());
+        }
+      });
+
+      List<MerkleTreeNode> leaves = getChunkLeaves(range, digests);
+      log.debug("Computed {} digests for {}", leaves.size(), range);
+      for (MerkleTreeNode leaf : leaves) {
+        sink.add(leaf);
+      }
+      return;
+    }
+
+    Value v;
+    if (combinable) {
+      // One sum from each tablet which the range overlaps
+      HashAccumulator sum = new HashAccumulator(hashFunction.getHashLength());
+      for (Entry<Key,Value> digest : digests) {
+        sum.add(digest.getValue().get());
+      }
+
+      v = new Value(sum.get());
+    } else if (1 == digests.size()) {
+      v = digests.get(0).getValue();
+    } else {
+      throw new IllegalStateException("Expected one digest for " + range + " but got " + digests.size());
+    }
+
+    log.debug("Computed digest for {} of {}", range, Hex.encodeHexString(v.get()));
+
+    sink.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), v.get()));
+  }
+
+  /**
+   * Reads every Key-Value in the ranges back to the client through a few {@link BatchScanner}s instead of a Scanner for
+   * each range. Each BatchScanner reads a contiguous group of the ranges, and the Key-Values it returns are sent to the
+   * digest for the range which contains them. Each range must be within a single tablet, unless the digests are
+   * combinable.
+   */
+  protected void digestWithBatchScanners(final Connector conn, final String inputTableName, final LeafSink sink, final HashFunction hashFunction,
+      final boolean combinable, final int numThreads, Collection<Range> ranges) {
+    if (ranges.isEmpty()) {
+      return;
+    }
 
-        svc.execute(new Runnable() {
+    final List<Range> sortedRanges = new RangeIndex(ranges).getRanges();
+    final int groupSize = (sortedRanges.size() + numBatchScanners - 1) / numBatchScanners;
+
+    final ExecutorService svc = null == this.executor ? Executors.newFixedThreadPool(numBatchScanners) : this.executor;
+    BoundedExecutor executor = new BoundedExecutor(svc, numBatchScanners);
+
+    try {
+      for (int i = 0; i < sortedRanges.size(); i += groupSize) {
+        final List<Range> group = sortedRanges.subList(i, Math.min(i + groupSize, sortedRanges.size()));
+        executor.submit(new Runnable() {
 
           @Override
           public void run() {
-            Scanner s;
+            RangeIndex index = new RangeIndex(group);
+            Map<Range,KeyValueDigester> digesters = new HashMap<>();
+
+            BatchScanner bs;
             try {
-              s = conn.createScanner(inputTableName, Authorizations.EMPTY);
+              bs = conn.createBatchScanner(inputTableName, Authorizations.EMPTY, numThreads);
             } catch (Exception e) {
-              log.error("Could not get scanner for " + inputTableName, e);
+              log.error("Could not get batch scanner for " + inputTableName, e);
               throw new RuntimeException(e);
             }
 
-            s.setRange(range);
+            try {
+              bs.setRanges(group);
+              for (Entry<Key,Value> entry : count(null, null == throttle ? bs : throttle.throttle(null, bs))) {
+                Range range = index.get(entry.getKey());
+                KeyValueDigester digester = digesters.get(range);
+                if (null == digester) {
+                  digester = KeyValueDigester.create(hashFunction, combinable);
+                  digesters.put(range, digester);
+                }
+
+                digester.update(entry.getKey(), entry.getValue());
+              }
+            } finally {
+              bs.close();
+            }
+
+            log.info("{} computed digests for {} ranges from {} to {}", Thread.currentThread().getName(), group.size(), group.get(0),
+                group.get(group.size() - 1));
 
-            Value v = null;
-            Mutation m = null;
-            if (iteratorPushdown) {
-              IteratorSetting cfg = new IteratorSetting(50, DigestIterator.class);
-              cfg.addOption(DigestIterator.HASH_NAME_KEY, digestName);
-              s.addScanIterator(cfg);
+            for (Range range : group) {
+              // Ranges without any data never had a digester created
+              KeyValueDigester digester = digesters.get(range);
+              byte[] hash = null == digester ? KeyValueDigester.create(hashFunction, combinable).digest() : digester.digest();
 
-              // The scanner should only ever return us one Key-Value, otherwise this approach won't work
-              Entry<Key,Value> entry = Iterables.getOnlyElement(s);
+              sink.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), hash));
+              if (null != metrics) {
+                metrics.rangeCompleted(range);
+              }
+            }
+          }
+        });
+      }
+
+      executor.await();
+    } finally {
+      // Nothing is left running once the tasks are done, or if one failed
+      if (svc != this.executor) {
+        svc.shutdownNow();
+      }
+    }
+  }
 
-              v = entry.getValue();
-              m = RangeSerialization.toMutation(range, v);
-            } else {
-              ByteArrayOutputStream baos = new ByteArrayOutputStream();
-              for (Entry<Key,Value> entry : s) {
-                DataOutputStream out = new DataOutputStream(baos);
+  /**
+   * Reads every Key-Value in each range back to the client to compute its digest, one range at a time in each thread
+   */
+  protected void digestOnClient(final Connector conn, final String inputTableName, final LeafSink sink, final HashFunction hashFunction,
+      final boolean combinable, int numThreads, Collection<Range> ranges) throws TableNotFoundException {
+    if (ranges.isEmpty()) {
+      return;
+    }
+
+    // Only queue a few ranges ahead of the threads instead of a task for every range up front
+    final ExecutorService svc = null == this.executor ? Executors.newFixedThreadPool(numThreads) : this.executor;
+    BoundedExecutor executor = new BoundedExecutor(svc, 2 * numThreads);
+
+    try {
+      // Where each range is hosted, to spread the scans across the servers or limit the scans of each server
+      final RangeLocations locations = maxScansPerServer > 0 || (null != throttle && throttle.isServerLimited()) || null != metrics ? RangeLocations
+          .create(conn, inputTableName) : null;
+
+      final ServerScheduler scheduler = maxScansPerServer > 0 ? new ServerScheduler(executor, maxScansPerServer) : null;
+
+      WorkStealingDigester stealing = null;
+      ServerScheduler.TaskFactory tasks;
+      if (workStealing && combinable) {
+        // Counts each range as hashed once all of its pieces are, instead of when its first scan finishes
+        stealing = new WorkStealingDigester(conn, inputTableName, sink, hashFunction, numThreads, executor);
+        stealing.setLocations(locations);
+        stealing.setThrottle(throttle);
+        stealing.setScheduler(scheduler);
+        stealing.setMetrics(metrics);
+        tasks = stealing;
+      } else {
+        // Each thread reuses one digester for every range it hashes
+        final ThreadLocal<KeyValueDigester> digesters = new ThreadLocal<KeyValueDigester>() {
+          @Override
+          protected KeyValueDigester initialValue() {
+            return KeyValueDigester.create(hashFunction, combinable);
+          }
+        };
+
+        tasks = new ServerScheduler.TaskFactory() {
+          @Override
+          public Runnable create(final Range range) {
+            return new Runnable() {
+
+              @Override
+              public void run() {
+                Scanner s;
                 try {
-                  entry.getKey().write(out);
-                  entry.getValue().write(out);
+                  s = conn.createScanner(inputTableName, Authorizations.EMPTY);
                 } catch (Exception e) {
-                  log.error("Error writing {}", entry, e);
+                  log.error("Could not get scanner for " + inputTableName, e);
                   throw new RuntimeException(e);
                 }
 
-                digest.update(baos.toByteArray());
-                baos.reset();
-              }
+                s.setRange(range);
 
-              v = new Value(digest.digest());
-              m = RangeSerialization.toMutation(range, v);
-            }
+                final String server = null == locations ? null : locations.getLocation(range);
+                byte[] hash = digest(digesters.get(), count(server, null == throttle ? s : throttle.throttle(server, s)));
 
-            // Log some progress
-            log.info("{} computed digest for {} of {}", Thread.currentThread().getName(), range, Hex.encodeHexString(v.get()));
+                // Log some progress
+                log.info("{} computed digest for {} of {}", Thread.currentThread().getName(), range, Hex.encodeHexString(hash));
 
-            try {
-              bw.addMutation(m);
-            } catch (MutationsRejectedException e) {
-              log.error("Could not write mutation", e);
-              throw new RuntimeException(e);
-            }
+                sink.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), hash));
+              }
+            };
           }
-        });
+        };
       }
 
-      svc.shutdown();
+      if (null != metrics && null == stealing) {
+        final ServerScheduler.TaskFactory untracked = tasks;
+        tasks = new ServerScheduler.TaskFactory() {
+          @Override
+          public Runnable create(Range range) {
+            return metrics.track(range, untracked.create(range));
+          }
+        };
+      }
 
-      // Wait indefinitely for the scans to complete
-      while (!svc.isTerminated()) {
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException e) {
-          log.error("Interrupted while waiting for executor service to gracefully complete. Exiting now");
-          svc.shutdownNow();
-          return;
+      if (null != scheduler) {
+        Map<String,List<Range>> rangesByServer = locations.groupByServer(ranges);
+        log.info("Scanning {} ranges across {} tablet servers, at most {} at a time on each", ranges.size(), rangesByServer.size(), maxScansPerServer);
+        scheduler.run(rangesByServer, tasks);
+      } else {
+        for (Range range : ranges) {
+          executor.submit(tasks.create(range));
         }
+        executor.await();
+      }
+
+      if (null != stealing) {
+        log.info("Split the rest of a range off for an idle thread {} times", stealing.getNumSplits());
       }
     } finally {
-      // We can only safely close this when we're exiting or we've completely all tasks
-      bw.close();
+      // Nothing is left running once the tasks are done, or if one failed
+      if (svc != this.executor) {
+        svc.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * @return The entries, counted by the metrics if there are any
+   */
+  private Iterable<Entry<Key,Value>> count(String server, Iterable<Entry<Key,Value>> entries) {
+    return null == metrics ? entries : metrics.count(server, entries);
+  }
+
+  /**
+   * Computes the digest of every Key-Value read back to the client for one range
+   */
+  public static byte[] digest(KeyValueDigester digester, Iterable<Entry<Key,Value>> entries) {
+    digester.reset();
+    for (Entry<Key,Value> entry : entries) {
+      digester.update(entry.getKey(), entry.getValue());
+    }
+    return digester.digest();
+  }
+
+  /**
+   * Limits the iterator in each tablet server to its share of the current limits
+   */
+  protected void addThrottleOptions(IteratorSetting cfg, int numServers) {
+    long entriesPerSecond = throttle.getIteratorEntriesPerSecond(numServers), bytesPerSecond = throttle.getIteratorBytesPerSecond(numServers);
+    if (entriesPerSecond > 0) {
+      cfg.addOption(DigestIterator.ENTRIES_PER_SECOND_KEY, Long.toString(entriesPerSecond));
+    }
+    if (bytesPerSecond > 0) {
+      cfg.addOption(DigestIterator.BYTES_PER_SECOND_KEY, Long.toString(bytesPerSecond));
     }
   }
 
+  protected IteratorSetting createDigestIteratorSetting(String digestName, boolean combinable) {
+    IteratorSetting cfg = new IteratorSetting(50, DigestIterator.class);
+    cfg.addOption(DigestIterator.HASH_NAME_KEY, digestName);
+    cfg.addOption(DigestIterator.COMBINABLE_KEY, Boolean.toString(combinable));
+    if (chunkEntries > 0) {
+      cfg.addOption(DigestIterator.CHUNK_ENTRIES_KEY, Long.toString(chunkEntries));
+    }
+    if (chunkBytes > 0) {
+      cfg.addOption(DigestIterator.CHUNK_BYTES_KEY, Long.toString(chunkBytes));
+    }
+    return cfg;
+  }
+
+  /**
+   * Turns the digests returned by a chunked {@link DigestIterator} into leaves. Each digest covers the rows after the
+   * previous digest's row through its own row, and the last digest covers the rest of the range.
+   */
+  protected List<MerkleTreeNode> getChunkLeaves(Range range, Iterable<Entry<Key,Value>> digests) {
+    List<MerkleTreeNode> leaves = new ArrayList<>();
+    Key start = range.getStartKey();
+    boolean startInclusive = range.isStartKeyInclusive();
+
+    Iterator<Entry<Key,Value>> iter = digests.iterator();
+    while (iter.hasNext()) {
+      Entry<Key,Value> digest = iter.next();
+      byte[] hash = digest.getValue().get();
+
+      Range leafRange;
+      if (iter.hasNext()) {
+        Key end = digest.getKey().followingKey(PartialKey.ROW);
+        leafRange = new Range(start, startInclusive, end, false);
+        start = end;
+        startInclusive = true;
+      } else {
+        leafRange = new Range(start, startInclusive, range.getEndKey(), range.isEndKeyInclusive());
+      }
+
+      leaves.add(new MerkleTreeNode(leafRange, 0, Collections.<Range> emptyList(), hash));
+    }
+
+    if (leaves.isEmpty()) {
+      throw new IllegalStateException("No digests returned for " + range);
+    }
+
+    return leaves;
+  }
+
   public TreeSet<Range> endRowsToRanges(Collection<Text> endRows) {
     ArrayList<Text> sortedEndRows = new ArrayList<Text>(endRows);
     Collections.sort(sortedEndRows);
@@ -266,8 +1101,8 @@ public class GenerateHashes {
     return ranges;
   }
 
-  protected MessageDigest getDigestAlgorithm(String digestName) throws NoSuchAlgorithmException {
-    return MessageDigest.getInstance(digestName);
+  protected HashFunction getDigestAlgorithm(String digestName) throws NoSuchAlgorithmException {
+    return HashFunction.forName(digestName);
   }
 
   public static void main(String[] args) throws Exception {
@@ -275,8 +1110,24 @@ public class GenerateHashes {
     BatchWriterOpts bwOpts = new BatchWriterOpts();
     opts.parseArgs(GenerateHashes.class.getName(), args, bwOpts);
 
-    if (opts.isIteratorPushdown() && null != opts.getSplitsFile()) {
-      throw new IllegalArgumentException("Cannot use iterator pushdown with anything other than table split points");
+    if ((opts.getChunkEntries() > 0 || opts.getChunkBytes() > 0) && (!opts.isIteratorPushdown() || opts.isIncremental())) {
+      throw new IllegalArgumentException("Chunked leaves require iterator pushdown and cannot be generated incrementally");
+    }
+
+    int numOutputs = 0;
+    for (String output : Arrays.asList(opts.getOutputTableName(), opts.getOutputFile(), opts.getTreeFile())) {
+      numOutputs += null == output ? 0 : 1;
+    }
+    if (1 != numOutputs) {
+      throw new IllegalArgumentException("Exactly one of an output table, an output file or a tree file is required");
+    }
+
+    if (opts.isIncremental() && null == opts.getOutputTableName()) {
+      throw new IllegalArgumentException("Incremental hashing reads the previous leaves from the output table, it cannot use an output file");
+    }
+
+    if (opts.isIncremental() && null != opts.getSplitsFile()) {
+      throw new IllegalArgumentException("Incremental hashing relies on the files of each tablet, it cannot use a splits file");
     }
 
     GenerateHashes generate = new GenerateHashes();
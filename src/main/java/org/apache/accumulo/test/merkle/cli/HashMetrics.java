@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the progress of computing hashes: how fast entries are hashed overall and from each tablet server, how long
+ * each range takes to scan, how many ranges are waiting or being scanned, and how long the rest should take. The time
+ * remaining is estimated from the sizes of the tablets in the metadata table, by how much of the estimated size of all
+ * of the ranges has been hashed so far.
+ * <p>
+ * Entries are counted a batch at a time, so the counts lag slightly behind the scans. A summary is logged at most every
+ * {@link #LOG_INTERVAL_MILLIS} as ranges complete.
+ */
+public class HashMetrics implements HashMetricsMXBean {
+  private static final Logger log = LoggerFactory.getLogger(HashMetrics.class);
+
+  /**
+   * The least time between logging summaries of the progress
+   */
+  public static final long LOG_INTERVAL_MILLIS = 30000l;
+
+  // How many entries to read between updating the counts
+  private static final int BATCH_ENTRIES = 100;
+
+  // The name used for entries whose tablet server is not known
+  static final String UNKNOWN_SERVER = "unknown";
+
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong lastLogNanos = new AtomicLong(startNanos);
+
+  private final AtomicLong entries = new AtomicLong(0), bytes = new AtomicLong(0);
+  private final ConcurrentMap<String,AtomicLong[]> servers = new ConcurrentHashMap<>();
+
+  private final AtomicLong rangesCompleted = new AtomicLong(0);
+  private final AtomicInteger rangesQueued = new AtomicInteger(0), rangesInFlight = new AtomicInteger(0);
+  private final Histogram scanLatency = new Histogram();
+
+  // The estimated sizes of the ranges yet to complete, and of every range
+  private final ConcurrentMap<Range,Long> estimatedSizes = new ConcurrentHashMap<>();
+  private final AtomicLong totalEstimate = new AtomicLong(0), completedEstimate = new AtomicLong(0);
+
+  /**
+   * Adds to the work to be done
+   *
+   * @param sizes
+   *          The estimated size of each range which will be hashed
+   */
+  public void addEstimatedSizes(Map<Range,Long> sizes) {
+    long total = 0l;
+    for (Entry<Range,Long> entry : sizes.entrySet()) {
+      estimatedSizes.put(entry.getKey(), entry.getValue());
+      total += entry.getValue();
+    }
+    totalEstimate.addAndGet(total);
+  }
+
+  /**
+   * @return A task which runs the scan of the range, measuring how long it waits and runs, then counts the range as
+   *         hashed. Counts the range as queued until it starts.
+   */
+  public Runnable track(final Range range, final Runnable task) {
+    final Runnable scan = trackScan(task);
+    return new Runnable() {
+      @Override
+      public void run() {
+        scan.run();
+        rangeCompleted(range);
+      }
+    };
+  }
+
+  /**
+   * Like {@link #track(Range, Runnable)}, but does not count the range as hashed when the scan completes. For scans of
+   * part of a range, such as the pieces split off by {@link WorkStealingDigester}, where {@link #rangeCompleted(Range)}
+   * is called once every piece is done.
+   */
+  public Runnable trackScan(final Runnable task) {
+    rangesQueued.incrementAndGet();
+    return new Runnable() {
+      @Override
+      public void run() {
+        rangesQueued.decrementAndGet();
+        rangesInFlight.incrementAndGet();
+        final long start = System.nanoTime();
+        try {
+          task.run();
+        } finally {
+          rangesInFlight.decrementAndGet();
+        }
+
+        scanLatency.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    };
+  }
+
+  /**
+   * Counts the range as hashed
+   */
+  public void rangeCompleted(Range range) {
+    rangesCompleted.incrementAndGet();
+
+    Long size = estimatedSizes.remove(range);
+    if (null != size) {
+      completedEstimate.addAndGet(size);
+    }
+
+    final long now = System.nanoTime(), last = lastLogNanos.get();
+    if (TimeUnit.NANOSECONDS.toMillis(now - last) >= LOG_INTERVAL_MILLIS && lastLogNanos.compareAndSet(last, now)) {
+      log.info("Progress: {}", this);
+    }
+  }
+
+  /**
+   * @param server
+   *          The tablet server the entries are read from, or null if not known
+   * @return The entries, counted as they are read
+   */
+  public Iterable<Entry<Key,Value>> count(String server, final Iterable<Entry<Key,Value>> entries) {
+    final AtomicLong[] serverCounts = getServerCounts(null == server ? UNKNOWN_SERVER : server);
+    return new Iterable<Entry<Key,Value>>() {
+      @Override
+      public Iterator<Entry<Key,Value>> iterator() {
+        return new CountingIterator(entries.iterator(), serverCounts);
+      }
+    };
+  }
+
+  private AtomicLong[] getServerCounts(String server) {
+    AtomicLong[] counts = servers.get(server);
+    if (null == counts) {
+      counts = new AtomicLong[] {new AtomicLong(0), new AtomicLong(0)};
+      AtomicLong[] existing = servers.putIfAbsent(server, counts);
+      if (null != existing) {
+        counts = existing;
+      }
+    }
+    return counts;
+  }
+
+  private double getElapsedSeconds() {
+    return Math.max(1l, System.nanoTime() - startNanos) / 1e9d;
+  }
+
+  @Override
+  public long getEntriesHashed() {
+    return entries.get();
+  }
+
+  @Override
+  public long getBytesHashed() {
+    return bytes.get();
+  }
+
+  @Override
+  public double getEntriesPerSecond() {
+    return entries.get() / getElapsedSeconds();
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return bytes.get() / getElapsedSeconds();
+  }
+
+  @Override
+  public Map<String,Long> getServerEntriesHashed() {
+    Map<String,Long> serverEntries = new TreeMap<>();
+    for (Entry<String,AtomicLong[]> entry : servers.entrySet()) {
+      serverEntries.put(entry.getKey(), entry.getValue()[0].get());
+    }
+    return serverEntries;
+  }
+
+  @Override
+  public Map<String,Double> getServerBytesPerSecond() {
+    final double elapsed = getElapsedSeconds();
+    Map<String,Double> serverRates = new TreeMap<>();
+    for (Entry<String,AtomicLong[]> entry : servers.entrySet()) {
+      serverRates.put(entry.getKey(), entry.getValue()[1].get() / elapsed);
+    }
+    return serverRates;
+  }
+
+  @Override
+  public long getRangesCompleted() {
+    return rangesCompleted.get();
+  }
+
+  @Override
+  public int getRangesQueued() {
+    return rangesQueued.get();
+  }
+
+  @Override
+  public int getRangesInFlight() {
+    return rangesInFlight.get();
+  }
+
+  @Override
+  public long getScanLatencyMedianMillis() {
+    return scanLatency.getPercentile(0.5d);
+  }
+
+  @Override
+  public long getScanLatency90thPercentileMillis() {
+    return scanLatency.getPercentile(0.9d);
+  }
+
+  @Override
+  public long getScanLatency99thPercentileMillis() {
+    return scanLatency.getPercentile(0.99d);
+  }
+
+  @Override
+  public long getScanLatencyMaxMillis() {
+    return scanLatency.getMax();
+  }
+
+  @Override
+  public double getFractionComplete() {
+    long total = totalEstimate.get();
+    return total <= 0 ? 0d : Math.min(1d, (double) completedEstimate.get() / total);
+  }
+
+  @Override
+  public long getEstimatedSecondsRemaining() {
+    double fraction = getFractionComplete();
+    if (fraction <= 0d) {
+      return -1l;
+    }
+    return (long) (getElapsedSeconds() * (1d - fraction) / fraction);
+  }
+
+  /**
+   * Registers the metrics with the platform MBeanServer
+   *
+   * @return The name the metrics were registered with, to pass to {@link #unregister(ObjectName)}
+   */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName("org.apache.accumulo.test.merkle:type=HashMetrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  public static void unregister(ObjectName objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      log.warn("Could not unregister " + objectName, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d ranges completed, %d in flight, %d queued, %d entries at %.0f entries/s and %.0f bytes/s, scans p50=%dms p99=%dms,"
+        + " %.1f%% complete, %ds remaining", getRangesCompleted(), getRangesInFlight(), getRangesQueued(), getEntriesHashed(), getEntriesPerSecond(),
+        getBytesPerSecond(), getScanLatencyMedianMillis(), getScanLatency99thPercentileMillis(), 100d * getFractionComplete(),
+        getEstimatedSecondsRemaining());
+  }
+
+  /**
+   * Counts latencies in buckets which double in size, so percentiles are within a factor of two
+   */
+  static class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final AtomicLong count = new AtomicLong(0), max = new AtomicLong(0);
+
+    void add(long value) {
+      value = Math.max(0l, value);
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+      count.incrementAndGet();
+
+      long previous;
+      while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {}
+    }
+
+    /**
+     * @return The upper bound of the bucket holding the percentile, or zero if nothing was added
+     */
+    long getPercentile(double percentile) {
+      final long target = (long) Math.ceil(percentile * count.get());
+      long seen = 0l;
+      for (int i = 0; i < buckets.length(); i++) {
+        seen += buckets.get(i);
+        if (seen >= target && seen > 0) {
+          // Bucket i holds values below 2^i, but never report more than the largest value
+          return Math.min(max.get(), 0 == i ? 0l : (1l << i) - 1);
+        }
+      }
+      return max.get();
+    }
+
+    long getMax() {
+      return max.get();
+    }
+  }
+
+  private class CountingIterator implements Iterator<Entry<Key,Value>> {
+    private final Iterator<Entry<Key,Value>> source;
+    private final AtomicLong[] serverCounts;
+    private int numEntries = 0;
+    private long numBytes = 0l;
+
+    CountingIterator(Iterator<Entry<Key,Value>> source, AtomicLong[] serverCounts) {
+      this.source = source;
+      this.serverCounts = serverCounts;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (source.hasNext()) {
+        return true;
+      }
+
+      flush();
+      return false;
+    }
+
+    @Override
+    public Entry<Key,Value> next() {
+      Entry<Key,Value> entry = source.next();
+      numEntries++;
+      numBytes += entry.getKey().getSize() + entry.getValue().getSize();
+
+      if (numEntries >= BATCH_ENTRIES) {
+        flush();
+      }
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void flush() {
+      entries.addAndGet(numEntries);
+      bytes.addAndGet(numBytes);
+      serverCounts[0].addAndGet(numEntries);
+      serverCounts[1].addAndGet(numBytes);
+      numEntries = 0;
+      numBytes = 0l;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.util.Map;
+
+/**
+ * The progress of {@link GenerateHashes} over JMX. Rates are averages since hashing started.
+ */
+public interface HashMetricsMXBean {
+
+  /**
+   * @return The number of entries read back to the client and hashed. Entries hashed by iterators are counted by each
+   *         tablet server instead.
+   */
+  long getEntriesHashed();
+
+  long getBytesHashed();
+
+  double getEntriesPerSecond();
+
+  double getBytesPerSecond();
+
+  /**
+   * @return The entries hashed from each tablet server
+   */
+  Map<String,Long> getServerEntriesHashed();
+
+  /**
+   * @return The bytes per second hashed from each tablet server
+   */
+  Map<String,Double> getServerBytesPerSecond();
+
+  long getRangesCompleted();
+
+  /**
+   * @return The number of ranges waiting for a thread. A piece split off from a range for an idle thread counts as
+   *         another range.
+   */
+  int getRangesQueued();
+
+  /**
+   * @return The number of ranges, or pieces of ranges, being scanned
+   */
+  int getRangesInFlight();
+
+  long getScanLatencyMedianMillis();
+
+  long getScanLatency90thPercentileMillis();
+
+  long getScanLatency99thPercentileMillis();
+
+  long getScanLatencyMaxMillis();
+
+  /**
+   * @return The fraction of the estimated size of the table which has been hashed
+   */
+  double getFractionComplete();
+
+  /**
+   * @return The estimated time until every range is hashed, or -1 if it cannot be estimated yet
+   */
+  long getEstimatedSecondsRemaining();
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.Throttle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits how fast hashes are computed, both across all of the tablet servers and against each one, so that tables can be
+ * verified while they serve other queries. Scans read back to the client acquire permits from both limits. With
+ * iterator pushdown, {@link org.apache.accumulo.test.merkle.skvi.DigestIterator} paces itself in each tablet server,
+ * with the overall limit shared evenly between the servers.
+ * <p>
+ * The limits can be changed while hashes are being computed, over JMX once {@link #register(String)} is called. Client
+ * scans see new limits at once, and iterators at the next group of ranges sent to the tablet servers.
+ */
+public class ScanThrottle implements ScanThrottleMBean {
+  private static final Logger log = LoggerFactory.getLogger(ScanThrottle.class);
+
+  private final Throttle overall;
+  private volatile double serverEntriesPerSecond, serverBytesPerSecond;
+
+  // The limits for each tablet server, guarded by this
+  private final Map<String,Throttle> servers = new HashMap<>();
+
+  public ScanThrottle(double entriesPerSecond, double bytesPerSecond, double serverEntriesPerSecond, double serverBytesPerSecond) {
+    this.overall = new Throttle(entriesPerSecond, bytesPerSecond);
+    this.serverEntriesPerSecond = Math.max(0d, serverEntriesPerSecond);
+    this.serverBytesPerSecond = Math.max(0d, serverBytesPerSecond);
+  }
+
+  @Override
+  public double getEntriesPerSecond() {
+    return overall.getEntriesPerSecond();
+  }
+
+  @Override
+  public void setEntriesPerSecond(double entriesPerSecond) {
+    log.info("Limiting all scans to {} entries per second", entriesPerSecond);
+    overall.setEntriesPerSecond(entriesPerSecond);
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return overall.getBytesPerSecond();
+  }
+
+  @Override
+  public void setBytesPerSecond(double bytesPerSecond) {
+    log.info("Limiting all scans to {} bytes per second", bytesPerSecond);
+    overall.setBytesPerSecond(bytesPerSecond);
+  }
+
+  @Override
+  public double getServerEntriesPerSecond() {
+    return serverEntriesPerSecond;
+  }
+
+  @Override
+  public synchronized void setServerEntriesPerSecond(double serverEntriesPerSecond) {
+    log.info("Limiting the scans against each tablet server to {} entries per second", serverEntriesPerSecond);
+    this.serverEntriesPerSecond = Math.max(0d, serverEntriesPerSecond);
+    for (Throttle server : servers.values()) {
+      server.setEntriesPerSecond(serverEntriesPerSecond);
+    }
+  }
+
+  @Override
+  public double getServerBytesPerSecond() {
+    return serverBytesPerSecond;
+  }
+
+  @Override
+  public synchronized void setServerBytesPerSecond(double serverBytesPerSecond) {
+    log.info("Limiting the scans against each tablet server to {} bytes per second", serverBytesPerSecond);
+    this.serverBytesPerSecond = Math.max(0d, serverBytesPerSecond);
+    for (Throttle server : servers.values()) {
+      server.setBytesPerSecond(serverBytesPerSecond);
+    }
+  }
+
+  /**
+   * @return True if the scans against each tablet server are limited
+   */
+  public boolean isServerLimited() {
+    return serverEntriesPerSecond > 0 || serverBytesPerSecond > 0;
+  }
+
+  /**
+   * @return The limits for scans against the tablet server
+   */
+  public synchronized Throttle getServerThrottle(String server) {
+    Throttle throttle = servers.get(server);
+    if (null == throttle) {
+      throttle = new Throttle(serverEntriesPerSecond, serverBytesPerSecond);
+      servers.put(server, throttle);
+    }
+    return throttle;
+  }
+
+  /**
+   * @param server
+   *          The tablet server being scanned, or null if the entries come from many servers and only the overall limit
+   *          applies
+   * @return The entries, read no faster than the overall limit and the limit for the server
+   */
+  public Iterable<Entry<Key,Value>> throttle(String server, Iterable<Entry<Key,Value>> entries) {
+    if (null == server) {
+      return Throttle.throttle(entries, overall);
+    }
+    return Throttle.throttle(entries, overall, getServerThrottle(server));
+  }
+
+  /**
+   * @return The entries per second for the iterator in each tablet server to read, or zero if unlimited
+   */
+  public long getIteratorEntriesPerSecond(int numServers) {
+    return getIteratorRate(getEntriesPerSecond(), serverEntriesPerSecond, numServers);
+  }
+
+  /**
+   * @return The bytes per second for the iterator in each tablet server to read, or zero if unlimited
+   */
+  public long getIteratorBytesPerSecond(int numServers) {
+    return getIteratorRate(getBytesPerSecond(), serverBytesPerSecond, numServers);
+  }
+
+  private static long getIteratorRate(double overallRate, double serverRate, int numServers) {
+    // The lower of each server's share of the overall limit and the limit for a server
+    double rate = serverRate;
+    if (overallRate > 0) {
+      double share = overallRate / Math.max(1, numServers);
+      rate = rate > 0 ? Math.min(rate, share) : share;
+    }
+    return rate > 0 ? Math.max(1l, (long) rate) : 0l;
+  }
+
+  /**
+   * Registers the limits with the platform MBeanServer, so that they can be changed while hashes are computed
+   *
+   * @return The name the limits were registered with, to pass to {@link #unregister(ObjectName)}
+   */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName("org.apache.accumulo.test.merkle:type=ScanThrottle,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  public static void unregister(ObjectName objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      log.warn("Could not unregister " + objectName, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "entries/s=" + getEntriesPerSecond() + " bytes/s=" + getBytesPerSecond() + " server entries/s=" + serverEntriesPerSecond
+        + " server bytes/s=" + serverBytesPerSecond;
+  }
+}
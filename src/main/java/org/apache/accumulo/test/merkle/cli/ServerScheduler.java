@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.data.Range;
+
+/**
+ * Submits the scan of each range to a {@link BoundedExecutor}, taking a range from each tablet server in turn and never
+ * running more than a fixed number of scans against any one server. A server which hosts many consecutive ranges then
+ * does not take every scan while the other servers are idle, and a hashing job cannot overload one server.
+ */
+public class ServerScheduler {
+  // How long to wait for a scan to finish before checking whether a task failed
+  private static final long WAIT_MILLIS = 100l;
+
+  /**
+   * Creates the task which scans one range
+   */
+  public interface TaskFactory {
+    Runnable create(Range range);
+  }
+
+  private final BoundedExecutor executor;
+  private final int maxScansPerServer;
+
+  // The number of scans queued or running against each server, guarded by this
+  private final Map<String,Integer> numScans = new HashMap<>();
+  private long numFinished = 0l;
+
+  // Set before the failed scan finishes, so no more scans are submitted after it
+  private volatile boolean failed = false;
+
+  /**
+   * @param maxScansPerServer
+   *          The most scans which may be queued or running against one server at once
+   */
+  public ServerScheduler(BoundedExecutor executor, int maxScansPerServer) {
+    if (maxScansPerServer < 1) {
+      throw new IllegalArgumentException("Must allow at least one scan per server: " + maxScansPerServer);
+    }
+
+    this.executor = executor;
+    this.maxScansPerServer = maxScansPerServer;
+  }
+
+  /**
+   * Runs a task for every range and waits for them all to complete
+   *
+   * @param rangesByServer
+   *          The ranges hosted by each server, in the order they should be scanned
+   * @throws RuntimeException
+   *           if any task failed, caused by the first failure
+   */
+  public void run(Map<String,List<Range>> rangesByServer, TaskFactory tasks) {
+    Map<String,Iterator<Range>> pending = new LinkedHashMap<>();
+    for (Entry<String,List<Range>> entry : rangesByServer.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        pending.put(entry.getKey(), entry.getValue().iterator());
+      }
+    }
+
+    while (!pending.isEmpty() && !failed && !executor.hasFailed()) {
+      final long finishedBefore = getNumFinished();
+      boolean submitted = false;
+
+      // One range from every server which has room for another scan
+      Iterator<Entry<String,Iterator<Range>>> servers = pending.entrySet().iterator();
+      while (servers.hasNext() && !failed) {
+        Entry<String,Iterator<Range>> server = servers.next();
+        if (!tryStart(server.getKey())) {
+          continue;
+        }
+
+        submit(server.getKey(), tasks.create(server.getValue().next()));
+        submitted = true;
+
+        if (!server.getValue().hasNext()) {
+          servers.remove();
+        }
+      }
+
+      if (!submitted) {
+        awaitFinish(finishedBefore);
+      }
+    }
+
+    executor.await();
+  }
+
+  /**
+   * Submits a task for a range which was not given to {@link #run(Map, TaskFactory)}, such as a piece split off from a
+   * running scan, only if neither the server nor the executor is full. Safe to call from within a running task.
+   *
+   * @return True if the task was submitted
+   */
+  public boolean trySubmit(String server, Runnable task) {
+    if (failed || !tryStart(server)) {
+      return false;
+    }
+
+    boolean submitted = false;
+    try {
+      submitted = executor.trySubmit(wrap(server, task));
+    } finally {
+      if (!submitted) {
+        release(server);
+      }
+    }
+    return submitted;
+  }
+
+  /**
+   * @return The number of scans queued or running against the server
+   */
+  public synchronized int getNumScans(String server) {
+    Integer scans = numScans.get(server);
+    return null == scans ? 0 : scans;
+  }
+
+  private synchronized long getNumFinished() {
+    return numFinished;
+  }
+
+  private synchronized boolean tryStart(String server) {
+    int scans = getNumScans(server);
+    if (scans >= maxScansPerServer) {
+      return false;
+    }
+
+    numScans.put(server, scans + 1);
+    return true;
+  }
+
+  private synchronized void release(String server) {
+    numScans.put(server, getNumScans(server) - 1);
+  }
+
+  private synchronized void finish(String server) {
+    release(server);
+    numFinished++;
+    notifyAll();
+  }
+
+  /**
+   * Waits for a scan to finish, unless one already has since the given count
+   */
+  private synchronized void awaitFinish(long finishedBefore) {
+    if (numFinished != finishedBefore) {
+      return;
+    }
+
+    try {
+      // A task skipped after a failure never finishes, so don't wait forever
+      wait(WAIT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for a scan to finish", e);
+    }
+  }
+
+  private void submit(String server, Runnable task) {
+    try {
+      executor.submit(wrap(server, task));
+    } catch (RuntimeException e) {
+      finish(server);
+      throw e;
+    }
+  }
+
+  /**
+   * @return The task, which frees its place on the server when it finishes
+   */
+  private Runnable wrap(final String server, final Runnable task) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } catch (RuntimeException | Error e) {
+          failed = true;
+          throw e;
+        } finally {
+          finish(server);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.metadata.RangeLocations;
+import org.apache.accumulo.test.merkle.metadata.RangePlanner;
+import org.apache.accumulo.test.merkle.sink.LeafSink;
+import org.apache.accumulo.test.merkle.skvi.KeyValueDigester;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the combinable digest of each range with a Scanner, like {@link GenerateHashes#digestOnClient}, but does not
+ * leave one thread scanning a slow range long after the others are idle. A scan which is taking much longer than the
+ * scans which already finished, while a thread is free, gives up the rest of its range: the unscanned rows are split at
+ * a row interpolated between the last row it read and the end of its range, and the second half is queued for the idle
+ * thread. The digests of every piece are summed back into one leaf for the range, which is the same leaf however often
+ * the range was split.
+ */
+class WorkStealingDigester implements ServerScheduler.TaskFactory {
+  private static final Logger log = LoggerFactory.getLogger(WorkStealingDigester.class);
+
+  /**
+   * How many entries are read between checks for whether a scan is straggling
+   */
+  static final int CHECK_INTERVAL = 1000;
+
+  /**
+   * How many times longer than the average finished scan a scan must take before it is split
+   */
+  static final double STRAGGLER_FACTOR = 2.0;
+
+  /**
+   * The least time a scan must take before it is split, so a table of tiny ranges is not split at all
+   */
+  static final long MIN_STRAGGLER_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Connector conn;
+  private final String tableName;
+  private final LeafSink sink;
+  private final int hashLength, numThreads;
+  private final ThreadLocal<KeyValueDigester> digesters;
+  private final BoundedExecutor executor;
+
+  private RangeLocations locations = null;
+  private ScanThrottle throttle = null;
+  private ServerScheduler scheduler = null;
+  private HashMetrics metrics = null;
+
+  // The scans which finished, to tell when one is taking much longer than the others
+  private final AtomicLong numFinished = new AtomicLong(0), finishedNanos = new AtomicLong(0);
+  private final AtomicInteger numSplits = new AtomicInteger(0);
+
+  /**
+   * @param executor
+   *          Runs the scans, and the pieces split off from them when it has room
+   */
+  WorkStealingDigester(Connector conn, String tableName, LeafSink sink, final HashFunction hashFunction, int numThreads, BoundedExecutor executor) {
+    this.conn = conn;
+    this.tableName = tableName;
+    this.sink = sink;
+    this.hashLength = hashFunction.getHashLength();
+    this.numThreads = numThreads;
+    this.executor = executor;
+
+    // Each thread reuses one digester for every piece it hashes
+    this.digesters = new ThreadLocal<KeyValueDigester>() {
+      @Override
+      protected KeyValueDigester initialValue() {
+        return KeyValueDigester.create(hashFunction, true);
+      }
+    };
+  }
+
+  /**
+   * @return The task which computes the leaf for the range and gives it to the sink, to submit to the executor
+   */
+  @Override
+  public Runnable create(Range range) {
+    return createPiece(new PartialLeaf(range), range);
+  }
+
+  /**
+   * Where each piece is hosted, for the limits of each tablet server and to count the entries read from each
+   */
+  void setLocations(RangeLocations locations) {
+    this.locations = locations;
+  }
+
+  /**
+   * Limit how fast the pieces are read
+   */
+  void setThrottle(ScanThrottle throttle) {
+    this.throttle = throttle;
+  }
+
+  /**
+   * Submit the pieces split off from a scan through the scheduler which runs the ranges, so that they count against the
+   * limit of the server hosting them. Requires the locations.
+   */
+  void setScheduler(ServerScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Count the entries read from each piece, the time taken to scan each piece, and each range once all of its pieces are
+   * hashed
+   */
+  void setMetrics(HashMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return The number of times the rest of a range was split off for another thread
+   */
+  int getNumSplits() {
+    return numSplits.get();
+  }
+
+  /**
+   * @return The Key-Values in the piece of a range
+   */
+  protected Iterable<Entry<Key,Value>> scan(Range piece) {
+    Scanner s;
+    try {
+      s = conn.createScanner(tableName, Authorizations.EMPTY);
+    } catch (Exception e) {
+      log.error("Could not get scanner for " + tableName, e);
+      throw new RuntimeException(e);
+    }
+
+    s.setRange(piece);
+
+    final String server = null == locations ? null : locations.getLocation(piece);
+    Iterable<Entry<Key,Value>> entries = null == throttle ? s : throttle.throttle(server, s);
+    return null == metrics ? entries : metrics.count(server, entries);
+  }
+
+  /**
+   * @return True if a scan which has been running this long should give up the rest of its range, because there is an
+   *         idle thread to take it and the scan is well behind the others
+   */
+  protected boolean isStraggling(long elapsedNanos) {
+    if (executor.getNumOutstanding() >= numThreads) {
+      return false;
+    }
+
+    long finished = numFinished.get();
+    long threshold = MIN_STRAGGLER_NANOS;
+    if (finished > 0) {
+      threshold = Math.max(threshold, (long) (STRAGGLER_FACTOR * finishedNanos.get() / finished));
+    }
+    return elapsedNanos > threshold;
+  }
+
+  /**
+   * Queues the rows after the last row read from a piece, split at a row interpolated between it and the end of the piece
+   *
+   * @return The part of the piece which is left for the current scan, or null if the piece was not split
+   */
+  private Range splitOff(PartialLeaf leaf, Range piece, Text lastRow) {
+    Text endRow = piece.isInfiniteStopKey() ? null : piece.getEndKey().getRow();
+    List<Text> cut = RangePlanner.interpolate(lastRow, endRow, 1);
+    if (cut.isEmpty()) {
+      return null;
+    }
+
+    List<Range> parts = RangePlanner.toPieces(piece, cut);
+    if (2 != parts.size()) {
+      return null;
+    }
+
+    // Count the new piece before it can finish, so the leaf is not given to the sink early
+    leaf.addPiece();
+    Runnable task = createPiece(leaf, parts.get(1));
+    if (!(null == scheduler ? executor.trySubmit(task) : scheduler.trySubmit(locations.getLocation(parts.get(1)), task))) {
+      leaf.removePiece();
+      return null;
+    }
+
+    numSplits.incrementAndGet();
+    log.info("{} split {} of {} off for an idle thread", Thread.currentThread().getName(), parts.get(1), leaf.range);
+    return parts.get(0);
+  }
+
+  private Runnable createPiece(PartialLeaf leaf, Range piece) {
+    Runnable task = new PieceTask(leaf, piece);
+    return null == metrics ? task : metrics.trackScan(task);
+  }
+
+  /**
+   * The sum of the digests of the pieces of one range, and the number of pieces still being hashed
+   */
+  private class PartialLeaf {
+    private final Range range;
+    private final HashAccumulator sum = new HashAccumulator(hashLength);
+    private int outstanding = 1;
+
+    PartialLeaf(Range range) {
+      this.range = range;
+    }
+
+    synchronized void addPiece() {
+      outstanding++;
+    }
+
+    synchronized void removePiece() {
+      outstanding--;
+    }
+
+    void finish(byte[] hash) {
+      final byte[] leafHash;
+      synchronized (this) {
+        sum.add(hash);
+        if (--outstanding > 0) {
+          return;
+        }
+        leafHash = sum.get();
+      }
+
+      // Log some progress
+      log.info("{} computed digest for {} of {}", Thread.currentThread().getName(), range, Hex.encodeHexString(leafHash));
+
+      sink.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), leafHash));
+      if (null != metrics) {
+        metrics.rangeCompleted(range);
+      }
+    }
+  }
+
+  private class PieceTask implements Runnable {
+    private final PartialLeaf leaf;
+    private final Range piece;
+
+    PieceTask(PartialLeaf leaf, Range piece) {
+      this.leaf = leaf;
+      this.piece = piece;
+    }
+
+    @Override
+    public void run() {
+      final long start = System.nanoTime();
+      final KeyValueDigester digester = digesters.get();
+      digester.reset();
+
+      // Once the rest of the piece is split off, this scan stops at the new end of its piece
+      Range remaining = piece;
+      boolean split = false;
+      long numEntries = 0l;
+      for (Entry<Key,Value> entry : scan(piece)) {
+        final Key key = entry.getKey();
+        if (split && remaining.afterEndKey(key)) {
+          break;
+        }
+
+        digester.update(key, entry.getValue());
+
+        if (0 == ++numEntries % CHECK_INTERVAL && isStraggling(System.nanoTime() - start)) {
+          Range kept = splitOff(leaf, remaining, key.getRow());
+          if (null != kept) {
+            remaining = kept;
+            split = true;
+          }
+        }
+      }
+
+      final byte[] hash = digester.digest();
+      finishedNanos.addAndGet(System.nanoTime() - start);
+      numFinished.incrementAndGet();
+
+      leaf.finish(hash);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.hash;
+
+import java.util.Arrays;
+
+/**
+ * Sums hashes together as unsigned big-endian integers, modulo <code>2^(8 * length)</code>. Addition is commutative and
+ * associative, so the sum of the hashes of a set of entries is the same however those entries are ordered or grouped:
+ * the sum over a range is the sum of the sums over any ranges which partition it.
+ * <p>
+ * Summing hashes only detects accidental differences. Unlike a hash over the concatenated entries, it is easy to find
+ * two different sets of entries with the same sum deliberately.
+ */
+public class HashAccumulator {
+  private final byte[] sum;
+
+  public HashAccumulator(int length) {
+    this.sum = new byte[length];
+  }
+
+  public void add(byte[] hash) {
+    if (hash.length != sum.length) {
+      throw new IllegalArgumentException("Expected a hash of " + sum.length + " bytes but got " + hash.length);
+    }
+
+    add(hash, 0);
+  }
+
+  /**
+   * Adds the {@link #getLength()} bytes of a hash starting at the given offset
+   */
+  public void add(byte[] buf, int offset) {
+    int carry = 0;
+    for (int i = sum.length - 1; i >= 0; i--) {
+      carry += (sum[i] & 0xff) + (buf[offset + i] & 0xff);
+      sum[i] = (byte) carry;
+      carry >>>= 8;
+    }
+  }
+
+  /**
+   * @return A copy of the current sum
+   */
+  public byte[] get() {
+    return sum.clone();
+  }
+
+  public int getLength() {
+    return sum.length;
+  }
+
+  public void reset() {
+    Arrays.fill(sum, (byte) 0);
+  }
+
+  /**
+   * @return The sum of the given hashes, which must all be the same length
+   */
+  public static byte[] sum(byte[] first, byte[]... others) {
+    HashAccumulator accumulator = new HashAccumulator(first.length);
+    accumulator.add(first);
+    for (byte[] other : others) {
+      accumulator.add(other);
+    }
+    return accumulator.get();
+  }
+}
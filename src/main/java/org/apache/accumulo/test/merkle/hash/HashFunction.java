@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.hash;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A named hash function which creates {@link Hasher}s. Leaves and nodes of a Merkle tree can be hashed with any
+ * {@link java.security.MessageDigest} algorithm, or with a faster non-cryptographic hash such as {@link #MURMUR3_128}
+ * when we only need to detect accidental differences.
+ */
+public abstract class HashFunction {
+  public static final String MURMUR3_128 = "murmur3_128";
+
+  /**
+   * @param name
+   *          {@link #MURMUR3_128} or the name of a MessageDigest algorithm
+   */
+  public static HashFunction forName(String name) throws NoSuchAlgorithmException {
+    if (null == name) {
+      throw new NoSuchAlgorithmException("No hash function name provided");
+    }
+
+    if (MURMUR3_128.equalsIgnoreCase(name)) {
+      return new Murmur3HashFunction();
+    }
+
+    return new MessageDigestHashFunction(name);
+  }
+
+  public abstract String getName();
+
+  /**
+   * @return The number of bytes in a hash
+   */
+  public abstract int getHashLength();
+
+  public abstract Hasher newHasher();
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+}
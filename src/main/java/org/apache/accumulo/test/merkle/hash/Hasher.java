@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.hash;
+
+/**
+ * Incrementally computes a hash over a sequence of bytes. Instances are reusable once {@link #digest()} or
+ * {@link #reset()} is called, and are not thread-safe.
+ */
+public interface Hasher {
+
+  void update(byte b);
+
+  void update(byte[] bytes, int offset, int length);
+
+  /**
+   * Completes the hash and resets this Hasher
+   */
+  byte[] digest();
+
+  /**
+   * Completes the hash into the given buffer and resets this Hasher
+   *
+   * @return The number of bytes written, always {@link #getHashLength()}
+   */
+  int digest(byte[] buf, int offset);
+
+  void reset();
+
+  /**
+   * @return The number of bytes in a hash
+   */
+  int getHashLength();
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Any {@link MessageDigest} algorithm, e.g. MD5 or SHA-1
+ */
+public class MessageDigestHashFunction extends HashFunction {
+  private final String algorithm;
+  private final MessageDigest prototype;
+
+  public MessageDigestHashFunction(String algorithm) throws NoSuchAlgorithmException {
+    this.algorithm = algorithm;
+    this.prototype = MessageDigest.getInstance(algorithm);
+  }
+
+  @Override
+  public String getName() {
+    return algorithm;
+  }
+
+  @Override
+  public int getHashLength() {
+    return prototype.getDigestLength();
+  }
+
+  @Override
+  public Hasher newHasher() {
+    // Cloning avoids looking up the provider again
+    try {
+      return new MessageDigestHasher((MessageDigest) prototype.clone());
+    } catch (CloneNotSupportedException e) {
+      try {
+        return new MessageDigestHasher(MessageDigest.getInstance(algorithm));
+      } catch (NoSuchAlgorithmException nsae) {
+        // We already created one in the constructor
+        throw new IllegalStateException(nsae);
+      }
+    }
+  }
+
+  public static class MessageDigestHasher implements Hasher {
+    private final MessageDigest digest;
+
+    public MessageDigestHasher(MessageDigest digest) {
+      this.digest = digest;
+    }
+
+    @Override
+    public void update(byte b) {
+      digest.update(b);
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+      digest.update(bytes, offset, length);
+    }
+
+    @Override
+    public byte[] digest() {
+      return digest.digest();
+    }
+
+    @Override
+    public int digest(byte[] buf, int offset) {
+      try {
+        return digest.digest(buf, offset, buf.length - offset);
+      } catch (DigestException e) {
+        throw new IllegalArgumentException("Buffer is too small for a " + digest.getAlgorithm() + " digest", e);
+      }
+    }
+
+    @Override
+    public void reset() {
+      digest.reset();
+    }
+
+    @Override
+    public int getHashLength() {
+      return digest.getDigestLength();
+    }
+  }
+}
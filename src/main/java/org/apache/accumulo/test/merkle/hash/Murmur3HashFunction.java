@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.hash;
+
+/**
+ * The 128-bit, x64 variant of MurmurHash3 with a seed of zero. The output is the same as Guava's
+ * <code>Hashing.murmur3_128()</code>, but data is hashed directly from the provided arrays without allocating.
+ */
+public class Murmur3HashFunction extends HashFunction {
+  public static final int HASH_LENGTH = 16;
+
+  @Override
+  public String getName() {
+    return MURMUR3_128;
+  }
+
+  @Override
+  public int getHashLength() {
+    return HASH_LENGTH;
+  }
+
+  @Override
+  public Hasher newHasher() {
+    return new Murmur3Hasher();
+  }
+
+  public static class Murmur3Hasher implements Hasher {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    // Bytes which don't yet make up a full 16 byte block
+    private final byte[] buffer = new byte[HASH_LENGTH];
+    private int buffered;
+    private long h1, h2, length;
+
+    public Murmur3Hasher() {
+      reset();
+    }
+
+    @Override
+    public void update(byte b) {
+      buffer[buffered++] = b;
+      length++;
+
+      if (HASH_LENGTH == buffered) {
+        processBlock(buffer, 0);
+        buffered = 0;
+      }
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int len) {
+      length += len;
+
+      // Finish a partial block first
+      if (buffered > 0) {
+        int toCopy = Math.min(HASH_LENGTH - buffered, len);
+        System.arraycopy(bytes, offset, buffer, buffered, toCopy);
+        buffered += toCopy;
+        offset += toCopy;
+        len -= toCopy;
+
+        if (HASH_LENGTH != buffered) {
+          return;
+        }
+
+        processBlock(buffer, 0);
+        buffered = 0;
+      }
+
+      while (len >= HASH_LENGTH) {
+        processBlock(bytes, offset);
+        offset += HASH_LENGTH;
+        len -= HASH_LENGTH;
+      }
+
+      if (len > 0) {
+        System.arraycopy(bytes, offset, buffer, 0, len);
+        buffered = len;
+      }
+    }
+
+    @Override
+    public byte[] digest() {
+      byte[] hash = new byte[HASH_LENGTH];
+      digest(hash, 0);
+      return hash;
+    }
+
+    @Override
+    public int digest(byte[] buf, int offset) {
+      if (buf.length - offset < HASH_LENGTH) {
+        throw new IllegalArgumentException("Buffer is too small for a " + MURMUR3_128 + " hash");
+      }
+
+      processTail();
+
+      h1 ^= length;
+      h2 ^= length;
+
+      h1 += h2;
+      h2 += h1;
+
+      h1 = fmix64(h1);
+      h2 = fmix64(h2);
+
+      h1 += h2;
+      h2 += h1;
+
+      putLongLittleEndian(h1, buf, offset);
+      putLongLittleEndian(h2, buf, offset + 8);
+
+      reset();
+
+      return HASH_LENGTH;
+    }
+
+    @Override
+    public void reset() {
+      h1 = 0l;
+      h2 = 0l;
+      length = 0l;
+      buffered = 0;
+    }
+
+    @Override
+    public int getHashLength() {
+      return HASH_LENGTH;
+    }
+
+    private void processBlock(byte[] bytes, int offset) {
+      long k1 = getLongLittleEndian(bytes, offset);
+      long k2 = getLongLittleEndian(bytes, offset + 8);
+
+      h1 ^= mixK1(k1);
+
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private void processTail() {
+      long k1 = 0l, k2 = 0l;
+
+      switch (buffered) {
+        case 15:
+          k2 ^= (long) (buffer[14] & 0xff) << 48;
+        case 14:
+          k2 ^= (long) (buffer[13] & 0xff) << 40;
+        case 13:
+          k2 ^= (long) (buffer[12] & 0xff) << 32;
+        case 12:
+          k2 ^= (long) (buffer[11] & 0xff) << 24;
+        case 11:
+          k2 ^= (long) (buffer[10] & 0xff) << 16;
+        case 10:
+          k2 ^= (long) (buffer[9] & 0xff) << 8;
+        case 9:
+          k2 ^= (long) (buffer[8] & 0xff);
+        case 8:
+          k1 ^= getLongLittleEndian(buffer, 0);
+          break;
+        case 7:
+          k1 ^= (long) (buffer[6] & 0xff) << 48;
+        case 6:
+          k1 ^= (long) (buffer[5] & 0xff) << 40;
+        case 5:
+          k1 ^= (long) (buffer[4] & 0xff) << 32;
+        case 4:
+          k1 ^= (long) (buffer[3] & 0xff) << 24;
+        case 3:
+          k1 ^= (long) (buffer[2] & 0xff) << 16;
+        case 2:
+          k1 ^= (long) (buffer[1] & 0xff) << 8;
+        case 1:
+          k1 ^= (long) (buffer[0] & 0xff);
+          break;
+        default:
+          // Nothing left over
+      }
+
+      h1 ^= mixK1(k1);
+      h2 ^= mixK2(k2);
+    }
+
+    private static long mixK1(long k1) {
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      return k1;
+    }
+
+    private static long mixK2(long k2) {
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      return k2;
+    }
+
+    private static long fmix64(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+    }
+
+    private static long getLongLittleEndian(byte[] bytes, int offset) {
+      return (bytes[offset] & 0xffl) | (bytes[offset + 1] & 0xffl) << 8 | (bytes[offset + 2] & 0xffl) << 16 | (bytes[offset + 3] & 0xffl) << 24
+          | (bytes[offset + 4] & 0xffl) << 32 | (bytes[offset + 5] & 0xffl) << 40 | (bytes[offset + 6] & 0xffl) << 48 | (bytes[offset + 7] & 0xffl) << 56;
+    }
+
+    private static void putLongLittleEndian(long value, byte[] bytes, int offset) {
+      for (int i = 0; i < 8; i++) {
+        bytes[offset + i] = (byte) (value >>> (8 * i));
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.metadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.test.merkle.RangeSerialization;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Records the files of the tablet each leaf was computed from, next to the leaf in the table of hashes. A tablet whose
+ * files are the same as when its leaf was computed, and which has nothing in memory, still has the same data, so its
+ * leaf can be reused instead of scanning the tablet again.
+ * <p>
+ * The record is stored in the {@link #FILES_COLFAM} column family with the same row and column qualifier as the leaf.
+ * Its value is the hash name, whether the hash was combinable and the sorted file names, so a leaf computed with
+ * different options is never reused.
+ */
+public class DigestCache {
+  public static final Text FILES_COLFAM = new Text("files");
+  private static final Text EMPTY = new Text(new byte[0]);
+
+  private final Map<Key,Value> fileSets;
+  private final Set<Key> leaves;
+
+  protected DigestCache(Map<Key,Value> fileSets, Set<Key> leaves) {
+    this.fileSets = fileSets;
+    this.leaves = leaves;
+  }
+
+  /**
+   * Reads the leaves and file records from a table of hashes
+   */
+  public static DigestCache read(Connector conn, String tableName) throws TableNotFoundException {
+    Scanner s = conn.createScanner(tableName, Authorizations.EMPTY);
+    s.fetchColumnFamily(EMPTY);
+    s.fetchColumnFamily(FILES_COLFAM);
+
+    Map<Key,Value> fileSets = new HashMap<>();
+    Set<Key> leaves = new HashSet<>();
+    Text holder = new Text();
+    for (Entry<Key,Value> entry : s) {
+      Key key = entry.getKey();
+      Key leafKey = new Key(key.getRow(), EMPTY, key.getColumnQualifier());
+      if (FILES_COLFAM.equals(key.getColumnFamily(holder))) {
+        fileSets.put(leafKey, entry.getValue());
+      } else {
+        leaves.add(leafKey);
+      }
+    }
+
+    return new DigestCache(fileSets, leaves);
+  }
+
+  public static Value toValue(String hashName, boolean combinable, TabletMetadata tablet) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    try {
+      out.writeUTF(hashName);
+      out.writeBoolean(combinable);
+      WritableUtils.writeVInt(out, tablet.getFiles().size());
+      for (String file : tablet.getFiles().keySet()) {
+        out.writeUTF(file);
+      }
+    } catch (IOException e) {
+      // Not expected from a ByteArrayOutputStream
+      throw new RuntimeException(e);
+    }
+
+    return new Value(baos.toByteArray());
+  }
+
+  /**
+   * Adds the record of the files a leaf was computed from to the Mutation which writes the leaf
+   */
+  public static void put(Mutation m, Range range, Value fileSet) {
+    m.put(FILES_COLFAM, RangeSerialization.getColumnQualifier(range), fileSet);
+  }
+
+  /**
+   * @return True if a leaf exists for the range and was computed from the same files
+   */
+  public boolean isCached(Range range, Value fileSet) {
+    Key key = RangeSerialization.toKey(range);
+    return leaves.contains(key) && fileSet.equals(fileSets.get(key));
+  }
+
+  /**
+   * @return Mutations which remove every leaf and file record which is not for one of the given ranges, such as those
+   *         left behind by tablets which have since been split or merged
+   */
+  public List<Mutation> getStaleMutations(Collection<Range> ranges) {
+    Set<Key> current = new HashSet<>();
+    for (Range range : ranges) {
+      current.add(RangeSerialization.toKey(range));
+    }
+
+    Set<Key> stale = new HashSet<>(leaves);
+    stale.addAll(fileSets.keySet());
+    stale.removeAll(current);
+
+    List<Mutation> mutations = new ArrayList<>(stale.size());
+    for (Key key : stale) {
+      Mutation m = new Mutation(key.getRow());
+      m.putDelete(EMPTY, key.getColumnQualifier());
+      m.putDelete(FILES_COLFAM, key.getColumnQualifier());
+      mutations.add(m);
+    }
+
+    return mutations;
+  }
+}
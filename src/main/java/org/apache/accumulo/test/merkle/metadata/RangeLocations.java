@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Range;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the tablet server which hosts each range, as recorded in the metadata table, so that scans can be spread across
+ * the servers instead of running against whichever server hosts the next few ranges in order. A range is assigned to the
+ * server hosting the tablet it starts in. Locations are only a hint: a tablet may move while it is being hashed.
+ */
+public class RangeLocations {
+  private static final Logger log = LoggerFactory.getLogger(RangeLocations.class);
+
+  /**
+   * The location of ranges whose tablet is not hosted
+   */
+  public static final String UNHOSTED = "";
+
+  private final List<TabletMetadata> tablets;
+
+  /**
+   * @param tablets
+   *          Every tablet in the table, in order
+   */
+  public RangeLocations(List<TabletMetadata> tablets) {
+    this.tablets = tablets;
+  }
+
+  public static RangeLocations create(Connector conn, String tableName) throws TableNotFoundException {
+    return new RangeLocations(new TabletMetadataReader().getTablets(conn, tableName));
+  }
+
+  /**
+   * @return The host and port of the tablet server hosting the tablet the range starts in, or {@link #UNHOSTED}
+   */
+  public String getLocation(Range range) {
+    if (tablets.isEmpty()) {
+      return UNHOSTED;
+    }
+
+    // The first tablet which does not end before the start of the range
+    int low = 0, high = tablets.size() - 1;
+    if (!range.isInfiniteStartKey()) {
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (tablets.get(mid).getRange().afterEndKey(range.getStartKey())) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+    }
+
+    String location = tablets.get(low).getLocation();
+    return null == location ? UNHOSTED : location;
+  }
+
+  /**
+   * @return The ranges hosted by each server, keeping the order of the ranges for each server
+   */
+  public Map<String,List<Range>> groupByServer(Collection<Range> ranges) {
+    Map<String,List<Range>> rangesByServer = new LinkedHashMap<>();
+    for (Range range : ranges) {
+      String location = getLocation(range);
+      List<Range> serverRanges = rangesByServer.get(location);
+      if (null == serverRanges) {
+        serverRanges = new ArrayList<>();
+        rangesByServer.put(location, serverRanges);
+      }
+      serverRanges.add(range);
+    }
+
+    log.debug("{} ranges are hosted by {} servers", ranges.size(), rangesByServer.size());
+    return rangesByServer;
+  }
+}
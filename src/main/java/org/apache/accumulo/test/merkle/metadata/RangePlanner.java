@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.metadata;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.test.merkle.RangeIndex;
+import org.apache.hadoop.io.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plans the work of hashing a table so that a few large tablets do not leave one thread working long after the others
+ * are idle. The size of each range is estimated from the files of the tablets it overlaps, as recorded in the metadata
+ * table, with a tablet's size shared evenly between the ranges which overlap it.
+ * <p>
+ * A range can be divided into pieces which are hashed separately, at the tablet boundaries within it and at rows
+ * interpolated between the first and last rows of a large tablet. The pieces only make the work even, they do not change
+ * the leaves: they must be summed back into one leaf for the range, which is only possible with combinable hashes.
+ */
+public class RangePlanner {
+  private static final Logger log = LoggerFactory.getLogger(RangePlanner.class);
+
+  /**
+   * The most pieces any one tablet is divided into
+   */
+  public static final int MAX_PIECES_PER_TABLET = 64;
+
+  // Enough bytes of a row to interpolate between two rows
+  private static final int INTERPOLATED_BYTES = 8;
+
+  private final Connector conn;
+  private final String tableName;
+  private final List<TabletMetadata> tablets;
+  private final boolean useEntries;
+  private final long targetSize;
+
+  /**
+   * @param tablets
+   *          Every tablet in the table, in order
+   * @param targetSize
+   *          The estimated size of each piece, or zero to divide the table into four pieces for each thread
+   */
+  public RangePlanner(Connector conn, String tableName, List<TabletMetadata> tablets, int numThreads, long targetSize) {
+    this.conn = conn;
+    this.tableName = tableName;
+    this.tablets = tablets;
+
+    // Data which is only in memory has no files, fall back to the number of entries if nothing has a size
+    long totalSize = 0l;
+    for (TabletMetadata tablet : tablets) {
+      totalSize += tablet.getSize();
+    }
+    this.useEntries = 0l == totalSize;
+
+    this.targetSize = targetSize > 0 ? targetSize : Math.max(1l, getTotalSize() / (4l * Math.max(1, numThreads)));
+  }
+
+  public static RangePlanner create(Connector conn, String tableName, int numThreads, long targetSize) throws TableNotFoundException {
+    return new RangePlanner(conn, tableName, new TabletMetadataReader().getTablets(conn, tableName), numThreads, targetSize);
+  }
+
+  public long getTargetSize() {
+    return targetSize;
+  }
+
+  /**
+   * @return The ranges, ordered from the largest to the smallest estimated size
+   */
+  public List<Range> largestFirst(Collection<Range> ranges) {
+    final Map<Range,Long> sizes = estimateSizes(ranges);
+    List<Range> sorted = new ArrayList<>(new RangeIndex(ranges).getRanges());
+
+    // Stable, so ranges of the same size stay in order
+    Collections.sort(sorted, new Comparator<Range>() {
+      @Override
+      public int compare(Range r1, Range r2) {
+        return Long.compare(sizes.get(r2), sizes.get(r1));
+      }
+    });
+
+    return sorted;
+  }
+
+  /**
+   * @return Each range, in order, mapped to the contiguous pieces which cover it. Ranges which are not larger than the
+   *         target size are their only piece.
+   */
+  public Map<Range,List<Range>> subdivide(Collection<Range> ranges) {
+    final List<Range> sorted = new RangeIndex(ranges).getRanges();
+    final Map<Range,Long> sizes = estimateSizes(sorted);
+    final Map<Range,List<Range>> pieces = new LinkedHashMap<>();
+
+    int numDivided = 0, numPieces = 0;
+    for (Range range : sorted) {
+      List<Range> rangePieces = Collections.singletonList(range);
+      if (sizes.get(range) > targetSize) {
+        rangePieces = toPieces(range, getCuts(range));
+        if (rangePieces.size() > 1) {
+          numDivided++;
+        }
+      }
+
+      numPieces += rangePieces.size();
+      pieces.put(range, rangePieces);
+    }
+
+    log.info("Divided {} of {} ranges into {} pieces of about {} {}", numDivided, sorted.size(), numPieces, targetSize, useEntries ? "entries"
+        : "bytes");
+
+    return pieces;
+  }
+
+  /**
+   * @return The estimated size of each range
+   */
+  public Map<Range,Long> estimateSizes(Collection<Range> ranges) {
+    final List<Range> sorted = new RangeIndex(ranges).getRanges();
+
+    final Map<Range,List<Integer>> overlapping = getOverlappingTablets(sorted);
+
+    // How many ranges share each tablet
+    final int[] numRanges = new int[tablets.size()];
+    for (List<Integer> indexes : overlapping.values()) {
+      for (int tablet : indexes) {
+        numRanges[tablet]++;
+      }
+    }
+
+    final Map<Range,Long> sizes = new HashMap<>();
+    for (Entry<Range,List<Integer>> entry : overlapping.entrySet()) {
+      long size = 0l;
+      for (int tablet : entry.getValue()) {
+        size += getSize(tablets.get(tablet)) / numRanges[tablet];
+      }
+      sizes.put(entry.getKey(), size);
+    }
+
+    return sizes;
+  }
+
+  /**
+   * @return The rows at which to divide the range, in order
+   */
+  protected List<Text> getCuts(Range range) {
+    final List<Integer> overlapping = getOverlappingTablets(Collections.singletonList(range)).get(range);
+    final List<Text> cuts = new ArrayList<>();
+
+    for (int i = 0; i < overlapping.size(); i++) {
+      TabletMetadata tablet = tablets.get(overlapping.get(i));
+
+      // Only the share of the tablet within this range has to be divided, but we can't tell how much that is
+      long numPieces = Math.min(MAX_PIECES_PER_TABLET, (getSize(tablet) + targetSize - 1) / targetSize);
+      if (numPieces > 1) {
+        Text low = null == tablet.getPrevEndRow() ? getFirstRow(range) : tablet.getPrevEndRow();
+        if (!range.isInfiniteStartKey() && (null == low || low.compareTo(range.getStartKey().getRow()) < 0)) {
+          low = range.getStartKey().getRow();
+        }
+
+        Text high = tablet.getEndRow();
+        if (!range.isInfiniteStopKey() && (null == high || high.compareTo(range.getEndKey().getRow()) > 0)) {
+          high = range.getEndKey().getRow();
+        }
+
+        if (null != low) {
+          cuts.addAll(interpolate(low, high, (int) numPieces - 1));
+        }
+      }
+
+      // Divide at the end of every tablet before the last
+      if (i < overlapping.size() - 1) {
+        cuts.add(tablet.getEndRow());
+      }
+    }
+
+    return cuts;
+  }
+
+  /**
+   * @return The first row in the range, or null if the range is empty
+   */
+  protected Text getFirstRow(Range range) {
+    Scanner s;
+    try {
+      s = conn.createScanner(tableName, Authorizations.EMPTY);
+    } catch (TableNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+
+    s.setRange(range);
+    s.setBatchSize(1);
+    for (Entry<Key,Value> entry : s) {
+      return entry.getKey().getRow();
+    }
+    return null;
+  }
+
+  /**
+   * @return Rows evenly spaced between the two rows, treating the bytes after their common prefix as a number
+   * @param high
+   *          The last row, or null if there is no last row
+   */
+  public static List<Text> interpolate(Text low, Text high, int numRows) {
+    final byte[] lowBytes = low.copyBytes();
+    final byte[] highBytes;
+    if (null == high) {
+      highBytes = new byte[lowBytes.length + INTERPOLATED_BYTES];
+      Arrays.fill(highBytes, (byte) 0xff);
+    } else {
+      highBytes = high.copyBytes();
+    }
+
+    int prefix = 0;
+    while (prefix < lowBytes.length && prefix < highBytes.length && lowBytes[prefix] == highBytes[prefix]) {
+      prefix++;
+    }
+
+    final BigInteger first = toNumber(lowBytes, prefix), last = toNumber(highBytes, prefix);
+    final List<Text> rows = new ArrayList<>(numRows);
+    Text previous = low;
+    for (int i = 1; i <= numRows; i++) {
+      BigInteger value = first.add(last.subtract(first).multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(numRows + 1)));
+      Text row = toRow(lowBytes, prefix, value);
+
+      // Rows close together can round to the same row
+      if (row.compareTo(previous) > 0 && (null == high || row.compareTo(high) < 0)) {
+        rows.add(row);
+        previous = row;
+      }
+    }
+
+    return rows;
+  }
+
+  /**
+   * @return The pieces of the range between each of the rows, which must be in order
+   */
+  public static List<Range> toPieces(Range range, List<Text> cuts) {
+    List<Range> pieces = new ArrayList<>(cuts.size() + 1);
+    Key start = range.getStartKey();
+    boolean startInclusive = range.isStartKeyInclusive();
+
+    for (Text cut : cuts) {
+      // Each piece ends after a row, the same as a tablet, and must leave something for the next piece
+      Key end = new Key(cut).followingKey(PartialKey.ROW);
+      if ((null != start && end.compareTo(start) <= 0) || !range.contains(new Key(cut))
+          || (!range.isInfiniteStopKey() && end.compareTo(range.getEndKey()) >= 0)) {
+        continue;
+      }
+
+      pieces.add(new Range(start, startInclusive, end, false));
+      start = end;
+      startInclusive = true;
+    }
+
+    pieces.add(new Range(start, startInclusive, range.getEndKey(), range.isEndKeyInclusive()));
+    return pieces;
+  }
+
+  private long getSize(TabletMetadata tablet) {
+    return useEntries ? tablet.getNumEntries() : tablet.getSize();
+  }
+
+  private long getTotalSize() {
+    long total = 0l;
+    for (TabletMetadata tablet : tablets) {
+      total += getSize(tablet);
+    }
+    return total;
+  }
+
+  /**
+   * @return The index of every tablet which overlaps each of the sorted ranges
+   */
+  private Map<Range,List<Integer>> getOverlappingTablets(List<Range> sorted) {
+    final Map<Range,List<Integer>> overlapping = new LinkedHashMap<>();
+    int first = 0;
+    for (Range range : sorted) {
+      // Ranges are in order, so any tablet before this range is before all of the remaining ranges
+      while (first < tablets.size() && null == range.clip(tablets.get(first).getRange(), true) && isBefore(tablets.get(first), range)) {
+        first++;
+      }
+
+      List<Integer> indexes = new ArrayList<>();
+      for (int i = first; i < tablets.size() && !isAfter(tablets.get(i), range); i++) {
+        if (null != range.clip(tablets.get(i).getRange(), true)) {
+          indexes.add(i);
+        }
+      }
+      overlapping.put(range, indexes);
+    }
+    return overlapping;
+  }
+
+  private static boolean isBefore(TabletMetadata tablet, Range range) {
+    return !range.isInfiniteStartKey() && tablet.getRange().afterEndKey(range.getStartKey());
+  }
+
+  private static boolean isAfter(TabletMetadata tablet, Range range) {
+    Range tabletRange = tablet.getRange();
+    return !tabletRange.isInfiniteStartKey() && range.afterEndKey(tabletRange.getStartKey());
+  }
+
+  private static BigInteger toNumber(byte[] row, int offset) {
+    byte[] bytes = new byte[INTERPOLATED_BYTES];
+    System.arraycopy(row, offset, bytes, 0, Math.max(0, Math.min(INTERPOLATED_BYTES, row.length - offset)));
+    return new BigInteger(1, bytes);
+  }
+
+  private static Text toRow(byte[] prefix, int prefixLength, BigInteger value) {
+    byte[] number = value.toByteArray();
+
+    // Strip the sign byte, or pad to the full width
+    byte[] suffix = new byte[INTERPOLATED_BYTES];
+    int length = Math.min(number.length, INTERPOLATED_BYTES);
+    System.arraycopy(number, number.length - length, suffix, INTERPOLATED_BYTES - length, length);
+
+    // Trailing zero bytes would only make the row longer
+    int suffixLength = INTERPOLATED_BYTES;
+    while (suffixLength > 1 && 0 == suffix[suffixLength - 1]) {
+      suffixLength--;
+    }
+
+    Text row = new Text();
+    row.append(prefix, 0, prefixLength);
+    row.append(suffix, 0, suffixLength);
+    return row;
+  }
+}
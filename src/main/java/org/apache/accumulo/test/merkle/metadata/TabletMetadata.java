@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.metadata;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+
+/**
+ * What the metadata table records about a single tablet: its extent, the files which hold its data, where it is hosted,
+ * and the last flush and compaction it completed.
+ */
+public class TabletMetadata {
+  private final Text endRow, prevEndRow;
+  private final SortedMap<String,Long> files = new TreeMap<>();
+  private long numEntries = 0l;
+  private String location = null;
+  private Long flushId = null, compactId = null;
+
+  public TabletMetadata(Text endRow, Text prevEndRow) {
+    this.endRow = endRow;
+    this.prevEndRow = prevEndRow;
+  }
+
+  /**
+   * @return The end row of the tablet, or null for the last tablet in the table
+   */
+  public Text getEndRow() {
+    return endRow;
+  }
+
+  /**
+   * @return The end row of the preceding tablet, or null for the first tablet in the table
+   */
+  public Text getPrevEndRow() {
+    return prevEndRow;
+  }
+
+  /**
+   * @return The range of rows in this tablet, the same as {@link org.apache.accumulo.test.merkle.cli.GenerateHashes}
+   *         creates from the table's split points
+   */
+  public Range getRange() {
+    return new Range(prevEndRow, false, endRow, true);
+  }
+
+  /**
+   * @return The files for this tablet, mapped to their size in bytes
+   */
+  public SortedMap<String,Long> getFiles() {
+    return Collections.unmodifiableSortedMap(files);
+  }
+
+  void addFile(String file, long size, long numEntries) {
+    files.put(file, size);
+    this.numEntries += numEntries;
+  }
+
+  /**
+   * @return The sum of the sizes of this tablet's files
+   */
+  public long getSize() {
+    long size = 0l;
+    for (Long fileSize : files.values()) {
+      size += fileSize;
+    }
+    return size;
+  }
+
+  /**
+   * @return The sum of the estimated number of entries in this tablet's files
+   */
+  public long getNumEntries() {
+    return numEntries;
+  }
+
+  /**
+   * @return The host and port of the tablet server hosting this tablet, or null if it is not hosted
+   */
+  public String getLocation() {
+    return location;
+  }
+
+  void setLocation(String location) {
+    this.location = location;
+  }
+
+  /**
+   * @return The id of the last flush this tablet completed, or null if it never has
+   */
+  public Long getFlushId() {
+    return flushId;
+  }
+
+  void setFlushId(Long flushId) {
+    this.flushId = flushId;
+  }
+
+  /**
+   * @return The id of the last user compaction this tablet completed, or null if it never has
+   */
+  public Long getCompactId() {
+    return compactId;
+  }
+
+  void setCompactId(Long compactId) {
+    this.compactId = compactId;
+  }
+
+  @Override
+  public String toString() {
+    return getRange() + " files=" + files.keySet() + " location=" + location + " flushId=" + flushId + " compactId=" + compactId;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.KeyExtent;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.metadata.MetadataTable;
+import org.apache.accumulo.core.metadata.schema.DataFileValue;
+import org.apache.accumulo.core.metadata.schema.MetadataSchema.TabletsSection;
+import org.apache.accumulo.core.metadata.schema.MetadataSchema.TabletsSection.CurrentLocationColumnFamily;
+import org.apache.accumulo.core.metadata.schema.MetadataSchema.TabletsSection.DataFileColumnFamily;
+import org.apache.accumulo.core.metadata.schema.MetadataSchema.TabletsSection.ServerColumnFamily;
+import org.apache.accumulo.core.metadata.schema.MetadataSchema.TabletsSection.TabletColumnFamily;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Reads the {@link TabletMetadata} for every tablet in a table from the metadata table.
+ */
+public class TabletMetadataReader {
+
+  /**
+   * @return Every tablet in the table, in order
+   * @throws IllegalStateException
+   *           If the tablets read do not cover the table, such as when a tablet was split while reading
+   */
+  public List<TabletMetadata> getTablets(Connector conn, String tableName) throws TableNotFoundException {
+    String tableId = conn.tableOperations().tableIdMap().get(tableName);
+    if (null == tableId) {
+      throw new TableNotFoundException(null, tableName, "Could not find id for table");
+    }
+
+    Scanner s = conn.createScanner(MetadataTable.NAME, Authorizations.EMPTY);
+    s.setRange(TabletsSection.getRange(tableId));
+    s.enableIsolation();
+
+    TabletColumnFamily.PREV_ROW_COLUMN.fetch(s);
+    ServerColumnFamily.FLUSH_COLUMN.fetch(s);
+    ServerColumnFamily.COMPACT_COLUMN.fetch(s);
+    s.fetchColumnFamily(DataFileColumnFamily.NAME);
+    s.fetchColumnFamily(CurrentLocationColumnFamily.NAME);
+
+    List<TabletMetadata> tablets = new ArrayList<>();
+    List<Entry<Key,Value>> row = new ArrayList<>();
+    Text currentRow = null;
+    for (Entry<Key,Value> entry : s) {
+      Text entryRow = entry.getKey().getRow();
+      if (null != currentRow && !currentRow.equals(entryRow)) {
+        tablets.add(toTablet(currentRow, row));
+        row.clear();
+      }
+
+      currentRow = entryRow;
+      row.add(entry);
+    }
+
+    if (null != currentRow) {
+      tablets.add(toTablet(currentRow, row));
+    }
+
+    checkTablets(tableName, tablets);
+
+    return tablets;
+  }
+
+  protected TabletMetadata toTablet(Text metadataRow, List<Entry<Key,Value>> entries) {
+    TabletMetadata tablet = null;
+    for (Entry<Key,Value> entry : entries) {
+      if (TabletColumnFamily.PREV_ROW_COLUMN.hasColumns(entry.getKey())) {
+        KeyExtent extent = new KeyExtent(metadataRow, entry.getValue());
+        tablet = new TabletMetadata(extent.getEndRow(), extent.getPrevEndRow());
+      }
+    }
+
+    if (null == tablet) {
+      throw new IllegalStateException("No previous end row for tablet " + metadataRow);
+    }
+
+    for (Entry<Key,Value> entry : entries) {
+      Key key = entry.getKey();
+      Text colf = key.getColumnFamily();
+
+      if (DataFileColumnFamily.NAME.equals(colf)) {
+        DataFileValue dfv = new DataFileValue(entry.getValue().get());
+        tablet.addFile(key.getColumnQualifier().toString(), dfv.getSize(), dfv.getNumEntries());
+      } else if (CurrentLocationColumnFamily.NAME.equals(colf)) {
+        tablet.setLocation(entry.getValue().toString());
+      } else if (ServerColumnFamily.FLUSH_COLUMN.hasColumns(key)) {
+        tablet.setFlushId(Long.parseLong(entry.getValue().toString()));
+      } else if (ServerColumnFamily.COMPACT_COLUMN.hasColumns(key)) {
+        tablet.setCompactId(Long.parseLong(entry.getValue().toString()));
+      }
+    }
+
+    return tablet;
+  }
+
+  private void checkTablets(String tableName, List<TabletMetadata> tablets) {
+    Text prevEndRow = null;
+    for (TabletMetadata tablet : tablets) {
+      if (!equals(prevEndRow, tablet.getPrevEndRow())) {
+        throw new IllegalStateException("Tablets for " + tableName + " are not contiguous at " + tablet.getRange() + ", were they changing?");
+      }
+      prevEndRow = tablet.getEndRow();
+    }
+
+    if (tablets.isEmpty() || null != prevEndRow) {
+      throw new IllegalStateException("Did not find the last tablet for " + tableName);
+    }
+  }
+
+  private static boolean equals(Text left, Text right) {
+    return null == left ? null == right : left.equals(right);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+
+/**
+ * Sums the hashes computed for the pieces of a range back into a single leaf for the whole range, which is given to
+ * another sink once every piece has arrived. A range can then be hashed in several pieces at once without changing the
+ * leaves. This is only correct for combinable hashes, whose sum is the same however the data is divided.
+ */
+public class CombiningLeafSink implements LeafSink {
+  private final LeafSink sink;
+  private final int hashLength;
+
+  // The range each piece belongs to, and the sum and number of pieces still missing for each range
+  private final Map<Range,Range> rangesByPiece = new HashMap<>();
+  private final Map<Range,HashAccumulator> sums = new HashMap<>();
+  private final Map<Range,Integer> numMissing = new HashMap<>();
+
+  /**
+   * @param pieces
+   *          Each range mapped to the pieces which cover it
+   */
+  public CombiningLeafSink(LeafSink sink, int hashLength, Map<Range,List<Range>> pieces) {
+    this.sink = sink;
+    this.hashLength = hashLength;
+
+    for (Entry<Range,List<Range>> entry : pieces.entrySet()) {
+      for (Range piece : entry.getValue()) {
+        if (null != rangesByPiece.put(piece, entry.getKey())) {
+          throw new IllegalArgumentException("Piece " + piece + " belongs to more than one range");
+        }
+      }
+      numMissing.put(entry.getKey(), entry.getValue().size());
+    }
+  }
+
+  @Override
+  public void add(MerkleTreeNode leaf) {
+    final Range range = rangesByPiece.get(leaf.getRange());
+    if (null == range) {
+      throw new IllegalArgumentException("Received " + leaf + " which is not a piece of any range");
+    }
+
+    final byte[] hash;
+    synchronized (this) {
+      HashAccumulator sum = sums.get(range);
+      if (null == sum) {
+        sum = new HashAccumulator(hashLength);
+        sums.put(range, sum);
+      }
+      sum.add(leaf.getHash());
+
+      int missing = numMissing.get(range) - 1;
+      if (missing > 0) {
+        numMissing.put(range, missing);
+        return;
+      } else if (missing < 0) {
+        throw new IllegalArgumentException("Received " + leaf + " after every piece of " + range);
+      }
+
+      numMissing.put(range, 0);
+      sums.remove(range);
+      hash = sum.get();
+    }
+
+    sink.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), hash));
+  }
+
+  /**
+   * Does not close the sink the ranges are given to
+   */
+  @Override
+  public void close() {}
+
+  /**
+   * @return The number of ranges which are still missing a piece
+   */
+  public synchronized int getNumIncomplete() {
+    int incomplete = 0;
+    for (int missing : numMissing.values()) {
+      if (missing > 0) {
+        incomplete++;
+      }
+    }
+    return incomplete;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.RangeSerialization;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Writes each leaf to a local file as one line of the start row, end row and hash, each hex encoded and separated by a
+ * tab. An empty row is an infinite bound, as in {@link RangeSerialization}. Lines are written in the order the leaves
+ * are computed, {@link #read(File)} sorts them again.
+ */
+public class FileLeafSink implements LeafSink {
+  private static final String SEPARATOR = "\t";
+
+  private final Writer writer;
+
+  public FileLeafSink(File file) throws IOException {
+    this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public synchronized void add(MerkleTreeNode leaf) {
+    try {
+      writer.write(Hex.encodeHex(RangeSerialization.getRow(leaf.getRange()).copyBytes()));
+      writer.write(SEPARATOR);
+      writer.write(Hex.encodeHex(RangeSerialization.getColumnQualifier(leaf.getRange()).copyBytes()));
+      writer.write(SEPARATOR);
+      writer.write(Hex.encodeHex(leaf.getHash()));
+      writer.write('\n');
+    } catch (IOException e) {
+      throw new RuntimeException("Could not write leaf for " + leaf.getRange(), e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      writer.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Could not write leaves", e);
+    }
+  }
+
+  /**
+   * @return The leaves in a file written by a FileLeafSink, sorted by range
+   */
+  public static List<MerkleTreeNode> read(File file) throws IOException {
+    List<MerkleTreeNode> leaves = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while (null != (line = reader.readLine())) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (3 != fields.length) {
+          throw new IOException("Expected start row, end row and hash but found: " + line);
+        }
+
+        try {
+          Key key = new Key(new Text(Hex.decodeHex(fields[0].toCharArray())), new Text(), new Text(Hex.decodeHex(fields[1].toCharArray())));
+          leaves.add(new MerkleTreeNode(key, new Value(Hex.decodeHex(fields[2].toCharArray()))));
+        } catch (DecoderException e) {
+          throw new IOException("Could not decode leaf: " + line, e);
+        }
+      }
+    }
+
+    Collections.sort(leaves, new Comparator<MerkleTreeNode>() {
+      @Override
+      public int compare(MerkleTreeNode o1, MerkleTreeNode o2) {
+        return o1.getRange().compareTo(o2.getRange());
+      }
+    });
+
+    return leaves;
+  }
+}
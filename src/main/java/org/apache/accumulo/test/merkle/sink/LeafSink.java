@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+
+/**
+ * Receives the leaves of a Merkle tree as {@link org.apache.accumulo.test.merkle.cli.GenerateHashes} computes them.
+ * Leaves are added concurrently from many threads and in no particular order.
+ */
+public interface LeafSink {
+
+  /**
+   * Accepts the next computed leaf. Must be safe to call from multiple threads at once.
+   */
+  void add(MerkleTreeNode leaf);
+
+  /**
+   * Called once every leaf has been added, or after a failure
+   */
+  void close();
+}
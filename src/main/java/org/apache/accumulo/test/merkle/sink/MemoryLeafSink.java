@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.accumulo.test.merkle.FlatMerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeBuilder;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.RangeSerialization;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Builds the Merkle tree in memory as leaves are computed, instead of writing them to a table and reading them back.
+ * Leaves which arrive before the leaf they follow are held until the gap is filled, then every leaf is fed into a
+ * {@link MerkleTreeBuilder} in order. The leaves must cover the entire table without overlapping, which is true of the
+ * ranges from {@link org.apache.accumulo.test.merkle.cli.GenerateHashes#getRanges}.
+ * <p>
+ * The leaves themselves are only kept when requested, as they are needed for a {@link Shape#BALANCED} tree or to find
+ * differences between trees. They are kept in a {@link FlatMerkleTree.Builder} rather than as nodes so that a table with
+ * millions of leaves fits on the heap.
+ */
+public class MemoryLeafSink implements LeafSink {
+  private static final Text EMPTY = new Text(new byte[0]);
+
+  private final MerkleTreeBuilder builder;
+  private final FlatMerkleTree.Builder leaves;
+
+  // Leaves which arrived out of order, by their start row
+  private final Map<Text,MerkleTreeNode> pending = new HashMap<>();
+  private Text nextStartRow = EMPTY;
+  private boolean complete = false;
+
+  public MemoryLeafSink(String digestAlgorithm) throws NoSuchAlgorithmException {
+    this(digestAlgorithm, false);
+  }
+
+  /**
+   * @param retainLeaves
+   *          Keep every leaf so that {@link #getTree(Shape)} can be called
+   */
+  public MemoryLeafSink(String digestAlgorithm, boolean retainLeaves) throws NoSuchAlgorithmException {
+    this.builder = new MerkleTreeBuilder(digestAlgorithm);
+    this.leaves = retainLeaves ? new FlatMerkleTree.Builder(digestAlgorithm) : null;
+  }
+
+  @Override
+  public synchronized void add(MerkleTreeNode leaf) {
+    if (complete) {
+      throw new IllegalArgumentException("Received " + leaf + " after the leaf which ends the table");
+    }
+
+    if (null != pending.put(RangeSerialization.getRow(leaf.getRange()), leaf)) {
+      throw new IllegalArgumentException("Received more than one leaf starting at " + leaf.getRange());
+    }
+
+    // Add every leaf which is now contiguous with the ones before it
+    MerkleTreeNode next;
+    while (null != (next = pending.remove(nextStartRow))) {
+      try {
+        builder.add(next);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalArgumentException(e);
+      }
+
+      if (null != leaves) {
+        leaves.add(next);
+      }
+
+      if (next.getRange().isInfiniteStopKey()) {
+        complete = true;
+        break;
+      }
+      nextStartRow = RangeSerialization.getColumnQualifier(next.getRange());
+    }
+  }
+
+  @Override
+  public void close() {}
+
+  /**
+   * @return The number of leaves added to the tree so far, not counting any which are waiting for earlier leaves
+   */
+  public synchronized long getNumLeaves() {
+    return builder.getNumLeaves();
+  }
+
+  /**
+   * @return The root of a {@link Shape#COMPATIBLE} tree over the leaves
+   * @throws IllegalStateException
+   *           if the leaves do not yet cover the entire table
+   */
+  public synchronized MerkleTreeNode getRootNode() throws NoSuchAlgorithmException {
+    checkComplete();
+    return builder.getRootNode();
+  }
+
+  /**
+   * @throws IllegalStateException
+   *           if the leaves were not retained or do not yet cover the entire table
+   */
+  public synchronized FlatMerkleTree getTree(Shape shape) {
+    if (null == leaves) {
+      throw new IllegalStateException("Leaves were not retained");
+    }
+    checkComplete();
+    return leaves.build(shape);
+  }
+
+  private void checkComplete() {
+    if (!complete) {
+      throw new IllegalStateException("Leaves are missing after " + nextStartRow + ", " + pending.size() + " later leaves are waiting");
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import java.util.Map;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.NodeSerialization;
+import org.apache.accumulo.test.merkle.metadata.DigestCache;
+
+/**
+ * Writes each leaf to a table of hashes, as read by {@link org.apache.accumulo.test.merkle.cli.ComputeRootHash}
+ */
+public class TableLeafSink implements LeafSink {
+  private final BatchWriter bw;
+  private final Map<Range,Value> fileSets;
+
+  public TableLeafSink(Connector conn, String tableName) throws TableNotFoundException {
+    this(conn, tableName, null);
+  }
+
+  /**
+   * @param fileSets
+   *          If not null, the {@link DigestCache} record to write with the leaf for each range
+   */
+  public TableLeafSink(Connector conn, String tableName, Map<Range,Value> fileSets) throws TableNotFoundException {
+    this.bw = conn.createBatchWriter(tableName, new BatchWriterConfig());
+    this.fileSets = fileSets;
+  }
+
+  @Override
+  public void add(MerkleTreeNode leaf) {
+    Mutation m = NodeSerialization.toMutation(leaf);
+    if (null != fileSets) {
+      DigestCache.put(m, leaf.getRange(), fileSets.get(leaf.getRange()));
+    }
+
+    try {
+      bw.addMutation(m);
+    } catch (MutationsRejectedException e) {
+      throw new RuntimeException("Could not write leaf for " + leaf.getRange(), e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      bw.close();
+    } catch (MutationsRejectedException e) {
+      throw new RuntimeException("Could not write leaves", e);
+    }
+  }
+}
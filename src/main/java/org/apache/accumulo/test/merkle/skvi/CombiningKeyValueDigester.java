@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.skvi;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.apache.accumulo.test.merkle.hash.Hasher;
+
+/**
+ * Hashes each Key and Value on its own and sums those hashes with a {@link HashAccumulator}, instead of hashing the
+ * entire sequence of entries. The digest of a range is then the sum of the digests of any ranges which partition it, so
+ * digests computed over one set of split points can be combined into the digests for another, coarser, set.
+ * <p>
+ * The digest of no entries is all zeros. Not thread-safe, each thread should have its own instance.
+ */
+public class CombiningKeyValueDigester extends KeyValueDigester {
+  private final byte[] entryHash;
+  private final HashAccumulator accumulator;
+
+  public CombiningKeyValueDigester(Hasher hasher) {
+    super(hasher);
+    this.entryHash = new byte[hasher.getHashLength()];
+    this.accumulator = new HashAccumulator(hasher.getHashLength());
+  }
+
+  @Override
+  public void update(Key key, Value value) {
+    super.update(key, value);
+
+    getHasher().digest(entryHash, 0);
+    accumulator.add(entryHash, 0);
+  }
+
+  @Override
+  public byte[] digest() {
+    byte[] sum = accumulator.get();
+    accumulator.reset();
+    return sum;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    accumulator.reset();
+  }
+}
@@ -16,13 +16,11 @@
  */
 package org.apache.accumulo.test.merkle.skvi;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
@@ -30,17 +28,72 @@ import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.test.merkle.RangeIndex;
+import org.apache.accumulo.test.merkle.Throttle;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 
+ * Computes a digest over every Key-Value in the seeked range. By default, a single Key-Value is returned whose Key is
+ * the last Key in the range and whose Value is the digest. An empty range returns the digest of no data at the start of
+ * the range, unless the range starts exclusively: the tablet server continues a scan after the last Key it returned
+ * with such a range, and the digest for that part of the range was already returned.
+ * <p>
+ * With {@link #CHUNK_ENTRIES_KEY} or {@link #CHUNK_BYTES_KEY}, a digest is instead returned each time that many entries
+ * or bytes have been read, at the end of the current row. The Key of each digest is the last Key it includes, so each
+ * digest covers the rows after the previous digest's row up to and including its own row, and the final digest covers
+ * the rest of the range.
+ * <p>
+ * With {@link #ENTRIES_PER_SECOND_KEY} or {@link #BYTES_PER_SECOND_KEY}, the iterator paces itself so that every
+ * throttled DigestIterator in the tablet server together reads no faster than the limit. The limit of the most recently
+ * created iterator applies to all of them, so new scans can change it.
+ * <p>
+ * The entries, bytes and time spent hashing and reading from the source for each digest are logged at debug and added to
+ * the {@link DigestIteratorMetrics} of the tablet server. Only every {@link #TIMING_SAMPLE_INTERVAL}th entry is timed.
  */
 public class DigestIterator implements SortedKeyValueIterator<Key,Value> {
   private static final Logger log = LoggerFactory.getLogger(DigestIterator.class);
+  /**
+   * Name of the {@link HashFunction} to use
+   */
   public static final String HASH_NAME_KEY = "hash.name";
+  /**
+   * Sum the hashes of each entry instead of hashing all entries together, see {@link CombiningKeyValueDigester}
+   */
+  public static final String COMBINABLE_KEY = "hash.combinable";
+  /**
+   * Return a digest after at least this many entries
+   */
+  public static final String CHUNK_ENTRIES_KEY = "chunk.entries";
+  /**
+   * Return a digest after at least this many bytes of Keys and Values
+   */
+  public static final String CHUNK_BYTES_KEY = "chunk.bytes";
+  /**
+   * Read at most this many entries per second across all DigestIterators in the tablet server
+   */
+  public static final String ENTRIES_PER_SECOND_KEY = "throttle.entries";
+  /**
+   * Read at most this many bytes of Keys and Values per second across all DigestIterators in the tablet server
+   */
+  public static final String BYTES_PER_SECOND_KEY = "throttle.bytes";
 
-  private MessageDigest digest;
+  /**
+   * How often an entry is timed to estimate the time spent hashing and reading
+   */
+  public static final int TIMING_SAMPLE_INTERVAL = 16;
+
+  // Shared by every scan in the tablet server
+  private static final Throttle SERVER_THROTTLE = new Throttle(0d, 0d);
+
+  private HashFunction hashFunction;
+  private boolean combinable;
+  private long chunkEntries, chunkBytes;
+  private boolean throttled;
+  private int unthrottledEntries = 0;
+  private long unthrottledBytes = 0l;
+  private KeyValueDigester digester;
   private Key topKey;
   private Value topValue;
   private SortedKeyValueIterator<Key,Value> source;
@@ -53,16 +106,69 @@ public class DigestIterator implements SortedKeyValueIterator<Key,Value> {
     }
 
     try {
-      this.digest = MessageDigest.getInstance(hashName);
+      this.hashFunction = HashFunction.forName(hashName);
+      this.combinable = Boolean.parseBoolean(options.get(COMBINABLE_KEY));
+      this.digester = KeyValueDigester.create(hashFunction, combinable);
     } catch (NoSuchAlgorithmException e) {
       throw new IOException(e);
     }
 
+    this.chunkEntries = getChunkOption(options, CHUNK_ENTRIES_KEY);
+    this.chunkBytes = getChunkOption(options, CHUNK_BYTES_KEY);
+
+    long entriesPerSecond = getRateOption(options, ENTRIES_PER_SECOND_KEY), bytesPerSecond = getRateOption(options, BYTES_PER_SECOND_KEY);
+    this.throttled = entriesPerSecond > 0 || bytesPerSecond > 0;
+    if (throttled) {
+      SERVER_THROTTLE.setEntriesPerSecond(entriesPerSecond);
+      SERVER_THROTTLE.setBytesPerSecond(bytesPerSecond);
+    }
+
     this.topKey = null;
     this.topValue = null;
     this.source = source;
   }
 
+  private long getChunkOption(Map<String,String> options, String key) throws IOException {
+    String value = options.get(key);
+    if (null == value) {
+      return Long.MAX_VALUE;
+    }
+
+    try {
+      long chunk = Long.parseLong(value);
+      if (chunk <= 0) {
+        throw new IOException(key + " must be positive: " + value);
+      }
+      return chunk;
+    } catch (NumberFormatException e) {
+      throw new IOException("Could not parse " + key + ": " + value, e);
+    }
+  }
+
+  private long getRateOption(Map<String,String> options, String key) throws IOException {
+    String value = options.get(key);
+    if (null == value) {
+      return 0l;
+    }
+
+    try {
+      long rate = Long.parseLong(value);
+      if (rate < 0) {
+        throw new IOException(key + " must not be negative: " + value);
+      }
+      return rate;
+    } catch (NumberFormatException e) {
+      throw new IOException("Could not parse " + key + ": " + value, e);
+    }
+  }
+
+  /**
+   * @return The limits shared by every throttled DigestIterator in this JVM
+   */
+  static Throttle getServerThrottle() {
+    return SERVER_THROTTLE;
+  }
+
   @Override
   public boolean hasTop() {
     return null != topKey;
@@ -70,54 +176,104 @@ public class DigestIterator implements SortedKeyValueIterator<Key,Value> {
 
   @Override
   public void next() throws IOException {
-    // We can't call next() if we already consumed it all
+    // The source is left on the first entry of the next chunk, if there is one
     if (!this.source.hasTop()) {
       this.topKey = null;
       this.topValue = null;
       return;
     }
 
-    this.source.next();
-
     consume();
   }
 
   @Override
   public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+    DigestIteratorMetrics.get().seeked();
     this.source.seek(range, columnFamilies, inclusive);
 
+    if (!this.source.hasTop()) {
+      if (range.isInfiniteStartKey() || range.isStartKeyInclusive()) {
+        // Still return a digest so that every range has one, even when there is no data
+        digester.reset();
+        this.topKey = RangeIndex.getFirstKey(range);
+        this.topValue = new Value(digester.digest());
+      } else {
+        this.topKey = null;
+        this.topValue = null;
+      }
+      return;
+    }
+
     consume();
   }
 
   protected void consume() throws IOException {
-    digest.reset();
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    DataOutputStream dos = new DataOutputStream(baos);
-
-    if (!this.source.hasTop()) {
-      this.topKey = null;
-      this.topValue = null;
-
-      return;
-    }
+    digester.reset();
 
+    long entries = 0l, bytes = 0l, hashNanos = 0l, readNanos = 0l, samples = 0l;
     Key lastKeySeen = null;
     while (this.source.hasTop()) {
-      baos.reset();
-
       Key currentKey = this.source.getTopKey();
-      lastKeySeen = currentKey;
 
-      currentKey.write(dos);
-      this.source.getTopValue().write(dos);
+      // Only end a chunk between rows
+      if ((entries >= chunkEntries || bytes >= chunkBytes) && !currentKey.getRowData().equals(lastKeySeen.getRowData())) {
+        break;
+      }
 
-      digest.update(baos.toByteArray());
+      Value currentValue = this.source.getTopValue();
+
+      final boolean timed = 0 == entries % TIMING_SAMPLE_INTERVAL;
+      long start = timed ? System.nanoTime() : 0l;
+      digester.update(currentKey, currentValue);
+      if (timed) {
+        hashNanos += System.nanoTime() - start;
+        samples++;
+      }
+
+      entries++;
+      final int size = currentKey.getSize() + currentValue.getSize();
+      bytes += size;
+      lastKeySeen = currentKey;
 
+      if (throttled) {
+        pace(size);
+      }
+
+      start = timed ? System.nanoTime() : 0l;
       this.source.next();
+      if (timed) {
+        readNanos += System.nanoTime() - start;
+      }
+    }
+
+    // Scale the sampled times up to every entry, by the number of samples actually taken since a chunk is rarely a
+    // multiple of the interval
+    if (samples > 0) {
+      hashNanos = (long) ((double) hashNanos * entries / samples);
+      readNanos = (long) ((double) readNanos * entries / samples);
+    }
+    DigestIteratorMetrics.get().digested(entries, bytes, hashNanos, readNanos);
+
+    if (log.isDebugEnabled()) {
+      log.debug("Computed digest over {} entries and {} bytes ending at {}, about {}ms hashing and {}ms reading", entries, bytes, lastKeySeen,
+          TimeUnit.NANOSECONDS.toMillis(hashNanos), TimeUnit.NANOSECONDS.toMillis(readNanos));
     }
 
     this.topKey = lastKeySeen;
-    this.topValue = new Value(digest.digest());
+    this.topValue = new Value(digester.digest());
+  }
+
+  /**
+   * Waits once a batch of entries has been read until the batch is within the limits of the tablet server
+   */
+  private void pace(int size) {
+    unthrottledEntries++;
+    unthrottledBytes += size;
+    if (unthrottledEntries >= Throttle.BATCH_ENTRIES) {
+      SERVER_THROTTLE.acquire(unthrottledEntries, unthrottledBytes);
+      unthrottledEntries = 0;
+      unthrottledBytes = 0l;
+    }
   }
 
   @Override
@@ -133,11 +289,12 @@ public class DigestIterator implements SortedKeyValueIterator<Key,Value> {
   @Override
   public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
     DigestIterator copy = new DigestIterator();
-    try {
-      copy.digest = MessageDigest.getInstance(digest.getAlgorithm());
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
-    }
+    copy.hashFunction = this.hashFunction;
+    copy.combinable = this.combinable;
+    copy.chunkEntries = this.chunkEntries;
+    copy.chunkBytes = this.chunkBytes;
+    copy.throttled = this.throttled;
+    copy.digester = KeyValueDigester.create(hashFunction, combinable);
 
     copy.topKey = this.topKey;
     copy.topValue = this.topValue;
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.skvi;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Totals of the work of every {@link DigestIterator} in the JVM, registered with the platform MBeanServer the first time
+ * they are used so that each tablet server reports the hashing done within it.
+ */
+public class DigestIteratorMetrics implements DigestIteratorMetricsMXBean {
+  private static final Logger log = LoggerFactory.getLogger(DigestIteratorMetrics.class);
+
+  private static final DigestIteratorMetrics INSTANCE = new DigestIteratorMetrics();
+  private static volatile boolean registered = false;
+
+  private final AtomicLong seeks = new AtomicLong(0), digests = new AtomicLong(0), entries = new AtomicLong(0), bytes = new AtomicLong(0),
+      hashNanos = new AtomicLong(0), readNanos = new AtomicLong(0);
+
+  /**
+   * @return The metrics for this JVM, registering them if they are not yet
+   */
+  public static DigestIteratorMetrics get() {
+    if (!registered) {
+      register();
+    }
+    return INSTANCE;
+  }
+
+  private static synchronized void register() {
+    if (registered) {
+      return;
+    }
+    registered = true;
+
+    try {
+      ObjectName name = new ObjectName("org.apache.accumulo.test.merkle:type=DigestIteratorMetrics");
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+      }
+    } catch (JMException e) {
+      // The iterator may be loaded by more than one classloader, only the first registers
+      log.debug("Could not register DigestIterator metrics", e);
+    }
+  }
+
+  void seeked() {
+    seeks.incrementAndGet();
+  }
+
+  void digested(long numEntries, long numBytes, long hashNanos, long readNanos) {
+    digests.incrementAndGet();
+    entries.addAndGet(numEntries);
+    bytes.addAndGet(numBytes);
+    this.hashNanos.addAndGet(hashNanos);
+    this.readNanos.addAndGet(readNanos);
+  }
+
+  @Override
+  public long getSeeks() {
+    return seeks.get();
+  }
+
+  @Override
+  public long getDigests() {
+    return digests.get();
+  }
+
+  @Override
+  public long getEntries() {
+    return entries.get();
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  @Override
+  public long getHashMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(hashNanos.get());
+  }
+
+  @Override
+  public long getReadMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(readNanos.get());
+  }
+}
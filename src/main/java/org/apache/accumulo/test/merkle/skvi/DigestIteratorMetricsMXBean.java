@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.skvi;
+
+/**
+ * The work of every {@link DigestIterator} in a tablet server over JMX, since the server started
+ */
+public interface DigestIteratorMetricsMXBean {
+
+  long getSeeks();
+
+  long getDigests();
+
+  long getEntries();
+
+  long getBytes();
+
+  /**
+   * @return The estimated time spent hashing Keys and Values
+   */
+  long getHashMillis();
+
+  /**
+   * @return The estimated time spent reading Keys and Values from the source iterator
+   */
+  long getReadMillis();
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.skvi;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.hash.Hasher;
+
+/**
+ * Feeds Keys and Values into a {@link Hasher} using the same bytes as {@link Key#write(java.io.DataOutput)}
+ * followed by {@link Value#write(java.io.DataOutput)}, but directly from their backing arrays instead of serializing
+ * each entry into a new buffer. The key and value bytes are hashed in place rather than copied.
+ * <p>
+ * Not thread-safe, each thread should have its own instance.
+ */
+public class KeyValueDigester {
+  // Large enough for a variable-length long
+  private final byte[] scratch = new byte[9];
+  private final Hasher hasher;
+
+  public KeyValueDigester(Hasher hasher) {
+    this.hasher = hasher;
+  }
+
+  /**
+   * @param combinable
+   *          Sum the hashes of each entry with a {@link CombiningKeyValueDigester} instead of hashing every entry together
+   */
+  public static KeyValueDigester create(HashFunction hashFunction, boolean combinable) {
+    Hasher hasher = hashFunction.newHasher();
+    return combinable ? new CombiningKeyValueDigester(hasher) : new KeyValueDigester(hasher);
+  }
+
+  public Hasher getHasher() {
+    return hasher;
+  }
+
+  public void update(Key key, Value value) {
+    ByteSequence row = key.getRowData(), cf = key.getColumnFamilyData(), cq = key.getColumnQualifierData(), cv = key.getColumnVisibilityData();
+
+    // Offsets of each component, followed by the total length
+    final int cfOffset = row.length(), cqOffset = cfOffset + cf.length(), cvOffset = cqOffset + cq.length();
+    updateVLong(cfOffset);
+    updateVLong(cqOffset);
+    updateVLong(cvOffset);
+    updateVLong(cvOffset + cv.length());
+
+    update(row);
+    update(cf);
+    update(cq);
+    update(cv);
+
+    updateVLong(key.getTimestamp());
+    hasher.update((byte) (key.isDeleted() ? 1 : 0));
+
+    final byte[] valueBytes = value.get();
+    updateInt(valueBytes.length);
+    hasher.update(valueBytes, 0, valueBytes.length);
+  }
+
+  public byte[] digest() {
+    return hasher.digest();
+  }
+
+  public void reset() {
+    hasher.reset();
+  }
+
+  private void update(ByteSequence bytes) {
+    if (bytes.isBackedByArray()) {
+      hasher.update(bytes.getBackingArray(), bytes.offset(), bytes.length());
+    } else {
+      byte[] copy = bytes.toArray();
+      hasher.update(copy, 0, copy.length);
+    }
+  }
+
+  private void updateInt(int i) {
+    scratch[0] = (byte) (i >>> 24);
+    scratch[1] = (byte) (i >>> 16);
+    scratch[2] = (byte) (i >>> 8);
+    scratch[3] = (byte) i;
+    hasher.update(scratch, 0, 4);
+  }
+
+  /**
+   * Same encoding as {@link org.apache.hadoop.io.WritableUtils#writeVLong(java.io.DataOutput, long)}
+   */
+  private void updateVLong(long i) {
+    if (i >= -112 && i <= 127) {
+      hasher.update((byte) i);
+      return;
+    }
+
+    int len = -112;
+    if (i < 0) {
+      i ^= -1L;
+      len = -120;
+    }
+
+    long tmp = i;
+    while (tmp != 0) {
+      tmp = tmp >> 8;
+      len--;
+    }
+
+    scratch[0] = (byte) len;
+
+    len = (len < -120) ? -(len + 120) : -(len + 112);
+    for (int idx = len; idx != 0; idx--) {
+      int shiftbits = (idx - 1) * 8;
+      scratch[len - idx + 1] = (byte) (i >> shiftbits);
+    }
+
+    hasher.update(scratch, 0, len + 1);
+  }
+}
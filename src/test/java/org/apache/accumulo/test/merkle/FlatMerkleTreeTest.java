@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.util.List;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class FlatMerkleTreeTest {
+
+  @Test
+  public void flatTreeMatchesMerkleTree() throws Exception {
+    for (boolean direct : new boolean[] {false, true}) {
+      for (Shape shape : Shape.values()) {
+        for (int numLeaves = 1; numLeaves <= 40; numLeaves++) {
+          List<MerkleTreeNode> leaves = MerkleTreeFileTest.createLeaves(numLeaves);
+          MerkleTree tree = new MerkleTree(leaves, "MD5", shape);
+
+          FlatMerkleTree.Builder builder = new FlatMerkleTree.Builder("MD5");
+          for (MerkleTreeNode leaf : leaves) {
+            builder.add(leaf);
+          }
+          FlatMerkleTree flat = builder.build(shape, direct);
+
+          Assert.assertEquals(numLeaves, flat.getNumLeaves());
+          Assert.assertEquals(tree.getLeaves(), flat.getLeaves());
+          Assert.assertEquals(shape + " with " + numLeaves + " leaves", tree.getRootNode(), flat.getRootNode());
+          Assert.assertEquals(tree.getLevels(), flat.getLevels());
+
+          // Every node and its children can be found by range
+          for (List<MerkleTreeNode> level : tree.getLevels()) {
+            for (MerkleTreeNode node : level) {
+              Assert.assertEquals(node, flat.getNode(node.getRange()));
+              Assert.assertEquals(tree.getChildren(node), flat.getChildren(node));
+            }
+          }
+
+          Assert.assertNull(flat.getNode(new Range("00001a", "00002")));
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nonContiguousLeaves() throws Exception {
+    FlatMerkleTree.Builder builder = new FlatMerkleTree.Builder("MD5");
+    builder.add(new Text(""), new Text("b"), new byte[16]);
+    builder.add(new Text("c"), new Text(""), new byte[16]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wrongHashLength() throws Exception {
+    new FlatMerkleTree.Builder("MD5").add(new Text(""), new Text(""), new byte[20]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noLeaves() throws Exception {
+    new FlatMerkleTree.Builder("MD5").build(Shape.COMPATIBLE);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class LeafAggregationTest {
+  private static final int NUM_ROWS = 100;
+
+  @Test
+  public void differentSplitsAggregateToCommonRanges() throws Exception {
+    List<MerkleTreeNode> left = createLeaves(10, 20, 30, 40, 50, 60, 70, 80, 90), right = createLeaves(25, 50, 75);
+
+    List<Range> common = LeafAggregation.commonRanges(left, right);
+    Assert.assertEquals(2, common.size());
+    Assert.assertEquals(createLeaves(50), LeafAggregation.aggregate(left, common));
+    Assert.assertEquals(createLeaves(50), LeafAggregation.aggregate(right, common));
+  }
+
+  @Test
+  public void aggregateToEntireTable() throws Exception {
+    List<Range> entireTable = Collections.singletonList(new Range());
+    Assert.assertEquals(createLeaves(), LeafAggregation.aggregate(createLeaves(10, 20, 30), entireTable));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void leafSpansRanges() throws Exception {
+    LeafAggregation.aggregate(createLeaves(50), LeafAggregation.commonRanges(createLeaves(25), createLeaves(25)));
+  }
+
+  /**
+   * Leaves over a table with one entry per row, whose combinable hashes are the sum of the hash of each row
+   */
+  private List<MerkleTreeNode> createLeaves(int... splits) throws Exception {
+    MessageDigest md5 = MessageDigest.getInstance("MD5");
+    List<Integer> boundaries = new ArrayList<>();
+    for (int split : splits) {
+      boundaries.add(split);
+    }
+    boundaries.add(NUM_ROWS);
+
+    List<MerkleTreeNode> leaves = new ArrayList<>();
+    int start = 0;
+    for (int end : boundaries) {
+      HashAccumulator sum = new HashAccumulator(md5.getDigestLength());
+      for (int row = start; row < end; row++) {
+        sum.add(md5.digest(row(row).getBytes()));
+      }
+
+      Text startRow = 0 == start ? new Text() : row(start), endRow = NUM_ROWS == end ? new Text() : row(end);
+      Range range = RangeSerialization.toRange(new Key(startRow, new Text(), endRow));
+      leaves.add(new MerkleTreeNode(range, 0, Collections.<Range> emptyList(), sum.get()));
+      start = end;
+    }
+
+    return leaves;
+  }
+
+  private Text row(int row) {
+    return new Text(String.format("%02d", row));
+  }
+}
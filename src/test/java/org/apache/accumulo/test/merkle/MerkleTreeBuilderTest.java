@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class MerkleTreeBuilderTest {
+
+  @Test
+  public void matchesMerkleTree() throws Exception {
+    for (int numLeaves = 1; numLeaves <= 70; numLeaves++) {
+      List<MerkleTreeNode> leaves = MerkleTreeTest.createLeaves(numLeaves);
+
+      MerkleTreeBuilder builder = new MerkleTreeBuilder("MD5");
+      for (MerkleTreeNode leaf : leaves) {
+        builder.add(leaf);
+      }
+
+      MerkleTree tree = new MerkleTree(leaves, "MD5");
+
+      Assert.assertEquals(numLeaves, builder.getNumLeaves());
+      Assert.assertEquals("Different root for " + numLeaves + " leaves", tree.getRootNode(), builder.getRootNode());
+    }
+  }
+
+  @Test
+  public void pendingSubtreesAreBounded() throws Exception {
+    List<MerkleTreeNode> leaves = MerkleTreeTest.createLeaves(1000);
+
+    MerkleTreeBuilder builder = new MerkleTreeBuilder("MD5");
+    for (MerkleTreeNode leaf : leaves) {
+      builder.add(leaf);
+    }
+
+    // 1000 is 0b1111101000, one pending subtree per set bit
+    Assert.assertEquals(6, builder.getNumPendingSubtrees());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void noLeaves() throws Exception {
+    new MerkleTreeBuilder("MD5").getRootNode();
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Range;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class MerkleTreeDiffTest {
+
+  @Test
+  public void identicalTrees() throws Exception {
+    List<MerkleTreeNode> leaves = MerkleTreeTest.createLeaves(16);
+
+    MerkleTreeDiff diff = new MerkleTreeDiff();
+    List<Range> differences = diff.diff(new MerkleTree(leaves, "MD5"), new MerkleTree(leaves, "MD5"));
+
+    Assert.assertEquals(0, differences.size());
+    // Only the roots should have been compared
+    Assert.assertEquals(2, diff.getNodesVisited());
+  }
+
+  @Test
+  public void singleDifference() throws Exception {
+    List<MerkleTreeNode> leaves = MerkleTreeTest.createLeaves(1024);
+    List<MerkleTreeNode> otherLeaves = replaceHash(leaves, 700);
+
+    MerkleTreeDiff diff = new MerkleTreeDiff();
+    List<Range> differences = diff.diff(new MerkleTree(leaves, "MD5"), new MerkleTree(otherLeaves, "MD5"));
+
+    Assert.assertEquals(Collections.singletonList(leaves.get(700).getRange()), differences);
+    // Both children of each node on the path from the root to the leaf
+    Assert.assertTrue("Visited too many nodes: " + diff.getNodesVisited(), diff.getNodesVisited() <= 2 * (2 * 10 + 1));
+  }
+
+  @Test
+  public void adjacentDifferencesAreMerged() throws Exception {
+    List<MerkleTreeNode> leaves = MerkleTreeTest.createLeaves(9);
+    List<MerkleTreeNode> otherLeaves = replaceHash(replaceHash(replaceHash(leaves, 3), 4), 7);
+
+    List<Range> differences = new MerkleTreeDiff().diff(new MerkleTree(leaves, "MD5"), new MerkleTree(otherLeaves, "MD5"));
+
+    Assert.assertEquals(2, differences.size());
+    Assert.assertEquals(new Range(leaves.get(3).getRange().getStartKey(), true, leaves.get(4).getRange().getEndKey(), false), differences.get(0));
+    Assert.assertEquals(leaves.get(7).getRange(), differences.get(1));
+  }
+
+  @Test
+  public void differentLeafBoundaries() throws Exception {
+    List<MerkleTreeNode> leaves = MerkleTreeTest.createLeaves(8);
+    List<MerkleTreeNode> otherLeaves = new ArrayList<>(leaves);
+
+    // Replace the last two leaves with a single leaf
+    MerkleTreeNode sixth = otherLeaves.remove(6), seventh = otherLeaves.remove(6);
+    otherLeaves.add(new MerkleTreeNode(new Range(sixth.getRange().getStartKey(), true, null, false), 0, Collections.<Range> emptyList(), seventh.getHash()));
+
+    List<Range> differences = new MerkleTreeDiff().diff(new MerkleTree(leaves, "MD5"), new MerkleTree(otherLeaves, "MD5"));
+
+    Assert.assertEquals(1, differences.size());
+    Range difference = differences.get(0);
+    Assert.assertTrue(difference.contains(sixth.getRange().getStartKey()));
+    Assert.assertTrue(difference.isInfiniteStopKey());
+  }
+
+  private List<MerkleTreeNode> replaceHash(List<MerkleTreeNode> leaves, int index) {
+    List<MerkleTreeNode> copy = new ArrayList<>(leaves);
+    MerkleTreeNode leaf = copy.get(index);
+    copy.set(index, new MerkleTreeNode(leaf.getRange(), 0, leaf.getChildren(), "different".getBytes(StandardCharsets.UTF_8)));
+    return copy;
+  }
+
+}
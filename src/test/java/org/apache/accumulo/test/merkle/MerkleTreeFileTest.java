@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class MerkleTreeFileTest {
+
+  @Test
+  public void mappedTreeMatchesMerkleTree() throws Exception {
+    File file = createTempFile();
+    for (Shape shape : Shape.values()) {
+      for (int numLeaves = 1; numLeaves <= 40; numLeaves++) {
+        MerkleTree tree = new MerkleTree(createLeaves(numLeaves), "MD5", shape);
+        MerkleTreeFile.write(tree, file);
+
+        MappedMerkleTree mapped = new MappedMerkleTree(file);
+        Assert.assertEquals("MD5", mapped.getDigestAlgorithm());
+        Assert.assertEquals(shape, mapped.getShape());
+        Assert.assertEquals(tree.getLeaves(), mapped.getLeaves());
+        Assert.assertEquals(tree.getLevels(), mapped.getLevels());
+        Assert.assertEquals(shape + " with " + numLeaves + " leaves", tree.getRootNode(), mapped.getRootNode());
+
+        // Every node can be found by its range
+        for (List<MerkleTreeNode> level : tree.getLevels()) {
+          for (MerkleTreeNode node : level) {
+            Assert.assertEquals(node, mapped.getNode(node.getRange()));
+          }
+        }
+
+        Assert.assertNull(mapped.getNode(new Range("00001a", "00002")));
+      }
+    }
+  }
+
+  @Test
+  public void diffMappedTrees() throws Exception {
+    List<MerkleTreeNode> leaves = createLeaves(25), changed = new ArrayList<>(leaves);
+    MerkleTreeNode leaf = leaves.get(17);
+    changed.set(17, new MerkleTreeNode(leaf.getRange(), 0, leaf.getChildren(), new byte[16]));
+
+    File left = createTempFile(), right = createTempFile();
+    MerkleTreeFile.write(leaves, "MD5", Shape.COMPATIBLE, left);
+    MerkleTreeFile.write(changed, "MD5", Shape.COMPATIBLE, right);
+
+    List<Range> differences = new MerkleTreeDiff().diff(new MappedMerkleTree(left), new MappedMerkleTree(right));
+    Assert.assertEquals(Collections.singletonList(leaf.getRange()), differences);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nonContiguousLeaves() throws Exception {
+    List<MerkleTreeNode> leaves = createLeaves(5);
+    leaves.remove(2);
+    MerkleTreeFile.write(leaves, "MD5", Shape.COMPATIBLE, createTempFile());
+  }
+
+  private File createTempFile() throws Exception {
+    File file = File.createTempFile("tree", ".mt");
+    file.deleteOnExit();
+    return file;
+  }
+
+  /**
+   * Leaves with ranges as they are read from a table of hashes
+   */
+  static List<MerkleTreeNode> createLeaves(int numLeaves) throws Exception {
+    List<MerkleTreeNode> leaves = new ArrayList<>(numLeaves);
+    for (MerkleTreeNode leaf : MerkleTreeTest.createLeaves(numLeaves)) {
+      // MD5 sized hashes
+      byte[] hash = MessageDigest.getInstance("MD5").digest(leaf.getHash());
+      leaves.add(new MerkleTreeNode(RangeSerialization.toRange(RangeSerialization.toKey(leaf.getRange())), 0, leaf.getChildren(), hash));
+    }
+    return leaves;
+  }
+
+}
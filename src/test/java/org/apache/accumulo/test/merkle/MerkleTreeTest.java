@@ -23,7 +23,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.hash.Hasher;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -159,4 +163,145 @@ public class MerkleTreeTest {
     Assert.assertEquals(new Range(), root.getRange());
   }
 
+  @Test
+  public void compatibleShapeMatchesPairwiseRollup() throws Exception {
+    for (int numLeaves = 1; numLeaves <= 70; numLeaves++) {
+      List<MerkleTreeNode> leaves = createLeaves(numLeaves);
+
+      MerkleTreeNode expected = pairwiseRollup(leaves, "MD5");
+      MerkleTreeNode actual = new MerkleTree(leaves, "MD5", Shape.COMPATIBLE).getRootNode();
+
+      Assert.assertEquals("Different root for " + numLeaves + " leaves", expected, actual);
+    }
+  }
+
+  @Test
+  public void balancedRollup() throws Exception {
+    List<MerkleTreeNode> leaves = createLeaves(5);
+
+    MerkleTree tree = new MerkleTree(leaves, "MD5", Shape.BALANCED);
+    MerkleTreeNode root = tree.getRootNode();
+
+    MessageDigest md5 = MessageDigest.getInstance("MD5");
+    md5.update(leaves.get(0).getHash());
+    md5.update(leaves.get(1).getHash());
+    byte[] hashOneTwo = md5.digest();
+
+    md5.reset();
+    md5.update(hashOneTwo);
+    md5.update(leaves.get(2).getHash());
+    byte[] hashOneThree = md5.digest();
+
+    md5.reset();
+    md5.update(leaves.get(3).getHash());
+    md5.update(leaves.get(4).getHash());
+    byte[] hashFourFive = md5.digest();
+
+    md5.reset();
+    md5.update(hashOneThree);
+    md5.update(hashFourFive);
+    byte[] rootHash = md5.digest();
+
+    Assert.assertEquals(3, root.getLevel());
+    Assert.assertArrayEquals(rootHash, root.getHash());
+    Assert.assertEquals(Arrays.asList(new Range(null, false, "00003", false), new Range("00003", true, null, false)), root.getChildren());
+  }
+
+  @Test
+  public void nodeHierarchy() throws Exception {
+    List<MerkleTreeNode> leaves = createLeaves(11);
+
+    MerkleTree tree = new MerkleTree(leaves, "MD5");
+    MerkleTreeNode root = tree.getRootNode();
+
+    List<List<MerkleTreeNode>> levels = tree.getLevels();
+    Assert.assertEquals(root.getLevel() + 1, levels.size());
+    Assert.assertEquals(leaves, levels.get(0));
+    Assert.assertEquals(Collections.singletonList(root), levels.get(levels.size() - 1));
+
+    // Walking down from the root should visit every leaf, in order
+    List<MerkleTreeNode> visitedLeaves = new ArrayList<>();
+    collectLeaves(tree, root, visitedLeaves);
+    Assert.assertEquals(leaves, visitedLeaves);
+
+    for (List<MerkleTreeNode> level : levels) {
+      for (MerkleTreeNode node : level) {
+        Assert.assertEquals(node, tree.getNode(node.getRange()));
+      }
+    }
+  }
+
+  @Test
+  public void pairConstructorMatchesListConstructor() throws Exception {
+    Hasher hasher = HashFunction.forName("MD5").newHasher();
+    List<List<Range>> adjacentRanges = Arrays.asList(
+        // Rows split with the end exclusive, as in these tests
+        Arrays.asList(new Range(null, false, "b", false), new Range("b", true, "d", false)),
+        // Rows split with the end inclusive, as in computed leaves
+        Arrays.asList(new Range("a", false, "b", true), new Range("b", false, null, false)),
+        // As read back from a table of hashes
+        Arrays.asList(RangeSerialization.toRange(new Key("a", "", "b")), RangeSerialization.toRange(new Key("b", "", ""))),
+        // Overlapping ranges only take the general path
+        Arrays.asList(new Range("a", "c"), new Range("b", "d")));
+
+    for (List<Range> ranges : adjacentRanges) {
+      MerkleTreeNode left = new MerkleTreeNode(ranges.get(0), 0, Collections.<Range> emptyList(), "left".getBytes(StandardCharsets.UTF_8));
+      MerkleTreeNode right = new MerkleTreeNode(ranges.get(1), 1, Collections.<Range> emptyList(), "right".getBytes(StandardCharsets.UTF_8));
+
+      // Reusing the same hasher for every parent
+      Assert.assertEquals(new MerkleTreeNode(Arrays.asList(left, right), "MD5"), new MerkleTreeNode(left, right, hasher));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pairConstructorRejectsGaps() throws Exception {
+    MerkleTreeNode left = new MerkleTreeNode(new Range("a", true, "b", false), 0, Collections.<Range> emptyList(), new byte[16]);
+    MerkleTreeNode right = new MerkleTreeNode(new Range("b", false, "c", false), 0, Collections.<Range> emptyList(), new byte[16]);
+    new MerkleTreeNode(left, right, HashFunction.forName("MD5").newHasher());
+  }
+
+  private void collectLeaves(MerkleTree tree, MerkleTreeNode node, List<MerkleTreeNode> visited) throws Exception {
+    if (0 == node.getLevel()) {
+      visited.add(node);
+      return;
+    }
+
+    for (MerkleTreeNode child : tree.getChildren(node)) {
+      collectLeaves(tree, child, visited);
+    }
+  }
+
+  static List<MerkleTreeNode> createLeaves(int numLeaves) {
+    List<MerkleTreeNode> leaves = new ArrayList<>(numLeaves);
+    String prevEndRow = null;
+    for (int i = 0; i < numLeaves; i++) {
+      String endRow = (i == numLeaves - 1) ? null : String.format("%05d", i + 1);
+      byte[] hash = ("hash" + i).getBytes(StandardCharsets.UTF_8);
+      leaves.add(new MerkleTreeNode(new Range(prevEndRow, true, endRow, false), 0, Collections.<Range> emptyList(), hash));
+      prevEndRow = endRow;
+    }
+    return leaves;
+  }
+
+  /**
+   * The original construction: repeatedly join the first two adjacent nodes at the same level, or the last two nodes
+   * when there are none.
+   */
+  private MerkleTreeNode pairwiseRollup(List<MerkleTreeNode> leaves, String digestAlgorithm) throws Exception {
+    List<MerkleTreeNode> buffer = new ArrayList<>(leaves);
+    while (buffer.size() > 1) {
+      int i = buffer.size() - 2;
+      for (int j = 0; j < buffer.size() - 1; j++) {
+        if (buffer.get(j).getLevel() == buffer.get(j + 1).getLevel()) {
+          i = j;
+          break;
+        }
+      }
+
+      buffer.set(i, new MerkleTreeNode(Arrays.asList(buffer.get(i), buffer.get(i + 1)), digestAlgorithm));
+      buffer.remove(i + 1);
+    }
+    return buffer.get(0);
+  }
+
 }
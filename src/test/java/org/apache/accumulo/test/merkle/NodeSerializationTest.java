@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class NodeSerializationTest {
+
+  @Test
+  public void roundTripAllNodes() throws Exception {
+    MerkleTree tree = new MerkleTree(createStoredLeaves(13), "MD5");
+
+    for (List<MerkleTreeNode> level : tree.getLevels()) {
+      for (MerkleTreeNode node : level) {
+        Key key = NodeSerialization.toKey(node);
+        Value value = NodeSerialization.toValue(node);
+
+        Assert.assertEquals(node, NodeSerialization.toNode(key, value));
+      }
+    }
+  }
+
+  @Test
+  public void leavesAreUnchanged() throws Exception {
+    MerkleTreeNode leaf = createStoredLeaves(3).get(1);
+
+    Key key = NodeSerialization.toKey(leaf);
+    Assert.assertEquals(RangeSerialization.toKey(leaf.getRange()), key);
+    Assert.assertArrayEquals(leaf.getHash(), NodeSerialization.toValue(leaf).get());
+  }
+
+  @Test
+  public void rootIsFirstKey() throws Exception {
+    MerkleTree tree = new MerkleTree(createStoredLeaves(5), "MD5");
+
+    Key rootKey = NodeSerialization.toKey(tree.getRootNode());
+    Assert.assertEquals(RangeSerialization.toKey(new Range()).getRow(), rootKey.getRow());
+    Assert.assertEquals(NodeSerialization.NODE_COLFAM, rootKey.getColumnFamily());
+    Assert.assertEquals(new Range(), RangeSerialization.toRange(rootKey));
+  }
+
+  /**
+   * Leaves as they are read back from a table of hashes
+   */
+  static List<MerkleTreeNode> createStoredLeaves(int numLeaves) {
+    List<MerkleTreeNode> leaves = new ArrayList<>(numLeaves);
+    String prevEndRow = "";
+    for (int i = 0; i < numLeaves; i++) {
+      String endRow = (i == numLeaves - 1) ? "" : String.format("%05d", i + 1);
+      Value hash = new Value(("hash" + i).getBytes(StandardCharsets.UTF_8));
+      leaves.add(new MerkleTreeNode(new Key(prevEndRow, "", endRow), hash));
+      prevEndRow = endRow;
+    }
+    return leaves;
+  }
+
+}
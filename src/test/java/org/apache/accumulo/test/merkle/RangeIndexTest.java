@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.util.Arrays;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class RangeIndexTest {
+
+  private final Range first = new Range(null, false, new Text("c"), true), second = new Range(new Text("c"), false, new Text("f"), true),
+      third = new Range(new Text("m"), true, null, false);
+  private final RangeIndex index = new RangeIndex(Arrays.asList(third, first, second));
+
+  @Test
+  public void findsContainingRange() {
+    Assert.assertEquals(first, index.get(new Key()));
+    Assert.assertEquals(first, index.get(new Key("c", "cf", "cq")));
+    Assert.assertEquals(second, index.get(new Key("c\0")));
+    Assert.assertEquals(second, index.get(new Key("f", "cf", "cq")));
+    Assert.assertEquals(third, index.get(new Key("m")));
+    Assert.assertEquals(third, index.get(new Key("zzz")));
+
+    // Between the second and third ranges
+    Assert.assertNull(index.get(new Key("g")));
+  }
+
+  @Test
+  public void containsRange() {
+    Assert.assertTrue(index.containsRange(first));
+    Assert.assertTrue(index.containsRange(new Range("a", "b")));
+    Assert.assertTrue(index.containsRange(new Range(new Text("c"), false, new Text("d"), true)));
+    Assert.assertTrue(index.containsRange(new Range(new Text("n"), true, null, false)));
+
+    Assert.assertFalse(index.containsRange(new Range("b", "d")));
+    Assert.assertFalse(index.containsRange(new Range()));
+    Assert.assertFalse(index.containsRange(new Range("g", "h")));
+  }
+
+}
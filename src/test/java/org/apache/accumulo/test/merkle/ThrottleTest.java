@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class ThrottleTest {
+
+  @Test
+  public void unlimitedByDefault() {
+    Throttle throttle = new Throttle(0d, -1d);
+    Assert.assertFalse(throttle.isLimited());
+    Assert.assertEquals(0d, throttle.getEntriesPerSecond(), 0d);
+    Assert.assertEquals(0d, throttle.getBytesPerSecond(), 0d);
+
+    throttle.setBytesPerSecond(1000d);
+    Assert.assertTrue(throttle.isLimited());
+    Assert.assertEquals(1000d, throttle.getBytesPerSecond(), 0.001d);
+
+    throttle.setBytesPerSecond(0d);
+    Assert.assertFalse(throttle.isLimited());
+  }
+
+  @Test
+  public void entriesAreReadWithinTheLimit() {
+    SortedMap<Key,Value> data = createData(1000);
+
+    // A thousand entries at two thousand per second take about half a second, less the first batch which is free
+    Throttle throttle = new Throttle(2000d, 0d);
+    long start = System.nanoTime();
+    Assert.assertEquals(new ArrayList<>(data.entrySet()), read(Throttle.throttle(data.entrySet(), throttle)));
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+
+    // Raising the limit applies to the next batch
+    throttle.setEntriesPerSecond(1000000d);
+    start = System.nanoTime();
+    read(Throttle.throttle(data.entrySet(), throttle));
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 400);
+  }
+
+  @Test
+  public void everyThrottleApplies() {
+    SortedMap<Key,Value> data = createData(500);
+
+    // The bytes are the lower limit, at a little over two seconds for all of the data
+    long size = 0l;
+    for (Entry<Key,Value> entry : data.entrySet()) {
+      size += entry.getKey().getSize() + entry.getValue().getSize();
+    }
+
+    Throttle entries = new Throttle(1000000d, 0d), bytes = new Throttle(0d, size / 2d);
+    long start = System.nanoTime();
+    read(Throttle.throttle(data.entrySet(), entries, null, bytes));
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+  }
+
+  private SortedMap<Key,Value> createData(int numEntries) {
+    SortedMap<Key,Value> data = new TreeMap<>();
+    for (int i = 0; i < numEntries; i++) {
+      data.put(new Key(String.format("%05d", i), "cf", "cq"), new Value(("val" + i).getBytes(StandardCharsets.UTF_8)));
+    }
+    return data;
+  }
+
+  private List<Entry<Key,Value>> read(Iterable<Entry<Key,Value>> entries) {
+    List<Entry<Key,Value>> read = new ArrayList<>();
+    for (Entry<Key,Value> entry : entries) {
+      read.add(entry);
+    }
+    return read;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class BoundedExecutorTest {
+
+  private ExecutorService svc;
+
+  @Before
+  public void createThreads() {
+    svc = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void stopThreads() {
+    svc.shutdownNow();
+  }
+
+  @Test
+  public void limitsOutstandingTasks() throws Exception {
+    final BoundedExecutor executor = new BoundedExecutor(svc, 3);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger completed = new AtomicInteger();
+
+    final Runnable blocked = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        completed.incrementAndGet();
+      }
+    };
+
+    for (int i = 0; i < 3; i++) {
+      executor.submit(blocked);
+    }
+
+    // A fourth task can't be submitted until one of the first three completes
+    final CountDownLatch submitted = new CountDownLatch(1);
+    Thread submitter = new Thread() {
+      @Override
+      public void run() {
+        executor.submit(blocked);
+        submitted.countDown();
+      }
+    };
+    submitter.start();
+
+    Thread.sleep(200);
+    Assert.assertEquals(1, submitted.getCount());
+
+    release.countDown();
+    submitted.await();
+    submitter.join();
+
+    executor.await();
+    Assert.assertEquals(4, completed.get());
+  }
+
+  @Test
+  public void trySubmitOnlyWithRoom() throws Exception {
+    final BoundedExecutor executor = new BoundedExecutor(svc, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger completed = new AtomicInteger();
+
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        completed.incrementAndGet();
+      }
+    };
+
+    Assert.assertTrue(executor.trySubmit(task));
+    Assert.assertEquals(1, executor.getNumOutstanding());
+
+    // No room for a second task, but trySubmit doesn't wait for one
+    Assert.assertFalse(executor.trySubmit(task));
+
+    release.countDown();
+    executor.await();
+    Assert.assertEquals(0, executor.getNumOutstanding());
+    Assert.assertEquals(1, completed.get());
+  }
+
+  @Test
+  public void rethrowsFirstFailure() throws Exception {
+    BoundedExecutor executor = new BoundedExecutor(svc, 1);
+    final IllegalStateException failure = new IllegalStateException("fail");
+    final AtomicInteger completed = new AtomicInteger();
+
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        throw failure;
+      }
+    });
+
+    try {
+      executor.await();
+      Assert.fail("Expected the failure of the first task");
+    } catch (RuntimeException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+
+    try {
+      // Nothing more is run after a failure
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          completed.incrementAndGet();
+        }
+      });
+      Assert.fail("Expected the failure of the first task");
+    } catch (RuntimeException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+
+    Assert.assertEquals(0, completed.get());
+  }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.cli.ClientOpts.Password;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.minicluster.MiniAccumuloCluster;
+import org.apache.accumulo.minicluster.MiniAccumuloConfig;
+import org.apache.accumulo.test.merkle.cli.CompareTables.CompareTablesOpts;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.io.Text;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * Compares tables in two separate instances, as when verifying replication
+ */
+public class CompareTablesMacTest {
+  private static final File BASE_MAC_DIR = new File(System.getProperty("user.dir") + "/target/minicluster-compare");
+  private static final String PASSWORD = "password";
+
+  private static MiniAccumuloCluster primary, replica;
+
+  @Rule
+  public TestName test = new TestName();
+
+  @BeforeClass
+  public static void startMiniClusters() throws Exception {
+    if (BASE_MAC_DIR.exists()) {
+      FileUtils.deleteDirectory(BASE_MAC_DIR);
+    }
+
+    primary = startMiniCluster(new File(BASE_MAC_DIR, "primary"), "primary");
+    replica = startMiniCluster(new File(BASE_MAC_DIR, "replica"), "replica");
+  }
+
+  private static MiniAccumuloCluster startMiniCluster(File dir, String instanceName) throws Exception {
+    dir.mkdirs();
+
+    MiniAccumuloConfig cfg = new MiniAccumuloConfig(dir, PASSWORD);
+    cfg.setInstanceName(instanceName);
+    MiniAccumuloCluster cluster = new MiniAccumuloCluster(cfg);
+    cluster.start();
+
+    return cluster;
+  }
+
+  @AfterClass
+  public static void stopMiniClusters() throws Exception {
+    for (MiniAccumuloCluster cluster : Arrays.asList(primary, replica)) {
+      if (null != cluster) {
+        cluster.stop();
+      }
+    }
+  }
+
+  @Test
+  public void identicalTablesInMemory() throws Exception {
+    compareIdenticalTables(true);
+  }
+
+  @Test
+  public void identicalTablesWithOutputTables() throws Exception {
+    compareIdenticalTables(false);
+  }
+
+  @Test
+  public void findsDifferenceInReplica() throws Exception {
+    final String table = test.getMethodName();
+    writeData(primary.getConnector("root", PASSWORD), table, -1);
+    writeData(replica.getConnector("root", PASSWORD), table, 750);
+
+    CompareTablesOpts opts = createOpts(table, true);
+    opts.setDiff(true);
+
+    CompareTables compareTables = new CompareTables(opts);
+    Map<String,String> hashes = compareTables.computeAllHashes();
+
+    final String replicaName = replica.getInstanceName() + ":" + table;
+    Assert.assertNotEquals(hashes.get(table), hashes.get(replicaName));
+
+    Map<String,List<Range>> differences = compareTables.findDifferences(hashes);
+    Assert.assertEquals(Collections.singleton(replicaName), differences.keySet());
+    Assert.assertEquals(1, differences.get(replicaName).size());
+    Assert.assertTrue(differences.get(replicaName).get(0).contains(new Key(String.format("%04d", 750))));
+  }
+
+  private void compareIdenticalTables(boolean inMemory) throws Exception {
+    final String table = test.getMethodName();
+    Connector primaryConn = primary.getConnector("root", PASSWORD), replicaConn = replica.getConnector("root", PASSWORD);
+    writeData(primaryConn, table, -1);
+    writeData(replicaConn, table, -1);
+
+    // Replicas don't share split points
+    TreeSet<Text> splits = new TreeSet<>();
+    splits.add(new Text("0333"));
+    splits.add(new Text("0666"));
+    replicaConn.tableOperations().addSplits(table, splits);
+
+    Map<String,String> hashes = new CompareTables(createOpts(table, inMemory)).computeAllHashes();
+
+    Assert.assertEquals(2, hashes.size());
+    Assert.assertEquals(hashes.get(table), hashes.get(replica.getInstanceName() + ":" + table));
+
+    // Leaves are only written in the instance which holds each table
+    Assert.assertEquals(!inMemory, primaryConn.tableOperations().exists(table + "_merkle"));
+    Assert.assertEquals(!inMemory, replicaConn.tableOperations().exists(table + "_merkle"));
+  }
+
+  /**
+   * Compares the table in the primary with the table of the same name in the replica, over the same leaves
+   */
+  private CompareTablesOpts createOpts(String table, boolean inMemory) throws Exception {
+    File splitsFile = new File(BASE_MAC_DIR, test.getMethodName() + ".txt");
+    FileUtils.writeLines(splitsFile, Arrays.asList("0250", "0500", "0750"));
+
+    CompareTablesOpts opts = new CompareTablesOpts();
+    opts.auths = new Authorizations();
+    opts.instance = primary.getInstanceName();
+    opts.zookeepers = primary.getZooKeepers();
+    opts.principal = "root";
+    opts.tokenClassName = PasswordToken.class.getName();
+    opts.password = new Password(PASSWORD);
+    opts.setHashName("MD5");
+    opts.setNumThreads(2);
+    opts.setIteratorPushdown(true);
+    opts.setSplitsFile(splitsFile.getAbsolutePath());
+    opts.setInMemory(inMemory);
+    opts.setTables(Arrays.asList(table));
+    opts.setRemoteTables(Arrays.asList(table));
+    opts.setRemoteInstance(replica.getInstanceName());
+    opts.setRemoteZookeepers(replica.getZooKeepers());
+
+    return opts;
+  }
+
+  /**
+   * @param different
+   *          A row to write a different value for, or -1
+   */
+  private void writeData(Connector conn, String table, int different) throws Exception {
+    conn.tableOperations().create(table);
+
+    BatchWriter bw = conn.createBatchWriter(table, new BatchWriterConfig());
+    for (int i = 0; i < 1000; i++) {
+      Mutation m = new Mutation(String.format("%04d", i));
+      m.put("cf", "cq", different == i ? "different" : "val" + i);
+      bw.addMutation(m);
+    }
+    bw.close();
+  }
+
+}
@@ -19,7 +19,10 @@ package org.apache.accumulo.test.merkle.cli;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeSet;
 
@@ -32,12 +35,23 @@ import org.apache.accumulo.core.client.security.tokens.PasswordToken;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.minicluster.MiniAccumuloCluster;
 import org.apache.accumulo.minicluster.MiniAccumuloConfig;
+import org.apache.accumulo.test.merkle.LeafAggregation;
+import org.apache.accumulo.test.merkle.MappedMerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeFile;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.NodeSerialization;
 import org.apache.accumulo.test.merkle.cli.GenerateHashes;
+import org.apache.accumulo.test.merkle.cli.CompareTables.CompareTablesOpts;
+import org.apache.accumulo.test.merkle.cli.ComputeRootHash.ComputeRootHashOpts;
 import org.apache.accumulo.test.merkle.cli.GenerateHashes.GenerateHashesOpts;
+import org.apache.accumulo.test.merkle.sink.MemoryLeafSink;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.io.Text;
 import org.junit.After;
@@ -151,4 +165,463 @@ public class GenerateHashesMacTest {
     Assert.assertEquals("Expected to find more keys in the hashes table: " + expectedKeys, 0, expectedKeys.size());
   }
 
+  @Test
+  public void clientDigestMatchesIterator() throws Exception {
+    BatchWriter bw = conn.createBatchWriter(tableName, new BatchWriterConfig());
+    for (int i = 0; i < 1000; i++) {
+      Mutation m = new Mutation(String.format("%04d", i));
+      m.put("cf" + (i % 3), "cq" + (i % 7), "val" + i);
+      if (0 == i % 10) {
+        m.putDelete("cf", "deleted");
+      }
+      bw.addMutation(m);
+    }
+
+    bw.close();
+
+    TreeSet<Text> splits = new TreeSet<>();
+    splits.add(new Text("0250"));
+    splits.add(new Text("0500"));
+    splits.add(new Text("0750"));
+
+    conn.tableOperations().addSplits(tableName, splits);
+
+    final String clientOutputTable = "clientHashes", iteratorOutputTable = "iteratorHashes";
+    conn.tableOperations().create(clientOutputTable);
+    conn.tableOperations().create(iteratorOutputTable);
+
+    GenerateHashes generate = new GenerateHashes();
+    generate.run(conn, tableName, clientOutputTable, "SHA-1", 2, false, generate.getRanges(conn, tableName, null));
+    generate.run(conn, tableName, iteratorOutputTable, "SHA-1", 2, true, generate.getRanges(conn, tableName, null));
+
+    Assert.assertEquals(4, assertSameLeaves(clientOutputTable, iteratorOutputTable));
+  }
+
+  @Test
+  public void combinableHashesAcrossDifferentSplits() throws Exception {
+    final String otherTableName = tableName + "_other";
+    conn.tableOperations().create(otherTableName);
+
+    writeRows(tableName, 1000);
+    writeRows(otherTableName, 1000);
+
+    addSplits(tableName, "0250", "0500", "0750");
+    addSplits(otherTableName, "0100", "0500");
+
+    final String hashes = "hashes", otherHashes = "otherHashes", canonical = "canonical", otherCanonical = "otherCanonical";
+    for (String table : Arrays.asList(hashes, otherHashes, canonical, otherCanonical)) {
+      conn.tableOperations().create(table);
+    }
+
+    GenerateHashes generate = new GenerateHashes();
+    generate.run(conn, tableName, hashes, "MD5", 2, true, true, generate.getRanges(conn, tableName, null));
+    generate.run(conn, otherTableName, otherHashes, "MD5", 2, true, true, generate.getRanges(conn, otherTableName, null));
+
+    ComputeRootHash computeRootHash = new ComputeRootHash();
+    List<MerkleTreeNode> leaves = computeRootHash.getLeaves(conn, hashes), otherLeaves = computeRootHash.getLeaves(conn, otherHashes);
+    List<Range> common = LeafAggregation.commonRanges(leaves, otherLeaves);
+    Assert.assertEquals(2, common.size());
+
+    AggregateHashes aggregate = new AggregateHashes();
+    aggregate.aggregate(conn, leaves, common, canonical);
+    aggregate.aggregate(conn, otherLeaves, common, otherCanonical);
+
+    Assert.assertArrayEquals(computeRootHash.getHash(conn, canonical, "MD5"), computeRootHash.getHash(conn, otherCanonical, "MD5"));
+
+    // Hashing the common ranges directly, across tablets, gives the same leaves
+    final String direct = "direct";
+    conn.tableOperations().create(direct);
+    generate.run(conn, tableName, direct, "MD5", 2, true, true, common);
+
+    Assert.assertArrayEquals(computeRootHash.getHash(conn, canonical, "MD5"), computeRootHash.getHash(conn, direct, "MD5"));
+  }
+
+  @Test
+  public void incrementalOnlyHashesChangedTablets() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0250", "0500", "0750");
+
+    final String hashes = "incrementalHashes", fullHashes = "fullHashes";
+    createTables(hashes, fullHashes);
+
+    GenerateHashes generate = new GenerateHashes();
+    Assert.assertEquals(4, generate.runIncremental(conn, tableName, hashes, "MD5", 2, true, false));
+    Assert.assertEquals(0, generate.runIncremental(conn, tableName, hashes, "MD5", 2, true, false));
+
+    // Only the tablet which was written to should be hashed again
+    writeRow(tableName, "0600", "updated");
+
+    Assert.assertEquals(1, generate.runIncremental(conn, tableName, hashes, "MD5", 2, true, false));
+
+    // Different hash options can't reuse anything
+    Assert.assertEquals(4, generate.runIncremental(conn, tableName, hashes, "SHA-1", 2, true, false));
+    Assert.assertEquals(4, generate.runIncremental(conn, tableName, hashes, "MD5", 2, true, false));
+
+    // Leaves for the old tablets are replaced after a split
+    addSplits(tableName, "0100");
+    Assert.assertEquals(2, generate.runIncremental(conn, tableName, hashes, "MD5", 2, true, false));
+
+    generate.run(conn, tableName, fullHashes, "MD5", 2, true, generate.getRanges(conn, tableName, null));
+
+    ComputeRootHash computeRootHash = new ComputeRootHash();
+    Assert.assertEquals(5, computeRootHash.getLeaves(conn, hashes).size());
+    Assert.assertArrayEquals(computeRootHash.getHash(conn, fullHashes, "MD5"), computeRootHash.getHash(conn, hashes, "MD5"));
+  }
+
+  @Test
+  public void chunkedPushdownCreatesFinerLeaves() throws Exception {
+    BatchWriter bw = conn.createBatchWriter(tableName, new BatchWriterConfig());
+    for (int i = 0; i < 1000; i++) {
+      Mutation m = new Mutation(String.format("%04d", i));
+      m.put("cf1", "cq", "val" + i);
+      m.put("cf2", "cq", "val" + i);
+      bw.addMutation(m);
+    }
+    bw.close();
+
+    addSplits(tableName, "0499", "2000");
+
+    final String chunkedHashes = "chunkedHashes", clientHashes = "clientHashes";
+    createTables(chunkedHashes, clientHashes);
+
+    GenerateHashes generate = new GenerateHashes();
+    generate.setChunkEntries(100);
+    generate.run(conn, tableName, chunkedHashes, "MD5", 2, true, generate.getRanges(conn, tableName, null));
+
+    // 50 rows per leaf, and one leaf for the empty tablet
+    ComputeRootHash computeRootHash = new ComputeRootHash();
+    List<MerkleTreeNode> leaves = computeRootHash.getLeaves(conn, chunkedHashes);
+    Assert.assertEquals(21, leaves.size());
+
+    // Hashing the same ranges on the client gives the same leaves
+    List<Range> leafRanges = new ArrayList<>();
+    for (MerkleTreeNode leaf : leaves) {
+      leafRanges.add(leaf.getRange());
+    }
+    new GenerateHashes().run(conn, tableName, clientHashes, "MD5", 2, false, leafRanges);
+
+    Assert.assertArrayEquals(computeRootHash.getHash(conn, clientHashes, "MD5"), computeRootHash.getHash(conn, chunkedHashes, "MD5"));
+  }
+
+  @Test
+  public void pushdownWithSplitsFile() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0500");
+
+    // Several leaves in each tablet, one which spans both tablets, and one without any data
+    File splitsFile = writeSplitsFile("0100", "0200", "0300", "0600", "0700", "2000");
+
+    final String iteratorHashes = "splitsIteratorHashes", clientHashes = "splitsClientHashes";
+    createTables(iteratorHashes, clientHashes);
+
+    GenerateHashes generate = new GenerateHashes();
+    Collection<Range> ranges = generate.getRanges(conn, tableName, splitsFile.getAbsolutePath());
+    Assert.assertEquals(7, ranges.size());
+
+    generate.run(conn, tableName, iteratorHashes, "MD5", 2, true, ranges);
+    generate.run(conn, tableName, clientHashes, "MD5", 2, false, ranges);
+
+    Assert.assertEquals(7, assertSameLeaves(clientHashes, iteratorHashes));
+  }
+
+  @Test
+  public void batchScannersMatchScanners() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0500");
+
+    // Several leaves in each tablet, one which spans both tablets, and one without any data
+    File splitsFile = writeSplitsFile("0100", "0200", "0300", "0600", "0700", "2000");
+
+    final String batchHashes = "batchScannerHashes", clientHashes = "scannerHashes";
+    createTables(batchHashes, clientHashes);
+
+    GenerateHashes generate = new GenerateHashes();
+    Collection<Range> ranges = generate.getRanges(conn, tableName, splitsFile.getAbsolutePath());
+
+    generate.run(conn, tableName, clientHashes, "MD5", 2, false, ranges);
+    generate.setNumBatchScanners(2);
+    generate.run(conn, tableName, batchHashes, "MD5", 2, false, ranges);
+
+    Assert.assertEquals(7, assertSameLeaves(clientHashes, batchHashes));
+  }
+
+  @Test
+  public void balancedRangesMatchUnbalanced() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0100");
+
+    // The sizes of the tablets are only known once they have files
+    conn.tableOperations().flush(tableName, null, null, true);
+
+    GenerateHashes generate = new GenerateHashes();
+    Collection<Range> ranges = generate.getRanges(conn, tableName, null);
+
+    for (boolean combinable : new boolean[] {false, true}) {
+      for (boolean pushdown : new boolean[] {false, true}) {
+        final String expectedHashes = "expected" + combinable + pushdown, balancedHashes = "balanced" + combinable + pushdown;
+        createTables(expectedHashes, balancedHashes);
+
+        generate.setBalanceRanges(false);
+        generate.run(conn, tableName, expectedHashes, "MD5", 2, pushdown, combinable, ranges);
+
+        // Small enough to divide the larger tablet as much as possible
+        generate.setBalanceRanges(true);
+        generate.setTargetRangeSize(1);
+        generate.run(conn, tableName, balancedHashes, "MD5", 2, pushdown, combinable, ranges);
+
+        // Still one leaf for each tablet
+        Assert.assertEquals(2, assertSameLeaves(expectedHashes, balancedHashes));
+      }
+    }
+  }
+
+  @Test
+  public void scansPerServerMatchInOrder() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0249", "0499", "0749");
+
+    final String expectedHashes = "inOrderHashes", scheduledHashes = "scheduledHashes";
+    createTables(expectedHashes, scheduledHashes);
+
+    GenerateHashes generate = new GenerateHashes();
+    Collection<Range> ranges = generate.getRanges(conn, tableName, null);
+    generate.run(conn, tableName, expectedHashes, "MD5", 2, false, ranges);
+
+    generate.setMaxScansPerServer(1);
+    generate.run(conn, tableName, scheduledHashes, "MD5", 2, false, ranges);
+
+    Assert.assertEquals(4, assertSameLeaves(expectedHashes, scheduledHashes));
+  }
+
+  @Test
+  public void memorySinkMatchesTable() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0249", "0499", "0749");
+
+    final String outputTable = "tableSinkHashes";
+    conn.tableOperations().create(outputTable);
+
+    // Chunks from every tablet arrive interleaved, so the memory sink has to reorder them
+    GenerateHashes generate = new GenerateHashes();
+    generate.setChunkEntries(50);
+    Collection<Range> ranges = generate.getRanges(conn, tableName, null);
+
+    generate.run(conn, tableName, outputTable, "MD5", 2, true, ranges);
+
+    MemoryLeafSink sink = new MemoryLeafSink("MD5");
+    generate.run(conn, tableName, sink, "MD5", 2, true, false, ranges);
+    sink.close();
+
+    // 50 rows per leaf
+    Assert.assertEquals(20, sink.getNumLeaves());
+    Assert.assertArrayEquals(new ComputeRootHash().getHash(conn, outputTable, "MD5"), sink.getRootNode().getHash());
+  }
+
+  @Test
+  public void compareTablesConcurrently() throws Exception {
+    final String copy = tableName + "_copy", other = tableName + "_other";
+    createTables(copy, other);
+
+    for (String table : Arrays.asList(tableName, copy, other)) {
+      writeRows(table, 1000);
+    }
+
+    writeRow(other, "0500", "different");
+
+    // The same data split differently
+    addSplits(copy, "0500");
+    addSplits(other, "0500");
+
+    File splitsFile = writeSplitsFile("0250", "0500", "0750");
+
+    CompareTablesOpts opts = new CompareTablesOpts();
+    opts.auths = new Authorizations();
+    opts.instance = cluster.getInstanceName();
+    opts.zookeepers = cluster.getZooKeepers();
+    opts.principal = "root";
+    opts.tokenClassName = PasswordToken.class.getName();
+    opts.password = new Password(PASSWORD);
+    opts.setHashName("MD5");
+    opts.setNumThreads(2);
+    opts.setSplitsFile(splitsFile.getAbsolutePath());
+    opts.setTables(Arrays.asList(tableName, copy, other));
+    opts.setInMemory(true);
+    opts.setDiff(true);
+
+    CompareTables compareTables = new CompareTables(opts);
+    Map<String,String> hashes = compareTables.computeAllHashes();
+
+    Assert.assertEquals(hashes.get(tableName), hashes.get(copy));
+    Assert.assertNotEquals(hashes.get(tableName), hashes.get(other));
+
+    Map<String,List<Range>> differences = compareTables.findDifferences(hashes);
+    Assert.assertEquals(Collections.singleton(other), differences.keySet());
+    Assert.assertEquals(1, differences.get(other).size());
+    Assert.assertTrue(differences.get(other).get(0).contains(new Key("0500")));
+  }
+
+  @Test
+  public void exportAndImportTreeFiles() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0100", "0200", "0300", "0400", "0500", "0600", "0700", "0800", "0900");
+
+    final String hashes = "exportedHashes", imported = "importedHashes";
+    createTables(hashes, imported);
+
+    GenerateHashes generate = new GenerateHashes();
+    generate.run(conn, tableName, hashes, "MD5", 2, true, generate.getRanges(conn, tableName, null));
+
+    ComputeRootHash computeRootHash = new ComputeRootHash();
+    MerkleTree tree = new MerkleTree(computeRootHash.getLeaves(conn, hashes), "MD5");
+    File treeFile = new File(BASE_MAC_DIR, test.getMethodName() + ".mt");
+    MerkleTreeFile.write(tree, treeFile);
+
+    MappedMerkleTree mapped = new MappedMerkleTree(treeFile);
+    Assert.assertEquals(10, mapped.getNumLeaves());
+    Assert.assertEquals(tree.getRootNode(), mapped.getRootNode());
+
+    // Importing the file elsewhere gives the same leaves
+    computeRootHash.importLeaves(conn, imported, mapped, "MD5");
+    Assert.assertArrayEquals(computeRootHash.getHash(conn, hashes, "MD5"), computeRootHash.getHash(conn, imported, "MD5"));
+
+    // A different table only differs in the leaf which was changed
+    writeRow(tableName, "0450", "different");
+
+    final String changedHashes = "changedHashes";
+    conn.tableOperations().create(changedHashes);
+    generate.run(conn, tableName, changedHashes, "MD5", 2, true, generate.getRanges(conn, tableName, null));
+    File changedFile = new File(BASE_MAC_DIR, test.getMethodName() + "-changed.mt");
+    MerkleTreeFile.write(new MerkleTree(computeRootHash.getLeaves(conn, changedHashes), "MD5"), changedFile);
+
+    List<Range> differences = new DiffMerkleTrees().diffFiles(treeFile, changedFile);
+    Assert.assertEquals(1, differences.size());
+    Assert.assertTrue(differences.get(0).contains(new Key("0450")));
+  }
+
+  @Test
+  public void persistedNodesAreReplaced() throws Exception {
+    writeRows(tableName, 1000);
+    addSplits(tableName, "0250", "0500", "0750");
+
+    final String hashes = "persistedHashes", fullHashes = "fullPersistedHashes";
+    createTables(hashes, fullHashes);
+
+    GenerateHashes generate = new GenerateHashes();
+    generate.runIncremental(conn, tableName, hashes, "MD5", 2, true, false);
+    persistNodes(hashes);
+
+    // Regenerate the leaves over different tablets, so that some of the persisted nodes are no longer in the tree
+    writeRow(tableName, "0600", "updated");
+    addSplits(tableName, "0100");
+    generate.runIncremental(conn, tableName, hashes, "MD5", 2, true, false);
+    persistNodes(hashes);
+
+    generate.run(conn, tableName, fullHashes, "MD5", 2, true, generate.getRanges(conn, tableName, null));
+    persistNodes(fullHashes);
+
+    Assert.assertEquals(Collections.<Range> emptyList(), new DiffMerkleTrees().diffPersisted(conn, hashes, fullHashes, "MD5"));
+
+    // Only the interior nodes of the new tree are left
+    List<List<MerkleTreeNode>> levels = new ComputeRootHash().getFlatTree(conn, hashes, "MD5", Shape.COMPATIBLE).getLevels();
+    int numInteriorNodes = 0;
+    for (List<MerkleTreeNode> level : levels.subList(1, levels.size())) {
+      numInteriorNodes += level.size();
+    }
+    Assert.assertEquals(4, numInteriorNodes);
+    Assert.assertEquals(numInteriorNodes, countPersistedNodes(hashes));
+    Assert.assertEquals(numInteriorNodes, countPersistedNodes(fullHashes));
+  }
+
+  /**
+   * Writes rows "0000", "0001" and so on, each with one entry
+   */
+  private void writeRows(String table, int numRows) throws Exception {
+    BatchWriter bw = conn.createBatchWriter(table, new BatchWriterConfig());
+    for (int i = 0; i < numRows; i++) {
+      Mutation m = new Mutation(String.format("%04d", i));
+      m.put("cf", "cq", "val" + i);
+      bw.addMutation(m);
+    }
+    bw.close();
+  }
+
+  /**
+   * Writes one entry to the row, replacing any value written by {@link #writeRows(String, int)}
+   */
+  private void writeRow(String table, String row, String value) throws Exception {
+    BatchWriter bw = conn.createBatchWriter(table, new BatchWriterConfig());
+    Mutation m = new Mutation(row);
+    m.put("cf", "cq", value);
+    bw.addMutation(m);
+    bw.close();
+  }
+
+  private void createTables(String... tables) throws Exception {
+    for (String table : tables) {
+      conn.tableOperations().create(table);
+    }
+  }
+
+  private File writeSplitsFile(String... rows) throws Exception {
+    File splitsFile = new File(BASE_MAC_DIR, test.getMethodName() + ".txt");
+    FileUtils.writeLines(splitsFile, Arrays.asList(rows));
+    return splitsFile;
+  }
+
+  private void addSplits(String table, String... rows) throws Exception {
+    TreeSet<Text> splits = new TreeSet<>();
+    for (String row : rows) {
+      splits.add(new Text(row));
+    }
+    conn.tableOperations().addSplits(table, splits);
+  }
+
+  /**
+   * Asserts that two tables of hashes hold the same leaves
+   *
+   * @return The number of leaves
+   */
+  private int assertSameLeaves(String expectedTable, String actualTable) throws Exception {
+    List<Entry<Key,Value>> expected = new ArrayList<>(), actual = new ArrayList<>();
+    for (Entry<Key,Value> entry : conn.createScanner(expectedTable, new Authorizations())) {
+      expected.add(entry);
+    }
+    for (Entry<Key,Value> entry : conn.createScanner(actualTable, new Authorizations())) {
+      actual.add(entry);
+    }
+
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(0, expected.get(i).getKey().compareTo(actual.get(i).getKey(), PartialKey.ROW_COLFAM_COLQUAL_COLVIS));
+      Assert.assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+    }
+    return actual.size();
+  }
+
+  private void persistNodes(String hashesTable) throws Exception {
+    ComputeRootHashOpts opts = new ComputeRootHashOpts();
+    opts.auths = new Authorizations();
+    opts.instance = cluster.getInstanceName();
+    opts.zookeepers = cluster.getZooKeepers();
+    opts.principal = "root";
+    opts.tokenClassName = PasswordToken.class.getName();
+    opts.password = new Password(PASSWORD);
+    opts.setHashName("MD5");
+    opts.setTableName(hashesTable);
+    opts.setPersist(true);
+
+    new ComputeRootHash().getHash(opts);
+  }
+
+  private int countPersistedNodes(String hashesTable) throws Exception {
+    Scanner s = conn.createScanner(hashesTable, new Authorizations());
+    s.fetchColumnFamily(NodeSerialization.NODE_COLFAM);
+    int count = 0;
+    for (Entry<Key,Value> entry : s) {
+      Assert.assertEquals(NodeSerialization.NODE_COLFAM, entry.getKey().getColumnFamily());
+      count++;
+    }
+    return count;
+  }
+
 }
@@ -16,11 +16,19 @@
  */
 package org.apache.accumulo.test.merkle.cli;
 
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.TreeSet;
 
+import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
 import org.apache.accumulo.test.merkle.cli.GenerateHashes;
 import org.apache.hadoop.io.Text;
 import org.junit.Assert;
@@ -62,4 +70,24 @@ public class GenerateHashesTest {
     Assert.assertEquals(new Range("x\0", true, null, false), r);
   }
 
+  @Test
+  public void chunkLeavesCoverRange() {
+    GenerateHashes generate = new GenerateHashes();
+    Range range = new Range(new Text("a"), false, new Text("z"), true);
+
+    List<Entry<Key,Value>> digests = new ArrayList<>();
+    for (String row : Arrays.asList("c", "f", "x")) {
+      digests.add(new SimpleImmutableEntry<>(new Key(row, "cf", "cq"), new Value(row.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    List<MerkleTreeNode> leaves = generate.getChunkLeaves(range, digests);
+    Assert.assertEquals(3, leaves.size());
+
+    // Each digest ends after its row, except the last which ends with the range
+    Assert.assertEquals(new Range(new Text("a"), false, new Text("c"), true), leaves.get(0).getRange());
+    Assert.assertEquals(new Range(new Text("c"), false, new Text("f"), true), leaves.get(1).getRange());
+    Assert.assertEquals(new Range(new Text("f"), false, new Text("z"), true), leaves.get(2).getRange());
+    Assert.assertArrayEquals("f".getBytes(StandardCharsets.UTF_8), leaves.get(1).getHash());
+  }
+
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.ObjectName;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class HashMetricsTest {
+
+  @Test
+  public void countsEntriesFromEachServer() {
+    SortedMap<Key,Value> data = new TreeMap<>();
+    long size = 0l;
+    for (int i = 0; i < 250; i++) {
+      Key key = new Key(String.format("%04d", i), "cf", "cq");
+      Value value = new Value(("val" + i).getBytes(StandardCharsets.UTF_8));
+      data.put(key, value);
+      size += key.getSize() + value.getSize();
+    }
+
+    HashMetrics metrics = new HashMetrics();
+    for (String server : new String[] {"server1", "server1", "server2", null}) {
+      int read = 0;
+      Iterator<Entry<Key,Value>> entries = metrics.count(server, data.entrySet()).iterator();
+      while (entries.hasNext()) {
+        entries.next();
+        read++;
+      }
+      Assert.assertEquals(data.size(), read);
+    }
+
+    Assert.assertEquals(4 * data.size(), metrics.getEntriesHashed());
+    Assert.assertEquals(4 * size, metrics.getBytesHashed());
+
+    Map<String,Long> expected = new HashMap<>();
+    expected.put("server1", 2l * data.size());
+    expected.put("server2", (long) data.size());
+    expected.put(HashMetrics.UNKNOWN_SERVER, (long) data.size());
+    Assert.assertEquals(expected, metrics.getServerEntriesHashed());
+    Assert.assertEquals(3, metrics.getServerBytesPerSecond().size());
+  }
+
+  @Test
+  public void tracksRangesAndTimeRemaining() throws Exception {
+    Range first = new Range("a", "b"), second = new Range("c", "d");
+    Map<Range,Long> sizes = new HashMap<>();
+    sizes.put(first, 100l);
+    sizes.put(second, 300l);
+
+    HashMetrics metrics = new HashMetrics();
+    metrics.addEstimatedSizes(sizes);
+    Assert.assertEquals(-1l, metrics.getEstimatedSecondsRemaining());
+
+    final CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+    final Runnable task = metrics.track(first, new Runnable() {
+      @Override
+      public void run() {
+        running.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    Assert.assertEquals(1, metrics.getRangesQueued());
+
+    Thread thread = new Thread(task);
+    thread.start();
+    running.await();
+    Assert.assertEquals(0, metrics.getRangesQueued());
+    Assert.assertEquals(1, metrics.getRangesInFlight());
+
+    release.countDown();
+    thread.join();
+    Assert.assertEquals(0, metrics.getRangesInFlight());
+    Assert.assertEquals(1, metrics.getRangesCompleted());
+
+    // A quarter of the estimated size is done
+    Assert.assertEquals(0.25d, metrics.getFractionComplete(), 0.0001d);
+    Assert.assertTrue(metrics.getEstimatedSecondsRemaining() >= 0);
+
+    metrics.rangeCompleted(second);
+    Assert.assertEquals(1d, metrics.getFractionComplete(), 0.0001d);
+    Assert.assertEquals(0l, metrics.getEstimatedSecondsRemaining());
+  }
+
+  @Test
+  public void histogramPercentiles() {
+    HashMetrics.Histogram histogram = new HashMetrics.Histogram();
+    Assert.assertEquals(0l, histogram.getPercentile(0.5d));
+
+    for (int i = 1; i <= 100; i++) {
+      histogram.add(i);
+    }
+
+    // Within a factor of two of the actual percentiles, and never more than the largest value
+    long median = histogram.getPercentile(0.5d);
+    Assert.assertTrue("Median was " + median, median >= 50 && median < 100);
+    Assert.assertEquals(100l, histogram.getPercentile(0.99d));
+    Assert.assertEquals(100l, histogram.getMax());
+  }
+
+  @Test
+  public void registersWithJmx() throws Exception {
+    HashMetrics metrics = new HashMetrics();
+    ObjectName name = metrics.register("HashMetricsTest");
+    try {
+      Assert.assertEquals(0l, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EntriesHashed"));
+      Assert.assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ServerEntriesHashed"));
+    } finally {
+      HashMetrics.unregister(name);
+    }
+    Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class ScanThrottleTest {
+
+  @Test
+  public void iteratorsShareTheOverallLimit() {
+    ScanThrottle throttle = new ScanThrottle(1000d, 0d, 0d, 0d);
+    Assert.assertEquals(250l, throttle.getIteratorEntriesPerSecond(4));
+    Assert.assertEquals(1000l, throttle.getIteratorEntriesPerSecond(0));
+    Assert.assertEquals(0l, throttle.getIteratorBytesPerSecond(4));
+
+    // The lower of the share and the server limit
+    throttle.setServerEntriesPerSecond(100d);
+    Assert.assertEquals(100l, throttle.getIteratorEntriesPerSecond(4));
+    Assert.assertEquals(100l, throttle.getIteratorEntriesPerSecond(1));
+
+    throttle.setEntriesPerSecond(0d);
+    throttle.setServerBytesPerSecond(5000d);
+    Assert.assertEquals(100l, throttle.getIteratorEntriesPerSecond(4));
+    Assert.assertEquals(5000l, throttle.getIteratorBytesPerSecond(4));
+  }
+
+  @Test
+  public void serverLimitsChangeTogether() {
+    ScanThrottle throttle = new ScanThrottle(0d, 0d, 100d, 0d);
+    Assert.assertTrue(throttle.isServerLimited());
+    Assert.assertEquals(100d, throttle.getServerThrottle("server1").getEntriesPerSecond(), 0.001d);
+    Assert.assertSame(throttle.getServerThrottle("server1"), throttle.getServerThrottle("server1"));
+
+    throttle.setServerEntriesPerSecond(200d);
+    Assert.assertEquals(200d, throttle.getServerThrottle("server1").getEntriesPerSecond(), 0.001d);
+    Assert.assertEquals(200d, throttle.getServerThrottle("server2").getEntriesPerSecond(), 0.001d);
+
+    throttle.setServerEntriesPerSecond(0d);
+    Assert.assertFalse(throttle.isServerLimited());
+    Assert.assertFalse(throttle.getServerThrottle("server1").isLimited());
+  }
+
+}
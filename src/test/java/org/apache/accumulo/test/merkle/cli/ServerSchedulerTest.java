@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class ServerSchedulerTest {
+
+  private ExecutorService svc;
+
+  @Before
+  public void createThreads() {
+    svc = Executors.newFixedThreadPool(16);
+  }
+
+  @After
+  public void stopThreads() {
+    svc.shutdownNow();
+  }
+
+  /**
+   * Sleeps in each task, recording the most tasks which were running against each server at once
+   */
+  private static class RecordingTasks implements ServerScheduler.TaskFactory {
+    private final Map<Range,String> servers = new HashMap<>();
+    private final Map<String,AtomicInteger> running = new HashMap<>(), mostRunning = new HashMap<>();
+    private final AtomicInteger completed = new AtomicInteger();
+
+    RecordingTasks(Map<String,List<Range>> rangesByServer) {
+      for (Map.Entry<String,List<Range>> entry : rangesByServer.entrySet()) {
+        for (Range range : entry.getValue()) {
+          servers.put(range, entry.getKey());
+        }
+        running.put(entry.getKey(), new AtomicInteger());
+        mostRunning.put(entry.getKey(), new AtomicInteger());
+      }
+    }
+
+    @Override
+    public Runnable create(Range range) {
+      return create(servers.get(range), null);
+    }
+
+    /**
+     * @param next
+     *          Run once this task has started, or null
+     */
+    Runnable create(final String server, final Runnable next) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          int scans = running.get(server).incrementAndGet();
+          synchronized (mostRunning) {
+            AtomicInteger most = mostRunning.get(server);
+            most.set(Math.max(most.get(), scans));
+          }
+
+          try {
+            if (null != next) {
+              next.run();
+            }
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          } finally {
+            running.get(server).decrementAndGet();
+          }
+
+          completed.incrementAndGet();
+        }
+      };
+    }
+
+    int getMostRunning(String server) {
+      return mostRunning.get(server).get();
+    }
+  }
+
+  /**
+   * @return Ranges "serverN-M", numRanges of them on each server
+   */
+  private static Map<String,List<Range>> createRanges(int numServers, int numRanges) {
+    Map<String,List<Range>> rangesByServer = new LinkedHashMap<>();
+    for (int i = 0; i < numServers; i++) {
+      List<Range> ranges = new ArrayList<>();
+      for (int j = 0; j < numRanges; j++) {
+        ranges.add(new Range("server" + i + "-" + j));
+      }
+      rangesByServer.put("server" + i, ranges);
+    }
+    return rangesByServer;
+  }
+
+  @Test
+  public void limitsScansPerServer() throws Exception {
+    // Most of the ranges are on one server
+    final Map<String,List<Range>> rangesByServer = new LinkedHashMap<>();
+    rangesByServer.put("server1", Arrays.asList(new Range("a"), new Range("b"), new Range("c"), new Range("d"), new Range("e"), new Range("f")));
+    rangesByServer.put("server2", Arrays.asList(new Range("g")));
+
+    RecordingTasks tasks = new RecordingTasks(rangesByServer);
+    ServerScheduler scheduler = new ServerScheduler(new BoundedExecutor(svc, 8), 2);
+    scheduler.run(rangesByServer, tasks);
+
+    Assert.assertEquals(7, tasks.completed.get());
+    Assert.assertEquals(2, tasks.getMostRunning("server1"));
+    Assert.assertEquals(1, tasks.getMostRunning("server2"));
+    Assert.assertEquals(0, scheduler.getNumScans("server1"));
+  }
+
+  @Test
+  public void neverExceedsLimitOnAnyServer() throws Exception {
+    Map<String,List<Range>> rangesByServer = createRanges(4, 10);
+
+    // Enough threads to run every server at its limit
+    RecordingTasks tasks = new RecordingTasks(rangesByServer);
+    ServerScheduler scheduler = new ServerScheduler(new BoundedExecutor(svc, 16), 3);
+    scheduler.run(rangesByServer, tasks);
+
+    Assert.assertEquals(40, tasks.completed.get());
+    for (String server : rangesByServer.keySet()) {
+      Assert.assertEquals(server, 3, tasks.getMostRunning(server));
+      Assert.assertEquals(server, 0, scheduler.getNumScans(server));
+    }
+  }
+
+  @Test
+  public void submittedPiecesCountAgainstTheLimit() throws Exception {
+    final Map<String,List<Range>> rangesByServer = createRanges(2, 10);
+    final RecordingTasks tasks = new RecordingTasks(rangesByServer);
+    final ServerScheduler scheduler = new ServerScheduler(new BoundedExecutor(svc, 16), 2);
+    final AtomicInteger numPieces = new AtomicInteger();
+
+    // Every scan tries to hand a piece of its range to another task on the same server
+    scheduler.run(rangesByServer, new ServerScheduler.TaskFactory() {
+      @Override
+      public Runnable create(Range range) {
+        final String server = tasks.servers.get(range);
+        return tasks.create(server, new Runnable() {
+          @Override
+          public void run() {
+            if (scheduler.trySubmit(server, tasks.create(server, null))) {
+              numPieces.incrementAndGet();
+            }
+          }
+        });
+      }
+    });
+
+    Assert.assertEquals(20 + numPieces.get(), tasks.completed.get());
+    for (String server : rangesByServer.keySet()) {
+      Assert.assertTrue(server, tasks.getMostRunning(server) <= 2);
+      Assert.assertEquals(server, 0, scheduler.getNumScans(server));
+    }
+  }
+
+  @Test
+  public void rethrowsFailure() throws Exception {
+    final IllegalStateException failure = new IllegalStateException("fail");
+    final AtomicInteger completed = new AtomicInteger();
+
+    Map<String,List<Range>> rangesByServer = Collections.singletonMap("server1",
+        Arrays.asList(new Range("a"), new Range("b"), new Range("c"), new Range("d")));
+
+    ServerScheduler scheduler = new ServerScheduler(new BoundedExecutor(svc, 4), 1);
+    try {
+      scheduler.run(rangesByServer, new ServerScheduler.TaskFactory() {
+        @Override
+        public Runnable create(final Range range) {
+          return new Runnable() {
+            @Override
+            public void run() {
+              if (range.contains(new Key("b"))) {
+                throw failure;
+              }
+              completed.incrementAndGet();
+            }
+          };
+        }
+      });
+      Assert.fail("Expected the failure of the second task");
+    } catch (RuntimeException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+
+    // Only one scan at a time, so nothing after the failure was run
+    Assert.assertEquals(1, completed.get());
+  }
+
+}
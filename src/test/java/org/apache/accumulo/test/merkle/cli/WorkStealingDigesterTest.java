@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.cli;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.metadata.RangeLocations;
+import org.apache.accumulo.test.merkle.metadata.TabletMetadata;
+import org.apache.accumulo.test.merkle.sink.LeafSink;
+import org.apache.accumulo.test.merkle.skvi.KeyValueDigester;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class WorkStealingDigesterTest {
+
+  private ExecutorService svc;
+
+  @Before
+  public void createThreads() {
+    svc = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void stopThreads() {
+    svc.shutdownNow();
+  }
+
+  @Test
+  public void splitRangesSumToTheSameLeaves() throws Exception {
+    final SortedMap<Key,Value> data = createData();
+    HashFunction hashFunction = HashFunction.forName("MD5");
+    List<Range> ranges = Arrays.asList(new Range(null, false, "01000", true), new Range("01000", false, null, false));
+
+    final HashMetrics metrics = new HashMetrics();
+    final Map<Range,byte[]> leaves = Collections.synchronizedMap(new HashMap<Range,byte[]>());
+    LeafSink sink = new LeafSink() {
+      @Override
+      public void add(MerkleTreeNode leaf) {
+        Assert.assertNull("More than one leaf for " + leaf.getRange(), leaves.put(leaf.getRange(), leaf.getHash()));
+        // The range is only counted as hashed after its leaf is complete
+        Assert.assertTrue(metrics.getRangesCompleted() < leaves.size());
+      }
+
+      @Override
+      public void close() {}
+    };
+
+    BoundedExecutor executor = new BoundedExecutor(svc, 4);
+    WorkStealingDigester digester = createDigester(data, sink, hashFunction, executor);
+    digester.setMetrics(metrics);
+    for (Range range : ranges) {
+      executor.submit(digester.create(range));
+    }
+    executor.await();
+
+    Assert.assertTrue("Expected the larger range to be split", digester.getNumSplits() > 0);
+    Assert.assertEquals(ranges.size(), leaves.size());
+    Assert.assertEquals(ranges.size(), metrics.getRangesCompleted());
+    Assert.assertEquals(0, metrics.getRangesInFlight());
+
+    KeyValueDigester expected = KeyValueDigester.create(hashFunction, true);
+    for (Range range : ranges) {
+      List<Entry<Key,Value>> entries = new ArrayList<>();
+      for (Entry<Key,Value> entry : data.entrySet()) {
+        if (range.contains(entry.getKey())) {
+          entries.add(entry);
+        }
+      }
+      Assert.assertArrayEquals("Different leaf for " + range, GenerateHashes.digest(expected, entries), leaves.get(range));
+    }
+  }
+
+  @Test
+  public void piecesCountAgainstTheServerLimit() throws Exception {
+    final SortedMap<Key,Value> data = createData();
+    HashFunction hashFunction = HashFunction.forName("MD5");
+    List<Range> ranges = Collections.singletonList(new Range());
+
+    // Every piece is on the same server
+    RangeLocations locations = new RangeLocations(Collections.<TabletMetadata> emptyList()) {
+      @Override
+      public String getLocation(Range range) {
+        return "server1";
+      }
+    };
+
+    final List<MerkleTreeNode> leaves = Collections.synchronizedList(new ArrayList<MerkleTreeNode>());
+    LeafSink sink = new LeafSink() {
+      @Override
+      public void add(MerkleTreeNode leaf) {
+        leaves.add(leaf);
+      }
+
+      @Override
+      public void close() {}
+    };
+
+    // The scan of the range takes the only place on its server, so nothing can be split off
+    BoundedExecutor executor = new BoundedExecutor(svc, 4);
+    ServerScheduler scheduler = new ServerScheduler(executor, 1);
+    WorkStealingDigester digester = createDigester(data, sink, hashFunction, executor);
+    digester.setLocations(locations);
+    digester.setScheduler(scheduler);
+    scheduler.run(locations.groupByServer(ranges), digester);
+
+    Assert.assertEquals(0, digester.getNumSplits());
+    Assert.assertEquals(1, leaves.size());
+
+    // With room for a second scan, the range is split
+    leaves.clear();
+    executor = new BoundedExecutor(svc, 4);
+    scheduler = new ServerScheduler(executor, 2);
+    digester = createDigester(data, sink, hashFunction, executor);
+    digester.setLocations(locations);
+    digester.setScheduler(scheduler);
+    scheduler.run(locations.groupByServer(ranges), digester);
+
+    Assert.assertTrue("Expected the range to be split", digester.getNumSplits() > 0);
+    Assert.assertEquals(1, leaves.size());
+  }
+
+  private SortedMap<Key,Value> createData() {
+    SortedMap<Key,Value> data = new TreeMap<>();
+    for (int i = 0; i < 20000; i++) {
+      data.put(new Key(String.format("%05d", i), "cf", "cq"), new Value(("val" + i).getBytes(StandardCharsets.UTF_8)));
+    }
+    return data;
+  }
+
+  /**
+   * @return A digester which scans the data in memory and treats every scan as a straggler, so ranges are split whenever
+   *         there is room for another task
+   */
+  private WorkStealingDigester createDigester(final SortedMap<Key,Value> data, LeafSink sink, HashFunction hashFunction, BoundedExecutor executor) {
+    return new WorkStealingDigester(null, "table", sink, hashFunction, 2, executor) {
+      @Override
+      protected Iterable<Entry<Key,Value>> scan(Range piece) {
+        List<Entry<Key,Value>> entries = new ArrayList<>();
+        for (Entry<Key,Value> entry : data.entrySet()) {
+          if (piece.contains(entry.getKey())) {
+            entries.add(entry);
+          }
+        }
+        return entries;
+      }
+
+      @Override
+      protected boolean isStraggling(long elapsedNanos) {
+        return true;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.hash;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class HashAccumulatorTest {
+
+  @Test
+  public void carriesAndWraps() {
+    byte[] sum = HashAccumulator.sum(new byte[] {0x00, (byte) 0xff, (byte) 0xff}, new byte[] {0x00, 0x00, 0x01});
+    Assert.assertArrayEquals(new byte[] {0x01, 0x00, 0x00}, sum);
+
+    sum = HashAccumulator.sum(new byte[] {(byte) 0xff, (byte) 0xff}, new byte[] {0x00, 0x02});
+    Assert.assertArrayEquals(new byte[] {0x00, 0x01}, sum);
+  }
+
+  @Test
+  public void orderIndependent() {
+    Random random = new Random(54321);
+    byte[][] hashes = new byte[50][16];
+    for (byte[] hash : hashes) {
+      random.nextBytes(hash);
+    }
+
+    HashAccumulator forward = new HashAccumulator(16), backward = new HashAccumulator(16);
+    for (int i = 0; i < hashes.length; i++) {
+      forward.add(hashes[i]);
+      backward.add(hashes[hashes.length - i - 1]);
+    }
+
+    Assert.assertArrayEquals(forward.get(), backward.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void differentLengths() {
+    new HashAccumulator(16).add(new byte[20]);
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.hash;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * 
+ */
+public class HashFunctionTest {
+
+  @Test
+  public void murmurMatchesGuava() throws Exception {
+    Random random = new Random(12345);
+    Hasher hasher = HashFunction.forName(HashFunction.MURMUR3_128).newHasher();
+
+    for (int length = 0; length < 100; length++) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+
+      hasher.update(data, 0, data.length);
+      Assert.assertArrayEquals("Different hash for " + length + " bytes", Hashing.murmur3_128().hashBytes(data).asBytes(), hasher.digest());
+    }
+  }
+
+  @Test
+  public void murmurUpdatesInPieces() throws Exception {
+    Random random = new Random(12346);
+    byte[] data = new byte[1000];
+    random.nextBytes(data);
+
+    Hasher hasher = HashFunction.forName(HashFunction.MURMUR3_128).newHasher();
+    int offset = 0;
+    while (offset < data.length) {
+      if (random.nextBoolean()) {
+        hasher.update(data[offset]);
+        offset++;
+      } else {
+        int length = Math.min(random.nextInt(40), data.length - offset);
+        hasher.update(data, offset, length);
+        offset += length;
+      }
+    }
+
+    Assert.assertArrayEquals(Hashing.murmur3_128().hashBytes(data).asBytes(), hasher.digest());
+  }
+
+  @Test
+  public void messageDigestNames() throws Exception {
+    byte[] data = "some data".getBytes("UTF-8");
+
+    for (String name : new String[] {"MD5", "SHA-1", "SHA-256"}) {
+      HashFunction function = HashFunction.forName(name);
+      Hasher hasher = function.newHasher();
+      hasher.update(data, 0, data.length);
+
+      byte[] expected = MessageDigest.getInstance(name).digest(data);
+      Assert.assertEquals(expected.length, function.getHashLength());
+
+      byte[] buf = new byte[expected.length + 2];
+      Assert.assertEquals(expected.length, hasher.digest(buf, 2));
+      for (int i = 0; i < expected.length; i++) {
+        Assert.assertEquals(expected[i], buf[i + 2]);
+      }
+    }
+  }
+
+  @Test(expected = java.security.NoSuchAlgorithmException.class)
+  public void unknownName() throws Exception {
+    HashFunction.forName("not-a-hash");
+  }
+
+}
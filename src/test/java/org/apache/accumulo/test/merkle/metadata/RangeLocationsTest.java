@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.metadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class RangeLocationsTest {
+
+  @Test
+  public void rangesAreAssignedToTheTabletTheyStartIn() {
+    RangeLocations locations = new RangeLocations(createTablets("server1", "server2", null, "server1"));
+
+    Assert.assertEquals("server1", locations.getLocation(new Range()));
+    Assert.assertEquals("server1", locations.getLocation(new Range(null, false, "b", true)));
+    Assert.assertEquals("server2", locations.getLocation(new Range("a", false, "b", true)));
+    Assert.assertEquals("server2", locations.getLocation(new Range("aa", "cc")));
+    Assert.assertEquals(RangeLocations.UNHOSTED, locations.getLocation(new Range("b", false, "c", true)));
+    Assert.assertEquals("server1", locations.getLocation(new Range("c", false, null, false)));
+    Assert.assertEquals("server1", locations.getLocation(new Range("zzz", null)));
+  }
+
+  @Test
+  public void groupsKeepTheOrderOfEachServer() {
+    List<TabletMetadata> tablets = createTablets("server1", "server1", "server2", "server1", "server2");
+    List<Range> ranges = new ArrayList<>();
+    for (TabletMetadata tablet : tablets) {
+      ranges.add(tablet.getRange());
+    }
+
+    // Largest first, or any other order, is kept for each server
+    List<Range> reversed = new ArrayList<>(ranges);
+    Collections.reverse(reversed);
+
+    Map<String,List<Range>> rangesByServer = new RangeLocations(tablets).groupByServer(reversed);
+    Assert.assertEquals(Arrays.asList("server2", "server1"), new ArrayList<>(rangesByServer.keySet()));
+    Assert.assertEquals(Arrays.asList(ranges.get(4), ranges.get(2)), rangesByServer.get("server2"));
+    Assert.assertEquals(Arrays.asList(ranges.get(3), ranges.get(1), ranges.get(0)), rangesByServer.get("server1"));
+  }
+
+  /**
+   * @return A tablet for each location, ending at "a", "b", "c" and so on, with the last tablet ending at infinity
+   */
+  private List<TabletMetadata> createTablets(String... locations) {
+    List<TabletMetadata> tablets = new ArrayList<>();
+    Text prevEndRow = null;
+    for (int i = 0; i < locations.length; i++) {
+      Text endRow = i == locations.length - 1 ? null : new Text(Character.toString((char) ('a' + i)));
+      TabletMetadata tablet = new TabletMetadata(endRow, prevEndRow);
+      tablet.setLocation(locations[i]);
+      tablets.add(tablet);
+      prevEndRow = endRow;
+    }
+    return tablets;
+  }
+}
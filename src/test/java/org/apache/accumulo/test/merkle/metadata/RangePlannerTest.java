@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.apache.accumulo.test.merkle.skvi.KeyValueDigester;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class RangePlannerTest {
+
+  @Test
+  public void largestRangesFirst() {
+    List<TabletMetadata> tablets = createTablets(100l, 5000l, 10l);
+    RangePlanner planner = new RangePlanner(null, "table", tablets, 4, 0l);
+
+    List<Range> ranges = getRanges(tablets);
+    Assert.assertEquals(Arrays.asList(ranges.get(1), ranges.get(0), ranges.get(2)), planner.largestFirst(ranges));
+  }
+
+  @Test
+  public void tabletSizeIsSharedBetweenRanges() {
+    RangePlanner planner = new RangePlanner(null, "table", createTablets(100l, 1000l), 4, 0l);
+
+    // Two ranges in the first tablet, one across both tablets, and one in the second tablet
+    Range first = new Range(null, false, "a", true), second = new Range("a", false, "b", true), third = new Range("b", false, "p", true), fourth = new Range(
+        "p", false, null, false);
+    Map<Range,Long> sizes = planner.estimateSizes(Arrays.asList(fourth, second, first, third));
+
+    Assert.assertEquals(Long.valueOf(33l), sizes.get(first));
+    Assert.assertEquals(Long.valueOf(33l), sizes.get(second));
+    Assert.assertEquals(Long.valueOf(33l + 500l), sizes.get(third));
+    Assert.assertEquals(Long.valueOf(500l), sizes.get(fourth));
+  }
+
+  @Test
+  public void largeRangesAreDivided() {
+    List<TabletMetadata> tablets = createTablets(100l, 1000l, 100l);
+    RangePlanner planner = new RangePlanner(null, "table", tablets, 4, 250l) {
+      @Override
+      protected Text getFirstRow(Range range) {
+        return new Text("a");
+      }
+    };
+
+    // One range which covers the first two tablets, and one for the last
+    List<Range> ranges = Arrays.asList(new Range(null, false, tablets.get(1).getEndRow(), true), tablets.get(2).getRange());
+    Map<Range,List<Range>> pieces = planner.subdivide(ranges);
+
+    Assert.assertEquals(ranges, new ArrayList<>(pieces.keySet()));
+    Assert.assertEquals(Collections.singletonList(ranges.get(1)), pieces.get(ranges.get(1)));
+
+    // Divided at the end of the first tablet, and then four times over the second
+    List<Range> divided = pieces.get(ranges.get(0));
+    Assert.assertEquals(5, divided.size());
+    Assert.assertEquals(new Range(null, false, tablets.get(0).getEndRow(), true), divided.get(0));
+    assertCovers(ranges.get(0), divided);
+  }
+
+  @Test
+  public void lastTabletIsDivided() {
+    List<TabletMetadata> tablets = createTablets(10000l);
+    RangePlanner planner = new RangePlanner(null, "table", tablets, 4, 100l) {
+      @Override
+      protected Text getFirstRow(Range range) {
+        return new Text("row");
+      }
+    };
+
+    Range range = tablets.get(0).getRange();
+    List<Range> divided = planner.subdivide(Collections.singletonList(range)).get(range);
+    Assert.assertEquals(RangePlanner.MAX_PIECES_PER_TABLET, divided.size());
+    assertCovers(range, divided);
+  }
+
+  @Test
+  public void interpolatedRowsAreBetween() {
+    Text low = new Text("row0100"), high = new Text("row0200");
+    List<Text> rows = RangePlanner.interpolate(low, high, 9);
+    Assert.assertEquals(9, rows.size());
+
+    Text previous = low;
+    for (Text row : rows) {
+      Assert.assertTrue(row.compareTo(previous) > 0);
+      Assert.assertTrue(row.compareTo(high) < 0);
+      Assert.assertTrue(row.toString().startsWith("row0"));
+      previous = row;
+    }
+
+    // Too close together to divide
+    Assert.assertEquals(Collections.<Text> emptyList(), RangePlanner.interpolate(new Text("a"), new Text("a\0"), 3));
+  }
+
+  @Test
+  public void piecesSumToTheRange() throws Exception {
+    SortedMap<Key,Value> data = new TreeMap<>();
+    for (int i = 0; i < 500; i++) {
+      data.put(new Key(String.format("%04d", i), "cf", "cq"), new Value(("val" + i).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    Range range = new Range("0099", false, "0400", true);
+    List<Text> cuts = RangePlanner.interpolate(new Text("0099"), new Text("0400"), 7);
+    cuts.add(0, new Text("0099"));
+    cuts.add(new Text("0400"));
+    List<Range> pieces = RangePlanner.toPieces(range, cuts);
+
+    // The cuts at either end of the range are ignored
+    Assert.assertEquals(8, pieces.size());
+    assertCovers(range, pieces);
+
+    HashFunction hashFunction = HashFunction.forName(HashFunction.MURMUR3_128);
+    KeyValueDigester digester = KeyValueDigester.create(hashFunction, true);
+    HashAccumulator sum = new HashAccumulator(hashFunction.getHashLength());
+    for (Range piece : pieces) {
+      sum.add(digest(digester, data, piece));
+    }
+
+    Assert.assertArrayEquals(digest(digester, data, range), sum.get());
+  }
+
+  private byte[] digest(KeyValueDigester digester, SortedMap<Key,Value> data, Range range) {
+    for (Entry<Key,Value> entry : data.entrySet()) {
+      if (range.contains(entry.getKey())) {
+        digester.update(entry.getKey(), entry.getValue());
+      }
+    }
+    return digester.digest();
+  }
+
+  private void assertCovers(Range range, List<Range> pieces) {
+    Assert.assertEquals(range.isInfiniteStartKey(), pieces.get(0).isInfiniteStartKey());
+    Assert.assertEquals(range.getStartKey(), pieces.get(0).getStartKey());
+    Assert.assertEquals(range.isStartKeyInclusive(), pieces.get(0).isStartKeyInclusive());
+
+    for (int i = 1; i < pieces.size(); i++) {
+      Range previous = pieces.get(i - 1), piece = pieces.get(i);
+      Assert.assertEquals(previous.getEndKey(), piece.getStartKey());
+      Assert.assertFalse(previous.isEndKeyInclusive());
+      Assert.assertTrue(piece.isStartKeyInclusive());
+      Assert.assertTrue(previous.getStartKey() + " is not before " + piece.getStartKey(), previous.isInfiniteStartKey()
+          || previous.getStartKey().compareTo(piece.getStartKey()) < 0);
+    }
+
+    Range last = pieces.get(pieces.size() - 1);
+    Assert.assertEquals(range.isInfiniteStopKey(), last.isInfiniteStopKey());
+    Assert.assertEquals(range.getEndKey(), last.getEndKey());
+    Assert.assertEquals(range.isEndKeyInclusive(), last.isEndKeyInclusive());
+  }
+
+  /**
+   * @return Tablets of the given sizes, split at "m", "t", ... The last tablet has no end row.
+   */
+  private List<TabletMetadata> createTablets(long... sizes) {
+    List<TabletMetadata> tablets = new ArrayList<>();
+    String[] endRows = {"m", "t", "w", "y"};
+    Text prevEndRow = null;
+    for (int i = 0; i < sizes.length; i++) {
+      Text endRow = i == sizes.length - 1 ? null : new Text(endRows[i]);
+      TabletMetadata tablet = new TabletMetadata(endRow, prevEndRow);
+      tablet.addFile("file" + i, sizes[i], sizes[i] / 10);
+      tablets.add(tablet);
+      prevEndRow = endRow;
+    }
+    return tablets;
+  }
+
+  private List<Range> getRanges(List<TabletMetadata> tablets) {
+    List<Range> ranges = new ArrayList<>();
+    for (TabletMetadata tablet : tablets) {
+      ranges.add(tablet.getRange());
+    }
+    return ranges;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class CombiningLeafSinkTest {
+
+  @Test
+  public void piecesAreSummedIntoOneLeaf() throws Exception {
+    List<MerkleTreeNode> leaves = MemoryLeafSinkTest.createLeaves(4);
+    Range whole = new Range(null, false, "00003", true), last = leaves.get(3).getRange();
+
+    // The first three leaves are pieces of one range
+    Map<Range,List<Range>> pieces = new LinkedHashMap<>();
+    pieces.put(whole, Arrays.asList(leaves.get(0).getRange(), leaves.get(1).getRange(), leaves.get(2).getRange()));
+    pieces.put(last, Collections.singletonList(last));
+
+    MemoryLeafSink memory = new MemoryLeafSink("MD5", true);
+    CombiningLeafSink sink = new CombiningLeafSink(memory, 16, pieces);
+    Assert.assertEquals(2, sink.getNumIncomplete());
+
+    sink.add(leaves.get(3));
+    sink.add(leaves.get(1));
+    Assert.assertEquals(1, sink.getNumIncomplete());
+    Assert.assertEquals(0, memory.getNumLeaves());
+
+    sink.add(leaves.get(2));
+    sink.add(leaves.get(0));
+    sink.close();
+    Assert.assertEquals(0, sink.getNumIncomplete());
+    Assert.assertEquals(2, memory.getNumLeaves());
+
+    byte[] sum = HashAccumulator.sum(leaves.get(0).getHash(), leaves.get(1).getHash(), leaves.get(2).getHash());
+    List<MerkleTreeNode> combined = memory.getTree(Shape.COMPATIBLE).getLeaves();
+    Assert.assertArrayEquals(sum, combined.get(0).getHash());
+    Assert.assertArrayEquals(leaves.get(3).getHash(), combined.get(1).getHash());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownPiece() throws Exception {
+    List<MerkleTreeNode> leaves = MemoryLeafSinkTest.createLeaves(2);
+    Range range = leaves.get(0).getRange();
+    CombiningLeafSink sink = new CombiningLeafSink(new MemoryLeafSink("MD5"), 16, Collections.singletonMap(range, Collections.singletonList(range)));
+    sink.add(leaves.get(1));
+  }
+}
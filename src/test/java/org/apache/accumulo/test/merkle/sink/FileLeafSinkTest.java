@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class FileLeafSinkTest {
+
+  @Test
+  public void readSortedLeaves() throws Exception {
+    List<MerkleTreeNode> leaves = MemoryLeafSinkTest.createLeaves(10);
+    List<MerkleTreeNode> reversed = new ArrayList<>(leaves);
+    Collections.reverse(reversed);
+
+    File file = File.createTempFile("leaves", ".txt");
+    file.deleteOnExit();
+    FileLeafSink sink = new FileLeafSink(file);
+    for (MerkleTreeNode leaf : reversed) {
+      sink.add(leaf);
+    }
+    sink.close();
+
+    List<MerkleTreeNode> read = FileLeafSink.read(file);
+    Assert.assertEquals(leaves.size(), read.size());
+    for (int i = 0; i < leaves.size(); i++) {
+      Assert.assertArrayEquals(leaves.get(i).getHash(), read.get(i).getHash());
+      Assert.assertEquals(leaves.get(i).getRange().getStartKey(), read.get(i).getRange().getStartKey());
+      Assert.assertEquals(leaves.get(i).getRange().getEndKey(), read.get(i).getRange().getEndKey());
+    }
+  }
+
+}
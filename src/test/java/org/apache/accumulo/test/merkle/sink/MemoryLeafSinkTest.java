@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.sink;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.test.merkle.FlatMerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree;
+import org.apache.accumulo.test.merkle.MerkleTree.Shape;
+import org.apache.accumulo.test.merkle.MerkleTreeNode;
+import org.apache.accumulo.test.merkle.RangeSerialization;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class MemoryLeafSinkTest {
+
+  @Test
+  public void outOfOrderLeavesMatchMerkleTree() throws Exception {
+    Random random = new Random(42);
+    for (int numLeaves = 1; numLeaves <= 40; numLeaves++) {
+      List<MerkleTreeNode> leaves = createLeaves(numLeaves);
+      List<MerkleTreeNode> shuffled = new ArrayList<>(leaves);
+      Collections.shuffle(shuffled, random);
+
+      MemoryLeafSink sink = new MemoryLeafSink("MD5", true);
+      for (MerkleTreeNode leaf : shuffled) {
+        sink.add(leaf);
+      }
+      sink.close();
+
+      Assert.assertEquals(numLeaves, sink.getNumLeaves());
+      Assert.assertEquals(new MerkleTree(leaves, "MD5").getRootNode(), sink.getRootNode());
+
+      // The retained tree normalizes each range to how it is stored in a table
+      MerkleTree expected = new MerkleTree(normalize(leaves), "MD5", Shape.BALANCED);
+      FlatMerkleTree actual = sink.getTree(Shape.BALANCED);
+      Assert.assertEquals(expected.getLeaves(), actual.getLeaves());
+      Assert.assertEquals(expected.getRootNode(), actual.getRootNode());
+    }
+  }
+
+  @Test
+  public void leavesAreAddedOnceContiguous() throws Exception {
+    List<MerkleTreeNode> leaves = createLeaves(3);
+    MemoryLeafSink sink = new MemoryLeafSink("MD5");
+
+    sink.add(leaves.get(2));
+    sink.add(leaves.get(1));
+    Assert.assertEquals(0, sink.getNumLeaves());
+
+    sink.add(leaves.get(0));
+    Assert.assertEquals(3, sink.getNumLeaves());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void missingLeaf() throws Exception {
+    List<MerkleTreeNode> leaves = createLeaves(3);
+    MemoryLeafSink sink = new MemoryLeafSink("MD5");
+
+    sink.add(leaves.get(0));
+    sink.add(leaves.get(2));
+    sink.getRootNode();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void leavesNotRetained() throws Exception {
+    MemoryLeafSink sink = new MemoryLeafSink("MD5");
+    sink.add(createLeaves(1).get(0));
+    sink.getTree(Shape.COMPATIBLE);
+  }
+
+  static List<MerkleTreeNode> createLeaves(int numLeaves) throws NoSuchAlgorithmException {
+    List<MerkleTreeNode> leaves = new ArrayList<>(numLeaves);
+    String prevEndRow = null;
+    for (int i = 0; i < numLeaves; i++) {
+      String endRow = (i == numLeaves - 1) ? null : String.format("%05d", i + 1);
+      byte[] hash = MessageDigest.getInstance("MD5").digest(("hash" + i).getBytes(StandardCharsets.UTF_8));
+      leaves.add(new MerkleTreeNode(new Range(prevEndRow, false, endRow, true), 0, Collections.<Range> emptyList(), hash));
+      prevEndRow = endRow;
+    }
+    return leaves;
+  }
+
+  /**
+   * The same leaves with ranges as they are read back from a table of hashes
+   */
+  static List<MerkleTreeNode> normalize(List<MerkleTreeNode> leaves) {
+    List<MerkleTreeNode> normalized = new ArrayList<>(leaves.size());
+    for (MerkleTreeNode leaf : leaves) {
+      normalized.add(new MerkleTreeNode(RangeSerialization.toRange(RangeSerialization.toKey(leaf.getRange())), 0, leaf.getChildren(), leaf.getHash()));
+    }
+    return normalized;
+  }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.accumulo.test.merkle.skvi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.apache.accumulo.test.merkle.Throttle;
+import org.apache.accumulo.test.merkle.hash.HashAccumulator;
+import org.apache.accumulo.test.merkle.hash.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * 
+ */
+public class KeyValueDigesterTest {
+
+  @Test
+  public void matchesWritableEncoding() throws Exception {
+    SortedMap<Key,Value> data = createData();
+
+    MessageDigest expected = MessageDigest.getInstance("MD5");
+    KeyValueDigester digester = new KeyValueDigester(HashFunction.forName("MD5").newHasher());
+
+    for (Entry<Key,Value> entry : data.entrySet()) {
+      byte[] serialized = serialize(entry.getKey(), entry.getValue());
+      digester.update(entry.getKey(), entry.getValue());
+
+      Assert.assertArrayEquals("Different digest for " + entry, expected.digest(serialized), digester.digest());
+    }
+  }
+
+  @Test
+  public void matchesWritableEncodingWithMurmur() throws Exception {
+    SortedMap<Key,Value> data = createData();
+
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    KeyValueDigester digester = new KeyValueDigester(HashFunction.forName(HashFunction.MURMUR3_128).newHasher());
+
+    for (Entry<Key,Value> entry : data.entrySet()) {
+      serialized.write(serialize(entry.getKey(), entry.getValue()));
+      digester.update(entry.getKey(), entry.getValue());
+    }
+
+    Assert.assertArrayEquals(Hashing.murmur3_128().hashBytes(serialized.toByteArray()).asBytes(), digester.digest());
+  }
+
+  @Test
+  public void combinableDigestIsSplitIndependent() throws Exception {
+    SortedMap<Key,Value> data = createData();
+    HashFunction hashFunction = HashFunction.forName(HashFunction.MURMUR3_128);
+
+    KeyValueDigester digester = KeyValueDigester.create(hashFunction, true);
+    for (Entry<Key,Value> entry : data.entrySet()) {
+      digester.update(entry.getKey(), entry.getValue());
+    }
+    byte[] whole = digester.digest();
+
+    // Digest each entry on its own and sum them back together in reverse
+    HashAccumulator sum = new HashAccumulator(hashFunction.getHashLength());
+    List<Entry<Key,Value>> entries = new ArrayList<>(data.entrySet());
+    Collections.reverse(entries);
+    for (Entry<Key,Value> entry : entries) {
+      digester.update(entry.getKey(), entry.getValue());
+      sum.add(digester.digest());
+    }
+
+    Assert.assertArrayEquals(whole, sum.get());
+
+    // Nothing digested sums to zero
+    Assert.assertArrayEquals(new byte[hashFunction.getHashLength()], digester.digest());
+  }
+
+  @Test
+  public void iteratorDigest() throws Exception {
+    SortedMap<Key,Value> data = createData();
+
+    MessageDigest expected = MessageDigest.getInstance("SHA-1");
+    for (Entry<Key,Value> entry : data.entrySet()) {
+      expected.update(serialize(entry.getKey(), entry.getValue()));
+    }
+
+    DigestIterator iter = new DigestIterator();
+    iter.init(new SortedMapIterator(data), Collections.singletonMap(DigestIterator.HASH_NAME_KEY, "SHA-1"), null);
+    iter.seek(new Range(), Collections.<ByteSequence> emptyList(), false);
+
+    Assert.assertTrue(iter.hasTop());
+    Assert.assertEquals(data.lastKey(), iter.getTopKey());
+    Assert.assertArrayEquals(expected.digest(), iter.getTopValue().get());
+
+    iter.next();
+    Assert.assertFalse(iter.hasTop());
+  }
+
+  @Test
+  public void iteratorChunksEndAtRows() throws Exception {
+    // Three entries in each row
+    SortedMap<Key,Value> data = new TreeMap<>();
+    for (int i = 0; i < 100; i++) {
+      for (int j = 0; j < 3; j++) {
+        data.put(new Key(String.format("%03d", i), "cf", Integer.toString(j)), new Value(Integer.toString(i * j).getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+
+    Map<String,String> options = new HashMap<>();
+    options.put(DigestIterator.HASH_NAME_KEY, "MD5");
+    options.put(DigestIterator.CHUNK_ENTRIES_KEY, "10");
+
+    DigestIterator iter = new DigestIterator();
+    iter.init(new SortedMapIterator(data), options, null);
+    iter.seek(new Range(), Collections.<ByteSequence> emptyList(), false);
+
+    List<Entry<Key,Value>> entries = new ArrayList<>(data.entrySet());
+    int index = 0, numChunks = 0;
+    while (iter.hasTop()) {
+      KeyValueDigester digester = new KeyValueDigester(HashFunction.forName("MD5").newHasher());
+      int chunkSize = 0;
+      Entry<Key,Value> entry;
+      do {
+        entry = entries.get(index++);
+        digester.update(entry.getKey(), entry.getValue());
+        chunkSize++;
+      } while (!entry.getKey().equals(iter.getTopKey()));
+
+      // Ten entries is rounded up to the end of the fourth row
+      Assert.assertEquals(12, chunkSize);
+      Assert.assertArrayEquals(digester.digest(), iter.getTopValue().get());
+
+      numChunks++;
+      iter.next();
+    }
+
+    Assert.assertEquals(entries.size(), index);
+    Assert.assertEquals(25, numChunks);
+  }
+
+  @Test
+  public void iteratorEmptyRange() throws Exception {
+    DigestIterator iter = new DigestIterator();
+    iter.init(new SortedMapIterator(createData()), Collections.singletonMap(DigestIterator.HASH_NAME_KEY, "MD5"), null);
+
+    Range range = new Range("zzzz", "zzzzz");
+    iter.seek(range, Collections.<ByteSequence> emptyList(), false);
+
+    Assert.assertTrue(iter.hasTop());
+    Assert.assertTrue(range.contains(iter.getTopKey()));
+    Assert.assertArrayEquals(MessageDigest.getInstance("MD5").digest(), iter.getTopValue().get());
+
+    iter.next();
+    Assert.assertFalse(iter.hasTop());
+
+    // Continuing after the last Key returned doesn't return another digest
+    iter.seek(new Range(new Key("zzzz"), false, null, false), Collections.<ByteSequence> emptyList(), false);
+    Assert.assertFalse(iter.hasTop());
+  }
+
+  @Test
+  public void throttledIteratorDigestIsUnchanged() throws Exception {
+    SortedMap<Key,Value> data = createData();
+
+    Map<String,String> options = new HashMap<>();
+    options.put(DigestIterator.HASH_NAME_KEY, "MD5");
+    options.put(DigestIterator.ENTRIES_PER_SECOND_KEY, "1000000");
+
+    try {
+      DigestIterator iter = new DigestIterator();
+      iter.init(new SortedMapIterator(data), options, null);
+      iter.seek(new Range(), Collections.<ByteSequence> emptyList(), false);
+
+      Assert.assertEquals(1000000d, DigestIterator.getServerThrottle().getEntriesPerSecond(), 0.001d);
+      KeyValueDigester digester = new KeyValueDigester(HashFunction.forName("MD5").newHasher());
+      for (Entry<Key,Value> entry : data.entrySet()) {
+        digester.update(entry.getKey(), entry.getValue());
+      }
+      Assert.assertArrayEquals(digester.digest(), iter.getTopValue().get());
+
+      // Negative limits are rejected
+      options.put(DigestIterator.ENTRIES_PER_SECOND_KEY, "-1");
+      try {
+        new DigestIterator().init(new SortedMapIterator(data), options, null);
+        Assert.fail("Expected a negative limit to be rejected");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      resetServerThrottle();
+    }
+  }
+
+  @Test
+  public void throttledIteratorWaitsForPermits() throws Exception {
+    SortedMap<Key,Value> data = createData();
+    Assert.assertTrue(data.size() >= 2 * Throttle.BATCH_ENTRIES);
+
+    Map<String,String> options = new HashMap<>();
+    options.put(DigestIterator.HASH_NAME_KEY, "MD5");
+    options.put(DigestIterator.ENTRIES_PER_SECOND_KEY, "200");
+
+    try {
+      DigestIterator iter = new DigestIterator();
+      iter.init(new SortedMapIterator(data), options, null);
+
+      // The first batch is free, and the second waits about half a second for its permits
+      long start = System.nanoTime();
+      iter.seek(new Range(), Collections.<ByteSequence> emptyList(), false);
+      Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+      Assert.assertTrue(iter.hasTop());
+    } finally {
+      resetServerThrottle();
+    }
+  }
+
+  @Test
+  public void iteratorReportsMetrics() throws Exception {
+    SortedMap<Key,Value> data = createData();
+    DigestIteratorMetrics metrics = DigestIteratorMetrics.get();
+    long seeks = metrics.getSeeks(), entries = metrics.getEntries(), digests = metrics.getDigests();
+
+    DigestIterator iter = new DigestIterator();
+    iter.init(new SortedMapIterator(data), Collections.singletonMap(DigestIterator.HASH_NAME_KEY, "MD5"), null);
+    iter.seek(new Range(), Collections.<ByteSequence> emptyList(), false);
+
+    Assert.assertEquals(seeks + 1, metrics.getSeeks());
+    Assert.assertEquals(digests + 1, metrics.getDigests());
+    Assert.assertEquals(entries + data.size(), metrics.getEntries());
+  }
+
+  /**
+   * Removes the limits which a throttled DigestIterator set for every other test in this JVM
+   */
+  private static void resetServerThrottle() {
+    DigestIterator.getServerThrottle().setEntriesPerSecond(0d);
+    DigestIterator.getServerThrottle().setBytesPerSecond(0d);
+  }
+
+  static SortedMap<Key,Value> createData() {
+    SortedMap<Key,Value> data = new TreeMap<>();
+    long[] timestamps = new long[] {0l, 1l, 127l, 128l, -1l, -113l, 1000l, 1l << 40, Long.MAX_VALUE, Long.MIN_VALUE};
+    for (int i = 0; i < 200; i++) {
+      String row = String.format("%04d", i);
+      byte[] cf = new byte[i % 7], cq = new byte[i % 3], cv = new byte[0];
+      Key k = new Key(row.getBytes(StandardCharsets.UTF_8), cf, cq, cv, timestamps[i % timestamps.length], 0 == i % 5);
+      data.put(k, new Value(i % 4 == 0 ? new byte[0] : (row + "value").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Long enough to need multi-byte lengths
+    byte[] longRow = new byte[400];
+    data.put(new Key(longRow, new byte[200], new byte[0], "vis".getBytes(StandardCharsets.UTF_8), 5l, false), new Value(new byte[70000]));
+
+    return data;
+  }
+
+  private byte[] serialize(Key k, Value v) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    k.write(dos);
+    v.write(dos);
+    return baos.toByteArray();
+  }
+
+}